@@ -8,13 +8,13 @@ package org.usb4java.javax.examples;
 import java.util.List;
 
 import org.usb4java.javax.examples.adb.Adb;
-import org.usb4java.javax.examples.adb.AuthMessage;
-import org.usb4java.javax.examples.adb.CloseMessage;
 import org.usb4java.javax.examples.adb.ConnectMessage;
+import org.usb4java.javax.examples.adb.ConnectionManager;
 import org.usb4java.javax.examples.adb.AdbDevice;
-import org.usb4java.javax.examples.adb.Message;
-import org.usb4java.javax.examples.adb.OkayMessage;
-import org.usb4java.javax.examples.adb.OpenMessage;
+import org.usb4java.javax.examples.adb.RemoteFile;
+import org.usb4java.javax.examples.adb.ShellClient;
+import org.usb4java.javax.examples.adb.StreamMultiplexer;
+import org.usb4java.javax.examples.adb.SyncClient;
 
 /**
  * A simple ADB (Android Debug Bridge Demo). This demo sends and receives
@@ -52,93 +52,47 @@ public class AdbDemo
         device.open();
         try
         {
-            // Send the connect message
-            Message message = new ConnectMessage(
-                ConnectMessage.SYSTEM_TYPE_HOST, "12345678", "ADB Demo");
-            System.out.println("Sending: " + message);
-            device.sendMessage(message);
+            // Perform the CNXN/AUTH handshake. The token is signed first and
+            // when this fails the public key is sent which must be accepted
+            // on the device.
+            ConnectionManager manager = new ConnectionManager();
+            manager.setBanner("ADB Demo");
+            ConnectMessage message = manager.connect(device);
+            System.out.println("Connected: " + message);
 
-            // Repeat until we are connected
-            boolean triedAuthentication = false;
-            boolean sentPublicKey = false;
-            boolean connected = false;
-            while (!connected)
-            {
-                message = device.receiveMessage();
-                System.out.println("Received: " + message);
+            // Let the stream multiplexer handle all further communication.
+            // Writes are split according to the maximum payload size
+            // negotiated with the device.
+            System.out.println(String.format(
+                "Negotiated protocol version 0x%08x, max data %d",
+                device.getProtocolVersion(), device.getMaxData()));
 
-                // If connect message has been received then we are finished
-                if (message instanceof ConnectMessage)
-                {
-                    connected = true;
-                }
+            // The multiplexer and the stream readers release each received
+            // message when done with it so payloads can be pooled.
+            device.setBufferPooling(true);
+            StreamMultiplexer multiplexer = new StreamMultiplexer(device);
+            multiplexer.start();
 
-                // Process auth message
-                else if (message instanceof AuthMessage)
-                {
-                    AuthMessage authMessage = (AuthMessage) message;
+            // Open "sync:" and list the root directory
+            SyncClient sync = SyncClient.open(multiplexer);
+            System.out.println("Opened: " + sync.getStream());
+            for (RemoteFile file: sync.list("/"))
+                System.out.println(file);
 
-                    // Sign token if we didn't tried it already
-                    if (!triedAuthentication)
-                    {
-                        byte[] signature = Adb.signToken(authMessage.getData());
-                        message =
-                            new AuthMessage(AuthMessage.TYPE_SIGNATURE,
-                                signature);
-                        System.out.println("Sending: " + message);
-                        device.sendMessage(message);
-                        triedAuthentication = true;
-                    }
+            sync.close();
+            System.out.println("Closed: " + sync.getStream());
 
-                    // If token signing already failed then sent public key
-                    else if (!sentPublicKey)
-                    {
-                        byte[] publicKey = Adb.getPublicKey();
-                        message =
-                            new AuthMessage(AuthMessage.TYPE_RSAPUBLICKEY,
-                                publicKey);
-                        System.out.println("Sending: " + message);
-                        device.sendMessage(message);
-                        triedAuthentication = false;
-                        sentPublicKey = true;
-                    }
-
-                    // Can't authenticate for some reason
-                    else
-                    {
-                        System.err.println("Couldn't authenticate");
-                        System.exit(1);
-                    }
-                }
-
-                // Unknown message received
-                else
-                {
-                    System.err.println("Received unexpected message: "
-                        + message);
-                    System.exit(1);
-                }
-            }
-
-            // Open "sync:"
-            message = new OpenMessage(1, "sync:");
-            System.out.println("Sending: " + message);
-            device.sendMessage(message);
-            message = device.receiveMessage();
-            System.out.println("Received: " + message);
-            if (!(message instanceof OkayMessage))
-            {
-                System.err.println("Open failed");
-                System.exit(1);
-            }
-            int remoteId = ((OkayMessage) message).getRemoteId();
+            // Execute a shell command and print its output line by line
+            ShellClient shell = ShellClient.exec(multiplexer, "ls /");
+            System.out.println("Opened: " + shell.getStream());
+            String line;
+            while ((line = shell.readLine()) != null)
+                System.out.println(line);
 
             // Close
-            message = new CloseMessage(1, remoteId);
-            System.out.println("Sending: " + message);
-            device.sendMessage(message);
-            message = device.receiveMessage();
-            System.out.println("Received: " + message);
+            shell.close();
+            System.out.println("Closed: " + shell.getStream());
+            multiplexer.close();
         }
         finally
         {
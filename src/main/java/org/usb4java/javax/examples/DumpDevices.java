@@ -12,11 +12,14 @@ import javax.usb.UsbDevice;
 import javax.usb.UsbEndpoint;
 import javax.usb.UsbException;
 import javax.usb.UsbHostManager;
-import javax.usb.UsbHub;
 import javax.usb.UsbInterface;
 import javax.usb.UsbPort;
 import javax.usb.UsbServices;
 
+import org.usb4java.javax.examples.registry.InventoryEngine;
+import org.usb4java.javax.examples.registry.InventoryResult;
+import org.usb4java.javax.examples.registry.InventoryTask;
+
 /**
  * Dumps all devices by using the javax-usb API.
  * 
@@ -25,60 +28,57 @@ import javax.usb.UsbServices;
 public class DumpDevices
 {
     /**
-     * Dumps the specified USB device to stdout.
+     * Describes the specified USB device. Child devices are not included.
      * 
      * @param device
-     *            The USB device to dump.
+     *            The USB device to describe.
+     * @return The description.
      */
-    private static void dumpDevice(final UsbDevice device)
+    private static String describeDevice(final UsbDevice device)
     {
+        final StringBuilder out = new StringBuilder();
+        final String nl = System.getProperty("line.separator");
+
         // Dump information about the device itself
-        System.out.println(device);
+        out.append(device).append(nl);
         final UsbPort port = device.getParentUsbPort();
         if (port != null)
         {
-            System.out.println("Connected to port: " + port.getPortNumber());
-            System.out.println("Parent: " + port.getUsbHub());
+            out.append("Connected to port: ").append(port.getPortNumber())
+                .append(nl);
+            out.append("Parent: ").append(port.getUsbHub()).append(nl);
         }
 
         // Dump device descriptor
-        System.out.println(device.getUsbDeviceDescriptor());
+        out.append(device.getUsbDeviceDescriptor()).append(nl);
 
         // Process all configurations
         for (UsbConfiguration configuration: (List<UsbConfiguration>) device
             .getUsbConfigurations())
         {
             // Dump configuration descriptor
-            System.out.println(configuration.getUsbConfigurationDescriptor());
+            out.append(configuration.getUsbConfigurationDescriptor())
+                .append(nl);
 
             // Process all interfaces
             for (UsbInterface iface: (List<UsbInterface>) configuration
                 .getUsbInterfaces())
             {
                 // Dump the interface descriptor
-                System.out.println(iface.getUsbInterfaceDescriptor());
+                out.append(iface.getUsbInterfaceDescriptor()).append(nl);
 
                 // Process all endpoints
                 for (UsbEndpoint endpoint: (List<UsbEndpoint>) iface
                     .getUsbEndpoints())
                 {
                     // Dump the endpoint descriptor
-                    System.out.println(endpoint.getUsbEndpointDescriptor());
+                    out.append(endpoint.getUsbEndpointDescriptor())
+                        .append(nl);
                 }
             }
         }
 
-        System.out.println();
-
-        // Dump child devices if device is a hub
-        if (device.isUsbHub())
-        {
-            final UsbHub hub = (UsbHub) device;
-            for (UsbDevice child: (List<UsbDevice>) hub.getAttachedUsbDevices())
-            {
-                dumpDevice(child);
-            }
-        }
+        return out.toString();
     }
 
     /**
@@ -101,7 +101,30 @@ public class DumpDevices
         System.out.println("Service API version: " + services.getApiVersion());
         System.out.println();
 
-        // Dump the root USB hub
-        dumpDevice(services.getRootUsbHub());
+        // Describe all devices in parallel and dump them in device tree
+        // order
+        final List<InventoryResult<String>> results = new InventoryEngine()
+            .run(InventoryEngine.listDevices(services.getRootUsbHub()),
+                new InventoryTask<String>()
+                {
+                    @Override
+                    public String run(final UsbDevice device)
+                    {
+                        return describeDevice(device);
+                    }
+                });
+        for (InventoryResult<String> result: results)
+        {
+            if (result.isSuccess())
+            {
+                System.out.println(result.getValue());
+            }
+            else
+            {
+                System.out.println(result.getDevice());
+                System.out.println("Failed: " + result.getError());
+                System.out.println();
+            }
+        }
     }
 }
@@ -5,16 +5,20 @@
 
 package org.usb4java.javax.examples;
 
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.usb.UsbDevice;
 import javax.usb.UsbDeviceDescriptor;
 import javax.usb.UsbException;
 import javax.usb.UsbHostManager;
-import javax.usb.UsbHub;
 import javax.usb.UsbServices;
 
+import org.usb4java.javax.examples.registry.InventoryEngine;
+import org.usb4java.javax.examples.registry.InventoryResult;
+import org.usb4java.javax.examples.registry.InventoryTask;
+import org.usb4java.javax.examples.registry.StringDescriptorCache;
+
 /**
  * Dumps the names of all USB devices by using the javax-usb API. On
  * Linux this can only work when your user has write permissions on all the USB
@@ -27,80 +31,75 @@ import javax.usb.UsbServices;
 public class DumpNames
 {
     /**
-     * Dumps the name of the specified device to stdout.
+     * Reads the name of the specified device.
      * 
      * @param device
      *            The USB device.
-     * @throws UnsupportedEncodingException
-     *             When string descriptor could not be parsed.
+     * @return The device name or null if device has no name.
      * @throws UsbException
      *             When string descriptor could not be read.
      */
-    private static void dumpName(final UsbDevice device)
-        throws UnsupportedEncodingException, UsbException
+    private static String readName(final UsbDevice device) throws UsbException
     {
         // Read the string descriptor indices from the device descriptor.
         // If they are missing then ignore the device.
         final UsbDeviceDescriptor desc = device.getUsbDeviceDescriptor();
         final byte iManufacturer = desc.iManufacturer();
         final byte iProduct = desc.iProduct();
-        if (iManufacturer == 0 || iProduct == 0) return;
+        if (iManufacturer == 0 || iProduct == 0) return null;
 
-        // Dump the device name
-        System.out.println(device.getString(iManufacturer) + " "
-            + device.getString(iProduct));
+        // Read the device name. The strings are read from the cache which
+        // fetches both of them with a single batch of control transfers.
+        final String[] strings = StringDescriptorCache.getInstance()
+            .getStrings(device, iManufacturer, iProduct);
+        return strings[0] + " " + strings[1];
     }
 
     /**
-     * Processes the specified USB device.
+     * Main method.
      * 
-     * @param device
-     *            The USB device to process.
+     * @param args
+     *            Command-line arguments (Ignored)
+     * @throws UsbException
+     *             When an USB error was reported which wasn't handled by this
+     *             program itself.
      */
-    private static void processDevice(final UsbDevice device)
+    public static void main(final String[] args) throws UsbException
     {
-        // When device is a hub then process all child devices
-        if (device.isUsbHub())
-        {
-            final UsbHub hub = (UsbHub) device;
-            for (UsbDevice child: (List<UsbDevice>) hub.getAttachedUsbDevices())
+        // Get the USB services and dump information about them
+        final UsbServices services = UsbHostManager.getUsbServices();
+
+        // Read the names of all non-hub devices in parallel
+        final List<UsbDevice> devices = new ArrayList<UsbDevice>();
+        for (UsbDevice device: InventoryEngine.listDevices(services
+            .getRootUsbHub()))
+            if (!device.isUsbHub()) devices.add(device);
+        final List<InventoryResult<String>> results =
+            new InventoryEngine().run(devices, new InventoryTask<String>()
             {
-                processDevice(child);
-            }
-        }
+                @Override
+                public String run(final UsbDevice device) throws UsbException
+                {
+                    return readName(device);
+                }
+            });
 
-        // When device is not a hub then dump its name.
-        else
+        // Dump the names in device tree order
+        for (InventoryResult<String> result: results)
         {
-            try
+            if (result.isSuccess())
             {
-                dumpName(device);
+                if (result.getValue() != null)
+                    System.out.println(result.getValue());
             }
-            catch (Exception e)
+            else
             {
                 // On Linux this can fail because user has no write permission
                 // on the USB device file. On Windows it can fail because
                 // no libusb device driver is installed for the device
-                System.err.println("Ignoring problematic device: " + e);
+                System.err.println("Ignoring problematic device: "
+                    + result.getError());
             }
         }
     }
-
-    /**
-     * Main method.
-     * 
-     * @param args
-     *            Command-line arguments (Ignored)
-     * @throws UsbException
-     *             When an USB error was reported which wasn't handled by this
-     *             program itself.
-     */
-    public static void main(final String[] args) throws UsbException
-    {
-        // Get the USB services and dump information about them
-        final UsbServices services = UsbHostManager.getUsbServices();
-
-        // Dump the root USB hub
-        processDevice(services.getRootUsbHub());
-    }
 }
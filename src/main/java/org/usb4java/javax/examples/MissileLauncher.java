@@ -16,11 +16,12 @@ import javax.usb.UsbControlIrp;
 import javax.usb.UsbDevice;
 import javax.usb.UsbDeviceDescriptor;
 import javax.usb.UsbException;
-import javax.usb.UsbHostManager;
 import javax.usb.UsbHub;
 import javax.usb.UsbInterface;
 import javax.usb.UsbInterfacePolicy;
 
+import org.usb4java.javax.examples.registry.DeviceRegistry;
+
 /**
  * Controls a USB missile launcher (Only compatible with Vendor/Product
  * 1130:0202).
@@ -58,6 +59,22 @@ public class MissileLauncher
     /** Command to fire a missile. */
     private static final int CMD_FIRE = 0x10;
 
+    /**
+     * Looks up the missile launcher device in the device registry and
+     * returns it. If there are multiple missile launchers attached then this
+     * simple demo only returns the first one.
+     * 
+     * @return The missile launcher USB device or null if not found.
+     * @throws UsbException
+     *             When USB services could not be initialized.
+     */
+    public static UsbDevice findMissileLauncher() throws UsbException
+    {
+        List<UsbDevice> devices = DeviceRegistry.getInstance().getDevices(
+            VENDOR_ID, PRODUCT_ID);
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
     /**
      * Recursively searches for the missile launcher device on the specified USB
      * hub and returns it. If there are multiple missile launchers attached then
@@ -167,8 +184,7 @@ public class MissileLauncher
     public static void main(String[] args) throws UsbException
     {
         // Search for the missile launcher USB device and stop when not found
-        UsbDevice device = findMissileLauncher(
-            UsbHostManager.getUsbServices().getRootUsbHub());
+        UsbDevice device = findMissileLauncher();
         if (device == null)
         {
             System.err.println("Missile launcher not found.");
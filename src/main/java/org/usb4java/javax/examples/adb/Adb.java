@@ -19,21 +19,16 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.crypto.Cipher;
-import javax.usb.UsbConfiguration;
 import javax.usb.UsbConst;
 import javax.usb.UsbDevice;
-import javax.usb.UsbDeviceDescriptor;
 import javax.usb.UsbEndpoint;
 import javax.usb.UsbEndpointDescriptor;
 import javax.usb.UsbException;
-import javax.usb.UsbHostManager;
-import javax.usb.UsbHub;
 import javax.usb.UsbInterface;
-import javax.usb.UsbInterfaceDescriptor;
-import javax.usb.UsbServices;
 import javax.xml.bind.DatatypeConverter;
 
+import org.usb4java.javax.examples.registry.DeviceRegistry;
+
 /**
  * Some static helper methods for ADB.
  * 
@@ -50,14 +45,29 @@ public class Adb
     /** Constant for ADB protocol. */
     private static final byte ADB_PROTOCOL = 1;
 
-    /** Header for token signing. */
-    private static byte[] headerOID = new byte[] {
-        0x30, 0x21, 0x30, 0x09, 0x06, 0x05, 0x2b, 0x0e, 0x03, 0x02, 0x1a, 0x05,
-        0x00, 0x04, 0x14
-    };
+    /** The signer using the private key of the real ADB tool. */
+    private static final TokenSigner SIGNER = new TokenSigner(new File(
+        System.getProperty("user.home"), ".android/adbkey"));
+
+    /** The cache of probed USB devices. */
+    private static final TopologyCache TOPOLOGY = new TopologyCache();
+
+    /** The public key file of the real ADB tool. */
+    private static final File PUBLIC_KEY_FILE = new File(
+        System.getProperty("user.home"), ".android/adbkey.pub");
+
+    /** The cached public key. Null if not read yet. */
+    private static byte[] publicKey;
+
+    /** The modification time of the cached public key file. */
+    private static long publicKeyModified;
+
+    /** The size of the cached public key file. */
+    private static long publicKeyLength;
 
     /**
-     * Returns the list of all available ADB devices.
+     * Returns the list of all available ADB devices. The adb_usb.ini file is
+     * reloaded first if it has been changed (See {@link Vendors#reload()}).
      * 
      * @return The list of available ADB devices.
      * @throws UsbException
@@ -65,76 +75,86 @@ public class Adb
      */
     public static List<AdbDevice> findDevices() throws UsbException
     {
-        UsbServices services = UsbHostManager.getUsbServices();
-        List<AdbDevice> usbDevices = new ArrayList<AdbDevice>();
-        findDevices(services.getRootUsbHub(), usbDevices);
-        return usbDevices;
+        Vendors.reload();
+        return findDevices((short[]) null);
     }
 
     /**
-     * Recursively scans the specified USB hub for ADB devices and puts them
-     * into the list.
+     * Returns the list of available ADB devices from the specified vendors.
+     * Devices from other vendors are not probed. The attached devices are
+     * taken from the {@link DeviceRegistry} instead of walking the device
+     * tree and the interfaces of each device are only probed once while it
+     * stays attached to the same port (See {@link TopologyCache}). This can
+     * be used to only probe the devices matched by vendor IDs which have
+     * been added with {@link Vendors#reload()}.
      * 
-     * @param hub
-     *            The USB hub to scan recursively.
-     * @param devices
-     *            The list where to add found devices.
+     * @param vendorIds
+     *            The vendor IDs of the devices to probe. Null to probe the
+     *            devices of all known ADB vendors.
+     * @return The list of available ADB devices.
+     * @throws UsbException
+     *             When USB communication failed.
      */
-    private static void findDevices(UsbHub hub, List<AdbDevice> devices)
+    public static List<AdbDevice> findDevices(short[] vendorIds)
+        throws UsbException
     {
-        for (UsbDevice usbDevice: (List<UsbDevice>) hub.getAttachedUsbDevices())
-        {
-            if (usbDevice.isUsbHub())
-            {
-                findDevices((UsbHub) usbDevice, devices);
-            }
-            else
-            {
-                checkDevice(usbDevice, devices);
-            }
-        }
+        if (vendorIds != null && vendorIds.length == 0)
+            return new ArrayList<AdbDevice>();
+        DeviceRegistry registry = DeviceRegistry.getInstance();
+        return TOPOLOGY.findDevices(registry.getDevicesByPortPath(),
+            vendorIds);
     }
 
     /**
-     * Checks if the specified USB device is a ADB device and adds it to the
-     * list if it is.
+     * Returns the ADB devices found on the specified USB device.
      * 
      * @param usbDevice
      *            The USB device to check.
-     * @param adbDevices
-     *            The list of ADB devices to add the USB device to when it is an
-     *            ADB device.
+     * @return The ADB devices. Empty if the USB device is not from an ADB
+     *         vendor or has no ADB interface.
      */
-    private static void checkDevice(UsbDevice usbDevice,
-        List<AdbDevice> adbDevices)
+    public static List<AdbDevice> getAdbDevices(UsbDevice usbDevice)
     {
-        UsbDeviceDescriptor deviceDesc = usbDevice.getUsbDeviceDescriptor();
+        if (usbDevice.isUsbHub()
+            || !isAdbVendor(usbDevice.getUsbDeviceDescriptor().idVendor()))
+            return new ArrayList<AdbDevice>();
+        return TOPOLOGY.getAdbDevices(TopologyCache.getPortPath(usbDevice),
+            usbDevice);
+    }
 
-        // Ignore devices from Non-ADB vendors
-        if (!isAdbVendor(deviceDesc.idVendor())) return;
+    /**
+     * Returns the topology cache used by {@link #findDevices(short[])}.
+     * 
+     * @return The topology cache.
+     */
+    public static TopologyCache getTopologyCache()
+    {
+        return TOPOLOGY;
+    }
 
-        // Check interfaces of device
-        UsbConfiguration config = usbDevice.getActiveUsbConfiguration();
-        for (UsbInterface iface: (List<UsbInterface>) config.getUsbInterfaces())
+    /**
+     * Probes the interfaces of the specified USB device and returns the ADB
+     * devices found on it. The vendor of the device is not checked.
+     * 
+     * @param usbDevice
+     *            The USB device to probe.
+     * @return The ADB devices. Empty if the USB device has no ADB interface.
+     */
+    static List<AdbDevice> probeDevice(UsbDevice usbDevice)
+    {
+        List<AdbDevice> adbDevices = new ArrayList<AdbDevice>(1);
+
+        // Look up the interfaces matching the ADB specs which have two
+        // bulk endpoints
+        for (UsbInterface iface: DeviceRegistry.findInterfaces(usbDevice,
+            ADB_CLASS, ADB_SUBCLASS, ADB_PROTOCOL, 2))
         {
             List<UsbEndpoint> endpoints = iface.getUsbEndpoints();
-
-            // Ignore interface if it does not have two endpoints
-            if (endpoints.size() != 2) continue;
-
-            // Ignore interface if it does not match the ADB specs
-            if (!isAdbInterface(iface)) continue;
-
             UsbEndpointDescriptor ed1 =
                 endpoints.get(0).getUsbEndpointDescriptor();
             UsbEndpointDescriptor ed2 =
                 endpoints.get(1).getUsbEndpointDescriptor();
 
-            // Ignore interface if endpoints are not bulk endpoints
-            if (((ed1.bmAttributes() & UsbConst.ENDPOINT_TYPE_BULK) == 0) ||
-                ((ed2.bmAttributes() & UsbConst.ENDPOINT_TYPE_BULK) == 0))
-                continue;
-            
             // Determine which endpoint is in and which is out. If both
             // endpoints are in or out then ignore the interface
             byte a1 = ed1.bEndpointAddress();
@@ -158,6 +178,7 @@ public class Adb
             AdbDevice adbDevice = new AdbDevice(iface, in, out);
             adbDevices.add(adbDevice);
         }
+        return adbDevices;
     }
 
     /**
@@ -169,24 +190,25 @@ public class Adb
      */
     private static boolean isAdbVendor(short vendorId)
     {
-        for (short adbVendorId: Vendors.VENDOR_IDS)
-            if (adbVendorId == vendorId) return true;
-        return false;
+        return Vendors.isAdbVendor(vendorId);
     }
 
     /**
-     * Checks if the specified USB interface is an ADB interface.
+     * Checks if the specified vendor ID is one of the specified vendor IDs.
      * 
-     * @param iface
-     *            The interface to check.
-     * @return True if interface is an ADB interface, false if not.
+     * @param vendorId
+     *            The vendor ID to check.
+     * @param vendorIds
+     *            The vendor IDs to match. Null to match all known ADB
+     *            vendors.
+     * @return True if vendor matches, false if not.
      */
-    private static boolean isAdbInterface(UsbInterface iface)
+    static boolean matchesVendor(short vendorId, short[] vendorIds)
     {
-        UsbInterfaceDescriptor desc = iface.getUsbInterfaceDescriptor();
-        return desc.bInterfaceClass() == ADB_CLASS &&
-            desc.bInterfaceSubClass() == ADB_SUBCLASS &&
-            desc.bInterfaceProtocol() == ADB_PROTOCOL;
+        if (vendorIds == null) return isAdbVendor(vendorId);
+        for (short id: vendorIds)
+            if (id == vendorId) return true;
+        return false;
     }
 
     /**
@@ -201,8 +223,23 @@ public class Adb
     public static RSAPrivateKey getPrivateKey() throws IOException,
         GeneralSecurityException
     {
-        File file =
-            new File(System.getProperty("user.home"), ".android/adbkey");
+        return SIGNER.getPrivateKey();
+    }
+
+    /**
+     * Reads a private ADB key from the specified file.
+     * 
+     * @param file
+     *            The key file to read.
+     * @return The private ADB key.
+     * @throws IOException
+     *             When key file could not be read.
+     * @throws GeneralSecurityException
+     *             When private key could not be parsed.
+     */
+    static RSAPrivateKey readPrivateKey(File file) throws IOException,
+        GeneralSecurityException
+    {
         BufferedReader reader = new BufferedReader(new FileReader(file));
         try
         {
@@ -226,7 +263,8 @@ public class Adb
     }
 
     /**
-     * Returns the public ADB key.
+     * Returns the public ADB key. The key is cached and only read again when
+     * the key file changes.
      * 
      * @return The public ADB key.
      * @throws IOException
@@ -234,8 +272,33 @@ public class Adb
      */
     public static byte[] getPublicKey() throws IOException
     {
-        File file =
-            new File(System.getProperty("user.home"), ".android/adbkey.pub");
+        File file = PUBLIC_KEY_FILE;
+        long modified = file.lastModified();
+        long length = file.length();
+        synchronized (PUBLIC_KEY_FILE)
+        {
+            if (publicKey == null || publicKeyModified != modified
+                || publicKeyLength != length)
+            {
+                publicKey = readPublicKey(file);
+                publicKeyModified = modified;
+                publicKeyLength = length;
+            }
+            return publicKey.clone();
+        }
+    }
+
+    /**
+     * Reads a public ADB key from the specified file.
+     * 
+     * @param file
+     *            The public key file.
+     * @return The public ADB key.
+     * @throws IOException
+     *             When key file could not be read.
+     */
+    private static byte[] readPublicKey(File file) throws IOException
+    {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         InputStream in = new FileInputStream(file);
         byte[] buffer = new byte[8192];
@@ -251,7 +314,8 @@ public class Adb
     }
 
     /**
-     * Signs the specified token and returns the signature.
+     * Signs the specified token and returns the signature. The private key
+     * is cached and only read again when the key file changes.
      * 
      * @param token
      *            The token to sign.
@@ -265,11 +329,6 @@ public class Adb
     public static byte[] signToken(byte[] token) throws IOException,
         GeneralSecurityException
     {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        stream.write(headerOID);
-        stream.write(token);
-        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, getPrivateKey());
-        return cipher.doFinal(stream.toByteArray());
+        return SIGNER.sign(token);
     }
 }
@@ -5,10 +5,21 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.usb.UsbEndpoint;
 import javax.usb.UsbException;
 import javax.usb.UsbInterface;
+import javax.usb.UsbIrp;
 import javax.usb.UsbPipe;
+import javax.usb.util.DefaultUsbIrp;
 
 /**
  * ADB device.
@@ -17,6 +28,9 @@ import javax.usb.UsbPipe;
  */
 public class AdbDevice
 {
+    /** The default maximum number of asynchronously sent messages in flight. */
+    public static final int DEFAULT_MAX_MESSAGES_IN_FLIGHT = 16;
+
     /** The claimed USB ADB interface. */
     private final UsbInterface iface;
 
@@ -26,6 +40,96 @@ public class AdbDevice
     /** The out endpoint address. */
     private final byte outEndpoint;
 
+    /**
+     * If pipes are opened and closed for each single message instead of
+     * keeping them open while the device is open.
+     */
+    private boolean pipePerMessage;
+
+    /** If the device is open. */
+    private volatile boolean open;
+
+    /** The opened in pipe. Null if device is not open. */
+    private UsbPipe inPipe;
+
+    /** The opened out pipe. Null if device is not open. */
+    private UsbPipe outPipe;
+
+    /** Lock which keeps header and payload of sent messages together. */
+    private final Object sendLock = new Object();
+
+    /** Lock which keeps header and payload of received messages together. */
+    private final Object receiveLock = new Object();
+
+    /** Reused IRP for synchronously sending messages. */
+    private final UsbIrp sendIrp = new DefaultUsbIrp();
+
+    /** Reused IRP for receiving messages. */
+    private final UsbIrp receiveIrp = new DefaultUsbIrp();
+
+    /** Reused buffer for the header of synchronously sent messages. */
+    private final byte[] sendHeader = new byte[MessageHeader.SIZE];
+
+    /** Reused buffer for the header of received messages. */
+    private final byte[] receiveHeader = new byte[MessageHeader.SIZE];
+
+    /** If header and payload are sent with a single transfer. */
+    private volatile boolean coalescing;
+
+    /**
+     * Reused buffer for coalesced transfers. Null if not needed yet. Always
+     * accessed while holding the send lock.
+     */
+    private ByteBuffer batchBuffer;
+
+    /** The number of USB transfers used for sending messages. */
+    private final AtomicLong transferCount = new AtomicLong();
+
+    /** The number of sent messages. */
+    private final AtomicLong sentMessageCount = new AtomicLong();
+
+    /** If payloads of received messages are read into pooled buffers. */
+    private volatile boolean bufferPooling;
+
+    /** The pool for received payloads. Null if not created yet. */
+    private volatile BufferPool bufferPool;
+
+    /**
+     * Reused buffer for payloads which are not backed by an array. Null if
+     * not needed yet.
+     */
+    private byte[] sendBuffer;
+
+    /** The maximum number of asynchronously sent messages in flight. */
+    private int maxMessagesInFlight = DEFAULT_MAX_MESSAGES_IN_FLIGHT;
+
+    /** Permits for asynchronously sent messages in flight. */
+    private Semaphore sendPermits;
+
+    /** The asynchronously sent messages which are not finished yet. */
+    private final Set<SendFuture> pendingSends = Collections
+        .newSetFromMap(new ConcurrentHashMap<SendFuture, Boolean>());
+
+    /** The pipe a message is currently read from. Null if none. */
+    private volatile UsbPipe receivingPipe;
+
+    /** The background message receiver. Null if not started. */
+    private volatile MessageReceiver receiver;
+
+    /** The protocol version we announced in our CONNECT message. */
+    private volatile int localVersion =
+        ConnectMessage.DEFAULT_PROTOCOL_VERSION;
+
+    /** The maximum payload size we announced in our CONNECT message. */
+    private volatile int localMaxData = ConnectMessage.DEFAULT_MAX_DATA;
+
+    /** The negotiated protocol version. */
+    private volatile int protocolVersion =
+        ConnectMessage.LEGACY_PROTOCOL_VERSION;
+
+    /** The negotiated maximum payload size. */
+    private volatile int maxData = ConnectMessage.LEGACY_MAX_DATA;
+
     /**
      * Constructs a new ADB interface.
      * 
@@ -46,6 +150,339 @@ public class AdbDevice
         this.outEndpoint = outEndpoint;
     }
 
+    /**
+     * Returns the USB interface.
+     * 
+     * @return The USB interface.
+     */
+    public UsbInterface getUsbInterface()
+    {
+        return this.iface;
+    }
+
+    /**
+     * Returns the in endpoint address.
+     * 
+     * @return The in endpoint address.
+     */
+    public byte getInEndpoint()
+    {
+        return this.inEndpoint;
+    }
+
+    /**
+     * Returns the out endpoint address.
+     * 
+     * @return The out endpoint address.
+     */
+    public byte getOutEndpoint()
+    {
+        return this.outEndpoint;
+    }
+
+    /**
+     * Returns the serial number string of the USB device. On Android
+     * devices this is usually the same serial number which is reported in
+     * the CONNECT message of the device.
+     * 
+     * @return The serial number or null if the device has none.
+     * @throws UsbException
+     *             When serial number could not be read.
+     */
+    public String getSerialNumber() throws UsbException
+    {
+        try
+        {
+            return this.iface.getUsbConfiguration().getUsbDevice()
+                .getSerialNumberString();
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the USB pipes are opened and closed for each single message.
+     * 
+     * @return True if pipes are opened per message, false if they are kept
+     *         open while the device is open.
+     */
+    public boolean isPipePerMessage()
+    {
+        return this.pipePerMessage;
+    }
+
+    /**
+     * Enables or disables the compatibility mode in which the USB pipes are
+     * opened and closed for each single message. By default the pipes are
+     * opened once in {@link #open()} and closed again in {@link #close()}.
+     * This setting can only be changed while the device is closed.
+     * 
+     * @param pipePerMessage
+     *            True to open and close the pipes for each message, false to
+     *            keep them open while the device is open.
+     */
+    public void setPipePerMessage(boolean pipePerMessage)
+    {
+        if (this.open)
+            throw new IllegalStateException(
+                "Pipe mode can't be changed while device is open");
+        this.pipePerMessage = pipePerMessage;
+    }
+
+    /**
+     * Returns the maximum number of asynchronously sent messages which can be
+     * in flight at the same time.
+     * 
+     * @return The maximum number of messages in flight.
+     */
+    public int getMaxMessagesInFlight()
+    {
+        return this.maxMessagesInFlight;
+    }
+
+    /**
+     * Sets the maximum number of asynchronously sent messages which can be in
+     * flight at the same time. When this limit is reached then
+     * {@link #sendMessageAsync(Message, SendCallback)} blocks until a
+     * previously sent message is finished. This setting can only be changed
+     * while the device is closed.
+     * 
+     * @param maxMessagesInFlight
+     *            The maximum number of messages in flight. Must be at least 1.
+     */
+    public void setMaxMessagesInFlight(int maxMessagesInFlight)
+    {
+        if (maxMessagesInFlight < 1)
+            throw new IllegalArgumentException(
+                "maxMessagesInFlight must be at least 1");
+        if (this.open)
+            throw new IllegalStateException(
+                "Messages in flight can't be changed while device is open");
+        this.maxMessagesInFlight = maxMessagesInFlight;
+    }
+
+    /**
+     * Returns the negotiated protocol version. This is the lower one of the
+     * versions announced in the CONNECT messages sent and received by this
+     * device. Until the CONNECT message of the remote side has been received
+     * this is {@link ConnectMessage#LEGACY_PROTOCOL_VERSION}.
+     * 
+     * @return The negotiated protocol version.
+     */
+    public int getProtocolVersion()
+    {
+        return this.protocolVersion;
+    }
+
+    /**
+     * Returns the negotiated maximum payload size. This is the lower one of
+     * the sizes announced in the CONNECT messages sent and received by this
+     * device. Until the CONNECT message of the remote side has been received
+     * this is {@link ConnectMessage#LEGACY_MAX_DATA}.
+     * 
+     * @return The negotiated maximum payload size.
+     */
+    public int getMaxData()
+    {
+        return this.maxData;
+    }
+
+    /**
+     * Checks if header and payload of a message are sent with a single USB
+     * transfer.
+     * 
+     * @return True if coalescing is enabled, false if not.
+     */
+    public boolean isCoalescing()
+    {
+        return this.coalescing;
+    }
+
+    /**
+     * Enables or disables coalescing. By default the header and the payload
+     * of a message are sent with two separate USB transfers. When coalescing
+     * is enabled then both are sent with a single transfer and
+     * {@link #sendMessages(List)} packs multiple messages into a single
+     * transfer. Only enable this when the remote side is known to tolerate
+     * it.
+     * 
+     * @param coalescing
+     *            True to enable coalescing, false to disable it.
+     */
+    public void setCoalescing(boolean coalescing)
+    {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Returns the number of USB transfers used for sending messages so far.
+     * 
+     * @return The number of transfers.
+     */
+    public long getTransferCount()
+    {
+        return this.transferCount.get();
+    }
+
+    /**
+     * Returns the number of messages sent so far.
+     * 
+     * @return The number of sent messages.
+     */
+    public long getSentMessageCount()
+    {
+        return this.sentMessageCount.get();
+    }
+
+    /**
+     * Returns the average number of USB transfers used per sent message.
+     * Without coalescing this is 2. With coalescing this is 1 or less when
+     * messages are sent in batches.
+     * 
+     * @return The average number of transfers per message. 0 if no message
+     *         has been sent yet.
+     */
+    public double getTransfersPerMessage()
+    {
+        long messages = this.sentMessageCount.get();
+        if (messages == 0) return 0;
+        return (double) this.transferCount.get() / messages;
+    }
+
+    /**
+     * Records sent messages for the transfer statistics.
+     * 
+     * @param transfers
+     *            The number of used transfers.
+     * @param messages
+     *            The number of sent messages.
+     */
+    private void countTransfers(int transfers, int messages)
+    {
+        this.transferCount.addAndGet(transfers);
+        this.sentMessageCount.addAndGet(messages);
+    }
+
+    /**
+     * Checks if payloads of received messages are read into pooled buffers.
+     * 
+     * @return True if buffer pooling is enabled, false if not.
+     */
+    public boolean isBufferPooling()
+    {
+        return this.bufferPooling;
+    }
+
+    /**
+     * Enables or disables buffer pooling. When enabled then the payloads of
+     * received messages are read into buffers borrowed from a pool which is
+     * sized by the negotiated maximum payload size. Consumers should call
+     * {@link Message#release()} on each received message when they are
+     * finished with it so the buffer can be reused. Messages which are not
+     * released are simply garbage collected. The stream layer
+     * ({@link StreamMultiplexer}, {@link AdbInputStream} and
+     * {@link AdbReader}) releases all messages it receives.
+     * 
+     * @param bufferPooling
+     *            True to enable buffer pooling, false to disable it.
+     */
+    public void setBufferPooling(boolean bufferPooling)
+    {
+        this.bufferPooling = bufferPooling;
+    }
+
+    /**
+     * Returns the pool used for received payloads. The pool is replaced when
+     * the negotiated maximum payload size changes.
+     * 
+     * @return The buffer pool. Null if buffer pooling has never been used.
+     */
+    public BufferPool getBufferPool()
+    {
+        return this.bufferPool;
+    }
+
+    /**
+     * Returns the pool for received payloads and creates it if necessary.
+     * 
+     * @return The buffer pool.
+     */
+    private BufferPool getOrCreateBufferPool()
+    {
+        BufferPool pool = this.bufferPool;
+        int size = this.maxData;
+        if (pool == null || pool.getBufferSize() != size)
+        {
+            pool = new BufferPool(size, BufferPool.DEFAULT_MAX_POOLED);
+            this.bufferPool = pool;
+        }
+        return pool;
+    }
+
+    /**
+     * Checks if data checksums are needed. This is the case until a protocol
+     * version of {@link ConnectMessage#PROTOCOL_VERSION_SKIP_CHECKSUM} or
+     * newer has been negotiated. Otherwise sent messages carry a zero
+     * checksum.
+     * 
+     * @return True if checksums are needed, false if not.
+     */
+    public boolean isChecksumRequired()
+    {
+        return this.protocolVersion
+            < ConnectMessage.PROTOCOL_VERSION_SKIP_CHECKSUM;
+    }
+
+    /**
+     * Checks the data checksum of a received message. A modern peer switches
+     * to the version announced by our CONNECT message as soon as it receives
+     * it, so the messages it answers with (including its own CONNECT
+     * message) may already carry a zero checksum before we have negotiated
+     * anything. So a zero checksum is accepted once we have announced
+     * {@link ConnectMessage#PROTOCOL_VERSION_SKIP_CHECKSUM} or newer. Any
+     * other checksum is still checked.
+     * 
+     * @param message
+     *            The received message.
+     * @return True if the checksum is acceptable, false if not.
+     */
+    private boolean isChecksumValid(Message message)
+    {
+        if (this.localVersion >= ConnectMessage.PROTOCOL_VERSION_SKIP_CHECKSUM
+            && message.getHeader().getDataChecksum() == 0) return true;
+        return message.isValid();
+    }
+
+    /**
+     * Records the protocol version and maximum payload size of a sent or
+     * received CONNECT message.
+     * 
+     * @param message
+     *            The sent or received message. Ignored if not a CONNECT
+     *            message.
+     * @param sent
+     *            True if message has been sent, false if it has been
+     *            received.
+     */
+    private void negotiate(Message message, boolean sent)
+    {
+        if (!(message instanceof ConnectMessage)) return;
+        ConnectMessage connect = (ConnectMessage) message;
+        if (sent)
+        {
+            this.localVersion = connect.getVersion();
+            this.localMaxData = connect.getMaxData();
+        }
+        else
+        {
+            this.protocolVersion =
+                Math.min(this.localVersion, connect.getVersion());
+            this.maxData = Math.min(this.localMaxData, connect.getMaxData());
+        }
+    }
+
     /**
      * Opens the ADB device. When you are finished communicating with the device
      * then you should call the {@link #close()} method.
@@ -56,17 +493,184 @@ public class AdbDevice
     public void open() throws UsbException
     {
         this.iface.claim();
+        if (!this.pipePerMessage)
+        {
+            this.sendPermits = new Semaphore(this.maxMessagesInFlight);
+            try
+            {
+                this.outPipe = openPipe(this.outEndpoint);
+                this.inPipe = openPipe(this.inEndpoint);
+            }
+            catch (UsbException e)
+            {
+                closePipes();
+                this.iface.release();
+                throw e;
+            }
+        }
+        this.open = true;
     }
 
     /**
-     * Closes the ADB device.
+     * Closes the ADB device. Asynchronously sent messages which are still in
+     * flight are aborted and their futures fail with a {@link UsbException}.
      * 
      * @throws UsbException
      *             When device could not be closed.
      */
     public void close() throws UsbException
     {
-        this.iface.release();
+        try
+        {
+            stopReceiver();
+            closePipes();
+        }
+        finally
+        {
+            this.open = false;
+            failPendingSends();
+            this.iface.release();
+        }
+    }
+
+    /**
+     * Fails the futures of all asynchronously sent messages which are not
+     * finished yet. Aborting the submissions of a pipe just drops the queued
+     * IRPs without completing them, so these futures would never finish
+     * otherwise.
+     */
+    private void failPendingSends()
+    {
+        for (SendFuture future: this.pendingSends)
+            future.fail(new UsbException("ADB device closed"));
+        this.pendingSends.clear();
+    }
+
+    /**
+     * Opens the pipe of the specified endpoint.
+     * 
+     * @param address
+     *            The endpoint address.
+     * @return The opened pipe.
+     * @throws UsbException
+     *             When pipe could not be opened.
+     */
+    private UsbPipe openPipe(byte address) throws UsbException
+    {
+        UsbEndpoint endpoint = this.iface.getUsbEndpoint(address);
+        UsbPipe pipe = endpoint.getUsbPipe();
+        pipe.open();
+        return pipe;
+    }
+
+    /**
+     * Closes the pipes which have been opened by {@link #open()}.
+     * 
+     * @throws UsbException
+     *             When a pipe could not be closed.
+     */
+    private void closePipes() throws UsbException
+    {
+        UsbPipe in = this.inPipe;
+        UsbPipe out = this.outPipe;
+        this.inPipe = null;
+        this.outPipe = null;
+        try
+        {
+            if (in != null)
+            {
+                in.abortAllSubmissions();
+                in.close();
+            }
+        }
+        finally
+        {
+            if (out != null)
+            {
+                out.abortAllSubmissions();
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the pipe to use for the specified endpoint. In pipe-per-message
+     * mode the pipe is opened first and must be released with
+     * {@link #releasePipe(UsbPipe)} afterwards.
+     * 
+     * @param pipe
+     *            The pipe opened by {@link #open()}. Null if not open.
+     * @param address
+     *            The endpoint address.
+     * @return The pipe to use.
+     * @throws UsbException
+     *             When pipe could not be opened.
+     */
+    private UsbPipe acquirePipe(UsbPipe pipe, byte address)
+        throws UsbException
+    {
+        if (this.pipePerMessage) return openPipe(address);
+        if (pipe == null)
+            throw new IllegalStateException("ADB device is not open");
+        return pipe;
+    }
+
+    /**
+     * Releases a pipe acquired with {@link #acquirePipe(UsbPipe, byte)}. In
+     * pipe-per-message mode the pipe is closed, otherwise it is kept open.
+     * 
+     * @param pipe
+     *            The pipe to release.
+     * @throws UsbException
+     *             When pipe could not be closed.
+     */
+    private void releasePipe(UsbPipe pipe) throws UsbException
+    {
+        if (this.pipePerMessage) pipe.close();
+    }
+
+    /**
+     * Synchronously submits the specified array range to the pipe using a
+     * reused IRP.
+     * 
+     * @param pipe
+     *            The pipe to submit to.
+     * @param irp
+     *            The IRP to reuse.
+     * @param data
+     *            The data array.
+     * @param offset
+     *            The offset of the data in the array.
+     * @param length
+     *            The number of bytes to transfer.
+     * @return The number of actually transferred bytes.
+     * @throws UsbException
+     *             When transfer failed.
+     */
+    private static int submit(UsbPipe pipe, UsbIrp irp, byte[] data,
+        int offset, int length) throws UsbException
+    {
+        irp.setData(data, offset, length);
+        irp.setActualLength(0);
+        irp.setUsbException(null);
+        irp.setComplete(false);
+        pipe.syncSubmit(irp);
+        return irp.getActualLength();
+    }
+
+    /**
+     * Returns an array for the payload of a sent message which is not backed
+     * by an array. The array is reused for all following messages.
+     * 
+     * @param size
+     *            The minimum size of the array.
+     * @return The array.
+     */
+    private byte[] getSendBuffer(int size)
+    {
+        if (this.sendBuffer == null || this.sendBuffer.length < size)
+            this.sendBuffer = new byte[Math.max(size, this.maxData)];
+        return this.sendBuffer;
     }
 
     /**
@@ -79,31 +683,284 @@ public class AdbDevice
      */
     public void sendMessage(Message message) throws UsbException
     {
-        UsbEndpoint outEndpoint =
-            this.iface.getUsbEndpoint(this.outEndpoint);
-        UsbPipe outPipe = outEndpoint.getUsbPipe();
+        if (this.coalescing)
+        {
+            sendMessages(Collections.singletonList(message));
+            return;
+        }
+        negotiate(message, true);
         MessageHeader header = message.getHeader();
-        outPipe.open();
+        ByteBuffer data = message.getDataBuffer();
+        synchronized (this.sendLock)
+        {
+            UsbPipe outPipe = acquirePipe(this.outPipe, this.outEndpoint);
+            try
+            {
+                header.writeTo(this.sendHeader, 0, isChecksumRequired());
+                int sent = submit(outPipe, this.sendIrp, this.sendHeader, 0,
+                    MessageHeader.SIZE);
+                if (sent != MessageHeader.SIZE)
+                    throw new InvalidMessageException(
+                        "Invalid ADB message header size sent: " + sent);
+                int length = data.remaining();
+                if (data.hasArray())
+                {
+                    sent = submit(outPipe, this.sendIrp, data.array(),
+                        data.arrayOffset() + data.position(), length);
+                }
+                else
+                {
+                    // USB transfers need an array so copy direct payloads
+                    byte[] buffer = getSendBuffer(length);
+                    data.get(buffer, 0, length);
+                    sent = submit(outPipe, this.sendIrp, buffer, 0, length);
+                }
+                if (sent != header.getDataLength())
+                    throw new InvalidMessageException(
+                        "Data size mismatch in sent ADB message. Should be "
+                            + header.getDataLength() + " but is " + sent);
+                countTransfers(2, 1);
+            }
+            finally
+            {
+                releasePipe(outPipe);
+            }
+        }
+    }
+
+    /**
+     * Sends multiple ADB messages in the specified order. When coalescing is
+     * enabled then as many messages as possible are packed into a single USB
+     * transfer. This is useful for sending many small messages like the
+     * OKAY messages for multiple streams. Without coalescing the messages
+     * are simply sent one after the other.
+     * 
+     * @param messages
+     *            The messages to send.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    public void sendMessages(List<? extends Message> messages)
+        throws UsbException
+    {
+        if (!this.coalescing)
+        {
+            for (Message message: messages)
+                sendMessage(message);
+            return;
+        }
+        synchronized (this.sendLock)
+        {
+            UsbPipe outPipe = acquirePipe(this.outPipe, this.outEndpoint);
+            try
+            {
+                ByteBuffer batch = getBatchBuffer(0);
+                int count = 0;
+                for (Message message: messages)
+                {
+                    negotiate(message, true);
+                    int size = MessageHeader.SIZE
+                        + message.getHeader().getDataLength();
+                    if (size > batch.remaining() && count > 0)
+                    {
+                        flushBatch(outPipe, batch, count);
+                        count = 0;
+                    }
+                    if (size > batch.remaining())
+                        batch = getBatchBuffer(size);
+                    message.writeTo(batch, isChecksumRequired());
+                    count++;
+                }
+                if (count > 0) flushBatch(outPipe, batch, count);
+            }
+            finally
+            {
+                releasePipe(outPipe);
+            }
+        }
+    }
+
+    /**
+     * Returns the empty buffer for coalesced transfers. Must be called while
+     * holding the send lock.
+     * 
+     * @param minSize
+     *            The minimum size of the buffer.
+     * @return The empty buffer.
+     */
+    private ByteBuffer getBatchBuffer(int minSize)
+    {
+        int size = Math.max(minSize, MessageHeader.SIZE + this.maxData);
+        if (this.batchBuffer == null || this.batchBuffer.capacity() < size)
+            this.batchBuffer = ByteBuffer.allocate(size);
+        this.batchBuffer.clear();
+        return this.batchBuffer;
+    }
+
+    /**
+     * Sends the content of the batch buffer with a single USB transfer and
+     * clears the buffer.
+     * 
+     * @param pipe
+     *            The pipe to send to.
+     * @param batch
+     *            The batch buffer.
+     * @param messages
+     *            The number of messages in the batch buffer.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    private void flushBatch(UsbPipe pipe, ByteBuffer batch, int messages)
+        throws UsbException
+    {
+        int length = batch.position();
+        int sent = submit(pipe, this.sendIrp, batch.array(), 0, length);
+        if (sent != length)
+            throw new InvalidMessageException(
+                "Size mismatch in sent ADB messages. Should be " + length
+                    + " but is " + sent);
+        countTransfers(1, messages);
+        batch.clear();
+    }
+
+    /**
+     * Sends an ADB message asynchronously. Header and payload are submitted
+     * to the out pipe without waiting for the transfer so multiple messages
+     * can be in flight at the same time. Messages are transferred in the
+     * order in which they are submitted. When the maximum number of messages
+     * in flight is reached then this method blocks until a previously sent
+     * message is finished. Asynchronous sending is not available in
+     * pipe-per-message mode.
+     * 
+     * @param message
+     *            The message to send.
+     * @return The future for the sent message.
+     * @throws UsbException
+     *             When message could not be submitted.
+     */
+    public SendFuture sendMessageAsync(Message message) throws UsbException
+    {
+        return sendMessageAsync(message, null);
+    }
+
+    /**
+     * Sends an ADB message asynchronously and informs the specified callback
+     * when the message has been transferred.
+     * 
+     * @param message
+     *            The message to send.
+     * @param callback
+     *            The callback to inform when the message has been
+     *            transferred. May be null.
+     * @return The future for the sent message.
+     * @throws UsbException
+     *             When message could not be submitted.
+     * @see #sendMessageAsync(Message)
+     */
+    public SendFuture sendMessageAsync(Message message, SendCallback callback)
+        throws UsbException
+    {
+        if (this.pipePerMessage)
+            throw new IllegalStateException(
+                "Asynchronous sending is not available in pipe-per-message "
+                + "mode");
+        final Semaphore permits = this.sendPermits;
+        if (permits == null)
+            throw new IllegalStateException("ADB device is not open");
+        negotiate(message, true);
+        permits.acquireUninterruptibly();
+        final Set<SendFuture> pending = this.pendingSends;
+        final SendFuture[] self = new SendFuture[1];
+        SendFuture future = new SendFuture(message, isChecksumRequired(),
+            this.coalescing, callback, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pending.remove(self[0]);
+                permits.release();
+            }
+        });
+        self[0] = future;
+        pending.add(future);
         try
         {
-            int sent = outPipe.syncSubmit(header.getBytes());
-            if (sent != MessageHeader.SIZE)
-                throw new InvalidMessageException(
-                    "Invalid ADB message header size sent: " + sent);
-            sent = outPipe.syncSubmit(message.getData());
-            if (sent != header.getDataLength())
-                throw new InvalidMessageException(
-                    "Data size mismatch in sent ADB message. Should be "
-                        + header.getDataLength() + " but is " + sent);
+            synchronized (this.sendLock)
+            {
+                acquirePipe(this.outPipe, this.outEndpoint).asyncSubmit(
+                    future.getIrps());
+            }
+            countTransfers(future.getIrps().size(), 1);
         }
-        finally
+        catch (UsbException e)
+        {
+            future.fail(e);
+            throw e;
+        }
+        catch (RuntimeException e)
         {
-            outPipe.close();
+            future.fail(e);
+            throw e;
         }
+        return future;
     }
 
     /**
-     * Receives an ADB message.
+     * Starts the background receiver. From now on messages are continuously
+     * read from the device and queued until they are taken with
+     * {@link #receiveMessage()}. The receiver is stopped automatically when
+     * the device is closed. The receiver is not available in
+     * pipe-per-message mode.
+     * 
+     * @param capacity
+     *            The capacity of the receive queue. Ignored for
+     *            {@link OverflowPolicy#GROW}.
+     * @param policy
+     *            What to do when the receive queue is full.
+     * @return The started receiver. Can be used to monitor the receive
+     *         queue.
+     */
+    public MessageReceiver startReceiver(int capacity, OverflowPolicy policy)
+    {
+        if (this.pipePerMessage)
+            throw new IllegalStateException(
+                "Receiver is not available in pipe-per-message mode");
+        if (this.inPipe == null)
+            throw new IllegalStateException("ADB device is not open");
+        if (this.receiver != null)
+            throw new IllegalStateException("Receiver is already running");
+        MessageReceiver receiver = new MessageReceiver(this, capacity, policy);
+        this.receiver = receiver;
+        receiver.start();
+        return receiver;
+    }
+
+    /**
+     * Stops the background receiver. Messages which are still queued are
+     * discarded. Does nothing if the receiver is not running.
+     */
+    public void stopReceiver()
+    {
+        MessageReceiver receiver = this.receiver;
+        if (receiver == null) return;
+        this.receiver = null;
+        receiver.stop(this.inPipe);
+    }
+
+    /**
+     * Returns the background receiver.
+     * 
+     * @return The background receiver. Null if not started.
+     */
+    public MessageReceiver getReceiver()
+    {
+        return this.receiver;
+    }
+
+    /**
+     * Receives an ADB message. When the background receiver is running then
+     * the next message is taken from its queue. Otherwise the message is read
+     * directly from the device.
      * 
      * @return The received ADB message.
      * @throws UsbException
@@ -111,36 +968,102 @@ public class AdbDevice
      */
     public Message receiveMessage() throws UsbException
     {
-        UsbEndpoint inEndpoint =
-            this.iface.getUsbEndpoint(this.inEndpoint);
-        UsbPipe inPipe = inEndpoint.getUsbPipe();
-        inPipe.open();
+        MessageReceiver receiver = this.receiver;
+        if (receiver != null) return receiver.take();
+        return readMessage();
+    }
+
+    /**
+     * Reads an ADB message from the device.
+     * 
+     * @return The read ADB message.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    Message readMessage() throws UsbException
+    {
+        synchronized (this.receiveLock)
+        {
+            UsbPipe inPipe = acquirePipe(this.inPipe, this.inEndpoint);
+            this.receivingPipe = inPipe;
+            try
+            {
+                int received = submit(inPipe, this.receiveIrp,
+                    this.receiveHeader, 0, MessageHeader.SIZE);
+                if (received != MessageHeader.SIZE)
+                    throw new InvalidMessageException(
+                        "Invalid ADB message header size: " + received);
+                MessageHeader header = new MessageHeader(this.receiveHeader);
+                if (!header.isValid())
+                    throw new InvalidMessageException(
+                        "ADB message header checksum failure");
+                int dataLength = header.getDataLength();
+                if (dataLength < 0 || dataLength > this.localMaxData)
+                    throw new InvalidMessageException(
+                        "ADB message data size exceeds maximum of "
+                            + this.localMaxData + ": " + dataLength);
+                BufferPool pool = null;
+                if (this.bufferPooling && dataLength > 0)
+                {
+                    pool = getOrCreateBufferPool();
+                    if (dataLength > pool.getBufferSize()) pool = null;
+                }
+                byte[] data = pool == null ? new byte[dataLength]
+                    : pool.borrow();
+                boolean success = false;
+                try
+                {
+                    received = submit(inPipe, this.receiveIrp, data, 0,
+                        dataLength);
+                    if (received != dataLength)
+                        throw new InvalidMessageException(
+                            "ADB message data size mismatch. Should be "
+                                + dataLength + " but is " + received);
+                    Message message = Message.create(header,
+                        ByteBuffer.wrap(data, 0, dataLength));
+                    if (pool != null) message.setPooledBuffer(pool, data);
+                    if (!isChecksumValid(message))
+                        throw new InvalidMessageException(
+                            "ADB message data checksum failure");
+                    negotiate(message, false);
+                    success = true;
+                    return message;
+                }
+                finally
+                {
+                    // Return the borrowed buffer when reading failed
+                    if (!success && pool != null) pool.release(data);
+                }
+            }
+            finally
+            {
+                this.receivingPipe = null;
+                releasePipe(inPipe);
+            }
+        }
+    }
+
+    /**
+     * Aborts a pending receive so a thread blocked in
+     * {@link #receiveMessage()} fails. When the background receiver is
+     * running then it is stopped.
+     */
+    void abortReceive()
+    {
+        if (this.receiver != null)
+        {
+            stopReceiver();
+            return;
+        }
+        UsbPipe pipe = this.receivingPipe;
+        if (pipe == null) return;
         try
         {
-            byte[] headerBytes = new byte[MessageHeader.SIZE];
-            int received = inPipe.syncSubmit(headerBytes);
-            if (received != MessageHeader.SIZE)
-                throw new InvalidMessageException(
-                    "Invalid ADB message header size: " + received);
-            MessageHeader header = new MessageHeader(headerBytes);
-            if (!header.isValid())
-                throw new InvalidMessageException(
-                    "ADB message header checksum failure");
-            byte[] data = new byte[header.getDataLength()];
-            received = inPipe.syncSubmit(data);
-            if (received != header.getDataLength())
-                throw new InvalidMessageException(
-                    "ADB message data size mismatch. Should be "
-                        + header.getDataLength() + " but is " + received);
-            Message message = Message.create(header, data);
-            if (!message.isValid())
-                throw new InvalidMessageException(
-                    "ADB message data checksum failure");
-            return message;
+            pipe.abortAllSubmissions();
         }
-        finally
+        catch (RuntimeException e)
         {
-            inPipe.close();
+            // Pipe has already been closed so nothing is pending
         }
     }
 }
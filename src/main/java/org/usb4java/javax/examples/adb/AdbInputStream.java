@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Input stream reading the data received by an {@link AdbStream}. The
+ * received messages are consumed one by one so only a single message
+ * payload is held in memory. The data is read directly from the payload
+ * buffer of the message which is released when it has been read completely
+ * so pooled buffers are not copied. The stream can also be used as a byte
+ * channel.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbInputStream extends InputStream implements
+    ReadableByteChannel
+{
+    /** The ADB stream to read from. */
+    private final AdbStream stream;
+
+    /** The current message. Null if a new message must be read. */
+    private Message message;
+
+    /** The unread payload of the current message. Null if none. */
+    private ByteBuffer chunk;
+
+    /** If the end of the stream has been reached. */
+    private boolean eof;
+
+    /**
+     * Constructs a new input stream.
+     * 
+     * @param stream
+     *            The ADB stream to read from. Must not be null.
+     */
+    public AdbInputStream(AdbStream stream)
+    {
+        if (stream == null)
+            throw new IllegalArgumentException("stream must be set");
+        this.stream = stream;
+    }
+
+    /**
+     * Returns the ADB stream this input stream reads from.
+     * 
+     * @return The ADB stream.
+     */
+    public AdbStream getStream()
+    {
+        return this.stream;
+    }
+
+    /**
+     * Ensures that unread data is available in the current chunk.
+     * 
+     * @return True if data is available, false if end of stream has been
+     *         reached.
+     * @throws IOException
+     *             When reading from the ADB stream failed.
+     */
+    private boolean fill() throws IOException
+    {
+        while (this.chunk == null)
+        {
+            if (this.eof) return false;
+            this.message = this.stream.readMessage();
+            if (this.message == null)
+            {
+                this.eof = true;
+                return false;
+            }
+            this.chunk = this.message.getDataBuffer();
+            consumed();
+        }
+        return true;
+    }
+
+    /**
+     * Releases the current message when its payload has been read
+     * completely.
+     */
+    private void consumed()
+    {
+        if (!this.chunk.hasRemaining()) releaseMessage();
+    }
+
+    /**
+     * Releases the current message.
+     */
+    private void releaseMessage()
+    {
+        if (this.message == null) return;
+        this.message.release();
+        this.message = null;
+        this.chunk = null;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!fill()) return -1;
+        int b = this.chunk.get() & 0xff;
+        consumed();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        if (offset < 0 || length < 0 || offset + length > buffer.length)
+            throw new IndexOutOfBoundsException();
+        if (length == 0) return 0;
+        if (!fill()) return -1;
+        int size = Math.min(length, this.chunk.remaining());
+        this.chunk.get(buffer, offset, size);
+        consumed();
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException
+    {
+        if (!buffer.hasRemaining()) return 0;
+        if (!fill()) return -1;
+        int size = Math.min(buffer.remaining(), this.chunk.remaining());
+        ByteBuffer chunk = this.chunk.duplicate();
+        chunk.limit(chunk.position() + size);
+        buffer.put(chunk);
+        this.chunk.position(chunk.position());
+        consumed();
+        return size;
+    }
+
+    /**
+     * Reads exactly the specified number of bytes.
+     * 
+     * @param buffer
+     *            The buffer to read the data into.
+     * @param offset
+     *            The offset in the buffer.
+     * @param length
+     *            The number of bytes to read.
+     * @throws IOException
+     *             When reading failed or end of stream has been reached
+     *             before all bytes were read.
+     */
+    public void readFully(byte[] buffer, int offset, int length)
+        throws IOException
+    {
+        while (length > 0)
+        {
+            int read = read(buffer, offset, length);
+            if (read < 0) throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+
+    @Override
+    public int available()
+    {
+        return this.chunk == null ? 0 : this.chunk.remaining();
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return this.stream.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        releaseMessage();
+        this.stream.close();
+    }
+}
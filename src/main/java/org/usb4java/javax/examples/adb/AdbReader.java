@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reader decoding the data received by an {@link AdbStream}. The received
+ * messages are decoded one by one directly from their payload buffers which
+ * are released afterwards. Bytes of a multi-byte character which is split
+ * across two messages are carried over to the next message so only a single
+ * message payload is held in memory. Malformed input is replaced.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbReader extends Reader
+{
+    /** The default character set. */
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The ADB stream to read from. */
+    private final AdbStream stream;
+
+    /** The decoder. */
+    private final CharsetDecoder decoder;
+
+    /** The initial size of the buffer for carried over bytes. */
+    private static final int CARRY_SIZE = 16;
+
+    /**
+     * The bytes of an incomplete character which are carried over to the
+     * next message. The position is the number of carried bytes.
+     */
+    private ByteBuffer carry = ByteBuffer.allocate(CARRY_SIZE);
+
+    /** The decoded characters which have not been read yet. */
+    private CharBuffer chars = CharBuffer.allocate(0);
+
+    /** If the end of the ADB stream has been reached. */
+    private boolean eof;
+
+    /** If the decoder has been flushed after the end of the stream. */
+    private boolean finished;
+
+    /**
+     * Constructs a new reader decoding UTF-8.
+     * 
+     * @param stream
+     *            The ADB stream to read from. Must not be null.
+     */
+    public AdbReader(AdbStream stream)
+    {
+        this(stream, UTF8);
+    }
+
+    /**
+     * Constructs a new reader.
+     * 
+     * @param stream
+     *            The ADB stream to read from. Must not be null.
+     * @param charset
+     *            The character set of the received data. Must not be null.
+     */
+    public AdbReader(AdbStream stream, Charset charset)
+    {
+        if (stream == null)
+            throw new IllegalArgumentException("stream must be set");
+        if (charset == null)
+            throw new IllegalArgumentException("charset must be set");
+        this.stream = stream;
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns the ADB stream this reader reads from.
+     * 
+     * @return The ADB stream.
+     */
+    public AdbStream getStream()
+    {
+        return this.stream;
+    }
+
+    /**
+     * Ensures that decoded characters are available.
+     * 
+     * @return True if characters are available, false if end of stream has
+     *         been reached.
+     * @throws IOException
+     *             When reading from the ADB stream failed.
+     */
+    private boolean fill() throws IOException
+    {
+        while (!this.chars.hasRemaining())
+        {
+            if (this.finished) return false;
+            if (this.eof)
+            {
+                // Decode what is left over from an incomplete sequence
+                this.carry.flip();
+                this.chars = allocate(this.carry.remaining() + 1);
+                this.decoder.decode(this.carry, this.chars, true);
+                this.decoder.flush(this.chars);
+                this.chars.flip();
+                this.finished = true;
+                continue;
+            }
+            Message message = this.stream.readMessage();
+            if (message == null)
+            {
+                this.eof = true;
+                continue;
+            }
+            try
+            {
+                decode(message.getDataBuffer());
+            }
+            finally
+            {
+                message.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the specified payload into the character buffer. The carried
+     * over bytes are decoded first. Bytes of an incomplete character at the
+     * end of the payload are carried over to the next payload.
+     * 
+     * @param data
+     *            The payload to decode.
+     */
+    private void decode(ByteBuffer data)
+    {
+        int carried = this.carry.position();
+        this.chars = allocate(carried + data.remaining());
+        if (carried > 0)
+        {
+            // Complete the carried character with the first payload bytes
+            int appended = Math.min(data.remaining(), this.carry.remaining());
+            ByteBuffer head = data.duplicate();
+            head.limit(head.position() + appended);
+            this.carry.put(head);
+            this.carry.flip();
+            this.decoder.decode(this.carry, this.chars, false);
+            int left = this.carry.remaining();
+            if (left > appended)
+            {
+                // Payload is too short to complete the character
+                this.carry.compact();
+                data.position(data.limit());
+            }
+            else
+            {
+                this.carry.clear();
+                data.position(data.position() + appended - left);
+            }
+        }
+        this.decoder.decode(data, this.chars, false);
+        if (data.hasRemaining()) carry(data);
+        this.chars.flip();
+    }
+
+    /**
+     * Appends the remaining bytes of the specified buffer to the carried
+     * over bytes. The carry buffer is enlarged if necessary.
+     * 
+     * @param data
+     *            The bytes to carry over.
+     */
+    private void carry(ByteBuffer data)
+    {
+        if (data.remaining() > this.carry.remaining())
+        {
+            ByteBuffer carry = ByteBuffer.allocate(this.carry.position()
+                + data.remaining());
+            this.carry.flip();
+            carry.put(this.carry);
+            this.carry = carry;
+        }
+        this.carry.put(data);
+    }
+
+    /**
+     * Returns a cleared character buffer large enough to hold the
+     * characters decoded from the specified number of bytes. The current
+     * buffer is reused when possible.
+     * 
+     * @param size
+     *            The number of bytes to decode.
+     * @return The character buffer.
+     */
+    private CharBuffer allocate(int size)
+    {
+        int capacity = (int) Math.ceil(size * this.decoder.maxCharsPerByte());
+        if (this.chars.capacity() < capacity)
+            return CharBuffer.allocate(capacity);
+        this.chars.clear();
+        return this.chars;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!fill()) return -1;
+        return this.chars.get();
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException
+    {
+        if (offset < 0 || length < 0 || offset + length > buffer.length)
+            throw new IndexOutOfBoundsException();
+        if (length == 0) return 0;
+        if (!fill()) return -1;
+        int size = Math.min(length, this.chars.remaining());
+        this.chars.get(buffer, offset, size);
+        return size;
+    }
+
+    /**
+     * Reads a line of text. Lines are terminated by a line feed. A carriage
+     * return in front of the line feed (As sent by a terminal) is removed
+     * too.
+     * 
+     * @return The line without the line terminator or null if end of stream
+     *         has been reached.
+     * @throws IOException
+     *             When reading failed.
+     */
+    public String readLine() throws IOException
+    {
+        StringBuilder line = null;
+        while (fill())
+        {
+            if (line == null) line = new StringBuilder();
+            while (this.chars.hasRemaining())
+            {
+                char c = this.chars.get();
+                if (c == '\n') return stripCarriageReturn(line);
+                line.append(c);
+            }
+        }
+        return line == null ? null : stripCarriageReturn(line);
+    }
+
+    /**
+     * Removes a trailing carriage return from the specified line.
+     * 
+     * @param line
+     *            The line.
+     * @return The line without trailing carriage return.
+     */
+    private static String stripCarriageReturn(StringBuilder line)
+    {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r')
+            line.setLength(length - 1);
+        return line.toString();
+    }
+
+    @Override
+    public boolean ready()
+    {
+        return this.chars.hasRemaining();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.stream.close();
+    }
+}
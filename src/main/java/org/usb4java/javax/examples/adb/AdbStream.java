@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A logical ADB stream. Streams are opened with
+ * {@link StreamMultiplexer#openStream(String)} and share the USB connection
+ * of the multiplexer with all other streams. Received data is acknowledged
+ * when it is read so the remote side only sends more data when the consumer
+ * keeps up.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbStream
+{
+    /** Marker in the receive queue which signals the end of the stream. */
+    private static final Message EOF = new CloseMessage(0, 0);
+
+    /** The multiplexer this stream belongs to. */
+    private final StreamMultiplexer multiplexer;
+
+    /** The local ID. */
+    private final int localId;
+
+    /** The destination this stream is connected to. */
+    private final String destination;
+
+    /** The remote ID. 0 as long as the stream is not open. */
+    private volatile int remoteId;
+
+    /** Latch which is released when the stream is opened or rejected. */
+    private final CountDownLatch openLatch = new CountDownLatch(1);
+
+    /** The queue with received WRITE messages. */
+    private final BlockingQueue<Message> received =
+        new LinkedBlockingQueue<Message>();
+
+    /** If the stream has been closed locally. */
+    private volatile boolean closed;
+
+    /** If the end of the stream has been reached. */
+    private boolean eof;
+
+    /** The error which closed the stream. Null if none. */
+    private volatile IOException error;
+
+    /** The maximum number of unacknowledged writes. */
+    private final int writeWindow;
+
+    /** Permits for unacknowledged writes. */
+    private final Semaphore writePermits;
+
+    /** Lock which keeps the messages of a single write together. */
+    private final Object writeLock = new Object();
+
+    /**
+     * Constructs a new stream.
+     * 
+     * @param multiplexer
+     *            The multiplexer this stream belongs to.
+     * @param localId
+     *            The local ID.
+     * @param destination
+     *            The destination to connect to.
+     * @param writeWindow
+     *            The maximum number of unacknowledged writes.
+     */
+    AdbStream(StreamMultiplexer multiplexer, int localId, String destination,
+        int writeWindow)
+    {
+        this.multiplexer = multiplexer;
+        this.localId = localId;
+        this.destination = destination;
+        this.writeWindow = writeWindow;
+        this.writePermits = new Semaphore(writeWindow);
+    }
+
+    /**
+     * Returns the local ID.
+     * 
+     * @return The local ID.
+     */
+    public int getLocalId()
+    {
+        return this.localId;
+    }
+
+    /**
+     * Returns the remote ID.
+     * 
+     * @return The remote ID. 0 if stream is not open.
+     */
+    public int getRemoteId()
+    {
+        return this.remoteId;
+    }
+
+    /**
+     * Returns the destination this stream is connected to.
+     * 
+     * @return The destination.
+     */
+    public String getDestination()
+    {
+        return this.destination;
+    }
+
+    /**
+     * Checks if stream is open.
+     * 
+     * @return True if stream is open, false if it is not yet open or
+     *         already closed.
+     */
+    public boolean isOpen()
+    {
+        return this.remoteId != 0 && !this.closed;
+    }
+
+    /**
+     * Waits until the remote side accepted or rejected the stream.
+     * 
+     * @throws IOException
+     *             When the stream was rejected.
+     */
+    void awaitOpen() throws IOException
+    {
+        try
+        {
+            this.openLatch.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening stream", e);
+        }
+        if (this.remoteId == 0)
+        {
+            if (this.error != null) throw this.error;
+            throw new IOException("Stream rejected: " + this.destination);
+        }
+    }
+
+    /**
+     * Writes data to the stream. See {@link #write(byte[], int, int)}.
+     * 
+     * @param data
+     *            The data to write.
+     * @throws IOException
+     *             When data could not be written.
+     */
+    public void write(byte[] data) throws IOException
+    {
+        write(data, 0, data.length);
+    }
+
+    /**
+     * Writes data to the stream. The data is split into messages which are
+     * not larger than the maximum payload size of the multiplexer. Before
+     * sending a message this method waits until the number of messages
+     * which were not yet acknowledged by the remote side is below the write
+     * window. The messages use slices of the array so the data is not
+     * copied.
+     * 
+     * @param data
+     *            The data to write.
+     * @param offset
+     *            The offset of the first byte to write.
+     * @param length
+     *            The number of bytes to write.
+     * @throws IOException
+     *             When data could not be written.
+     */
+    public void write(byte[] data, int offset, int length) throws IOException
+    {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException();
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Writes the remaining bytes of the specified buffer to the stream. The
+     * data is split into messages like in {@link #write(byte[], int, int)}
+     * but the messages use slices of the buffer so the data is not copied.
+     * When this method returns then the data has been sent and the buffer
+     * can be reused. The position of the buffer is advanced to its limit.
+     * 
+     * @param buffer
+     *            The buffer with the data to write.
+     * @throws IOException
+     *             When data could not be written.
+     */
+    public void write(ByteBuffer buffer) throws IOException
+    {
+        int maxData = this.multiplexer.getMaxData();
+        synchronized (this.writeLock)
+        {
+            while (buffer.hasRemaining())
+            {
+                int size = Math.min(maxData, buffer.remaining());
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.limit(chunk.position() + size);
+                acquireWritePermit();
+                checkOpen();
+                this.multiplexer.send(new WriteMessage(this.localId,
+                    this.remoteId, chunk));
+                buffer.position(buffer.position() + size);
+            }
+        }
+    }
+
+    /**
+     * Waits until the number of unacknowledged writes is below the write
+     * window.
+     * 
+     * @throws IOException
+     *             When waiting has been interrupted.
+     */
+    private void acquireWritePermit() throws IOException
+    {
+        try
+        {
+            this.writePermits.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing to stream", e);
+        }
+    }
+
+    /**
+     * Returns the number of written messages which were not yet acknowledged
+     * by the remote side.
+     * 
+     * @return The number of unacknowledged writes.
+     */
+    public int getUnacknowledgedWrites()
+    {
+        return Math.max(0, this.writeWindow
+            - this.writePermits.availablePermits());
+    }
+
+    /**
+     * Reads the next chunk of data from the stream. Blocks until data is
+     * available. The chunk is acknowledged so the remote side can send the
+     * next one. When the payload is pooled then it is copied so consumers
+     * which read large amounts of data should use {@link AdbInputStream} or
+     * {@link AdbReader} instead which read the payload directly.
+     * 
+     * @return The read data or null if end of stream has been reached.
+     * @throws IOException
+     *             When stream has been closed because of an error or the
+     *             acknowledgement could not be sent.
+     */
+    public byte[] read() throws IOException
+    {
+        Message message = readMessage();
+        if (message == null) return null;
+        try
+        {
+            return message.getData();
+        }
+        finally
+        {
+            message.release();
+        }
+    }
+
+    /**
+     * Reads the next received WRITE message from the stream. Blocks until a
+     * message is available. The message is acknowledged so the remote side
+     * can send the next one. The caller must call {@link Message#release()}
+     * when it is finished with the payload.
+     * 
+     * @return The read message or null if end of stream has been reached.
+     * @throws IOException
+     *             When stream has been closed because of an error or the
+     *             acknowledgement could not be sent.
+     */
+    synchronized Message readMessage() throws IOException
+    {
+        if (this.eof) return null;
+        Message message;
+        try
+        {
+            message = this.received.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading from stream", e);
+        }
+        if (message == EOF)
+        {
+            this.eof = true;
+            if (this.error != null) throw this.error;
+            return null;
+        }
+
+        // OKAY is sent from our point of view so our local ID goes first
+        if (!this.closed)
+        {
+            try
+            {
+                this.multiplexer.acknowledge(new OkayMessage(this.localId,
+                    message.getHeader().getArg0()));
+            }
+            catch (IOException e)
+            {
+                message.release();
+                throw e;
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Closes the stream. Already received data can still be read.
+     * 
+     * @throws IOException
+     *             When stream could not be closed.
+     */
+    public void close() throws IOException
+    {
+        if (this.closed) return;
+        this.closed = true;
+        this.multiplexer.unregister(this);
+        this.received.add(EOF);
+        releaseWriters();
+        if (this.remoteId != 0)
+            this.multiplexer.send(new CloseMessage(this.localId,
+                this.remoteId));
+    }
+
+    /**
+     * Ensures the stream is open.
+     * 
+     * @throws IOException
+     *             When stream is not open.
+     */
+    private void checkOpen() throws IOException
+    {
+        if (this.error != null) throw this.error;
+        if (!isOpen()) throw new IOException("Stream is not open: " + this);
+    }
+
+    /**
+     * Wakes up all writers waiting for an acknowledgement so they notice
+     * that the stream has been closed.
+     */
+    private void releaseWriters()
+    {
+        this.writePermits.release(this.writeWindow);
+    }
+
+    /**
+     * Called when the remote side acknowledged the stream or a write.
+     * 
+     * @param remoteId
+     *            The remote ID.
+     */
+    void okayReceived(int remoteId)
+    {
+        if (this.remoteId == 0)
+        {
+            this.remoteId = remoteId;
+            this.openLatch.countDown();
+        }
+        else if (this.writePermits.availablePermits() < this.writeWindow)
+        {
+            this.writePermits.release();
+        }
+    }
+
+    /**
+     * Called when data has been received for this stream.
+     * 
+     * @param message
+     *            The received WRITE message.
+     */
+    void dataReceived(Message message)
+    {
+        if (this.closed)
+            message.release();
+        else
+            this.received.add(message);
+    }
+
+    /**
+     * Called when the remote side closed the stream.
+     */
+    void closeReceived()
+    {
+        this.closed = true;
+        this.openLatch.countDown();
+        this.received.add(EOF);
+        releaseWriters();
+    }
+
+    /**
+     * Called when the stream is closed because of an error.
+     * 
+     * @param error
+     *            The error.
+     */
+    void failed(IOException error)
+    {
+        this.error = error;
+        closeReceived();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("AdbStream(%d, %d, \"%s\")", this.localId,
+            this.remoteId, this.destination);
+    }
+}
@@ -5,6 +5,8 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
+
 import javax.xml.bind.DatatypeConverter;
 
 /**
@@ -35,6 +37,19 @@ public class AuthMessage extends Message
     {
         super(header, data);
     }
+
+    /**
+     * Constructs a new AUTH message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public AuthMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
     
     /**
      * Constructs a new AUTH message.
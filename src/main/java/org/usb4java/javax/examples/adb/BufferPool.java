@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of equally sized byte arrays used as receive buffers. Borrowed
+ * buffers are returned to the pool with {@link #release(byte[])}. Buffers
+ * which are never released are simply garbage collected.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class BufferPool
+{
+    /** The default maximum number of buffers kept in the pool. */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    /** The size of the pooled buffers. */
+    private final int bufferSize;
+
+    /** The maximum number of buffers kept in the pool. */
+    private final int maxPooled;
+
+    /** The free buffers. */
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+
+    /** The number of free buffers. */
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /** The number of borrowed and not yet released buffers. */
+    private final AtomicInteger outstandingCount = new AtomicInteger();
+
+    /** The number of requests served from the pool. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of requests which needed a new buffer. */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Constructs a new buffer pool.
+     * 
+     * @param bufferSize
+     *            The size of the pooled buffers.
+     * @param maxPooled
+     *            The maximum number of buffers kept in the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled)
+    {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException(
+                "bufferSize must be at least 1");
+        if (maxPooled < 0)
+            throw new IllegalArgumentException(
+                "maxPooled must not be negative");
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns the size of the pooled buffers.
+     * 
+     * @return The buffer size.
+     */
+    public int getBufferSize()
+    {
+        return this.bufferSize;
+    }
+
+    /**
+     * Borrows a buffer from the pool. A new buffer is created when the pool
+     * is empty.
+     * 
+     * @return The borrowed buffer. It is {@link #getBufferSize()} bytes
+     *         large.
+     */
+    public byte[] borrow()
+    {
+        this.outstandingCount.incrementAndGet();
+        byte[] buffer = this.free.poll();
+        if (buffer != null)
+        {
+            this.freeCount.decrementAndGet();
+            this.hitCount.incrementAndGet();
+            return buffer;
+        }
+        this.missCount.incrementAndGet();
+        return new byte[this.bufferSize];
+    }
+
+    /**
+     * Returns a borrowed buffer to the pool. The buffer must not be used
+     * anymore after calling this method.
+     * 
+     * @param buffer
+     *            The buffer to return.
+     */
+    public void release(byte[] buffer)
+    {
+        if (buffer.length != this.bufferSize)
+            throw new IllegalArgumentException(
+                "Buffer does not belong to this pool");
+        this.outstandingCount.decrementAndGet();
+        if (this.freeCount.incrementAndGet() <= this.maxPooled)
+            this.free.offer(buffer);
+        else
+            this.freeCount.decrementAndGet();
+    }
+
+    /**
+     * Returns the number of buffers currently kept in the pool.
+     * 
+     * @return The number of free buffers.
+     */
+    public int getFreeCount()
+    {
+        return this.freeCount.get();
+    }
+
+    /**
+     * Returns the number of borrowed buffers which were not released yet.
+     * 
+     * @return The number of outstanding buffers.
+     */
+    public int getOutstandingCount()
+    {
+        return this.outstandingCount.get();
+    }
+
+    /**
+     * Returns the number of borrow requests which were served from the pool.
+     * 
+     * @return The number of pool hits.
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of borrow requests which needed a new buffer.
+     * 
+     * @return The number of pool misses.
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "BufferPool(size=%d, free=%d, outstanding=%d, hits=%d, "
+                + "misses=%d)", this.bufferSize, getFreeCount(),
+            getOutstandingCount(), getHitCount(), getMissCount());
+    }
+}
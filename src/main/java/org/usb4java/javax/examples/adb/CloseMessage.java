@@ -5,6 +5,7 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
 
 /**
  * ADB CLOSE message.
@@ -25,6 +26,19 @@ public class CloseMessage extends Message
     {
         super(header, data);
     }
+
+    /**
+     * Constructs a new CLOSE message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public CloseMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
     
     /**
      * Constructs a new CLOSE message.
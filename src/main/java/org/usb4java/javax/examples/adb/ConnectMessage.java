@@ -5,6 +5,7 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -14,11 +15,24 @@ import java.nio.charset.Charset;
  */
 public class ConnectMessage extends Message
 {
+    /** Constant for the original protocol version. */
+    public static final int LEGACY_PROTOCOL_VERSION = 0x01000000;
+
+    /**
+     * Constant for the protocol version which no longer requires data
+     * checksums.
+     */
+    public static final int PROTOCOL_VERSION_SKIP_CHECKSUM = 0x01000001;
+
     /** Constant for default protocol version. */
-    public static final int DEFAULT_PROTOCOL_VERSION = 0x01000000;
+    public static final int DEFAULT_PROTOCOL_VERSION =
+        PROTOCOL_VERSION_SKIP_CHECKSUM;
+
+    /** Constant for the maximum message body size of legacy peers. */
+    public static final int LEGACY_MAX_DATA = 4096;
 
     /** Constant for default maximum message body size. */
-    public static final int DEFAULT_MAX_DATA = 4096;
+    public static final int DEFAULT_MAX_DATA = 256 * 1024;
 
     /** Constant for system type "bootloader". */
     public static final String SYSTEM_TYPE_BOOTLOADER = "bootloader";
@@ -42,6 +56,19 @@ public class ConnectMessage extends Message
         super(header, data);
     }
 
+    /**
+     * Constructs a new connect message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public ConnectMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
+
     /**
      * Constructs a new connect message.
      * 
@@ -148,9 +175,7 @@ public class ConnectMessage extends Message
      */
     public String getIdentity()
     {
-        int len = this.data.length;
-        while (len > 0 && this.data[len - 1] == 0) len--;
-        return new String(this.data, 0, len, Charset.forName("UTF-8"));
+        return decodeString();
     }
 
     /**
@@ -163,6 +188,20 @@ public class ConnectMessage extends Message
         return getIdentity().split(":")[0];
     }
 
+    /**
+     * Returns a part of the colon separated system identity string. The
+     * banner is the last part and may contain colons itself.
+     * 
+     * @param index
+     *            The index of the part.
+     * @return The part. Empty if missing.
+     */
+    private String getIdentityPart(int index)
+    {
+        String[] parts = getIdentity().split(":", 3);
+        return index < parts.length ? parts[index] : "";
+    }
+
     /**
      * Returns the serial number.
      * 
@@ -170,7 +209,7 @@ public class ConnectMessage extends Message
      */
     public String getSerialNo()
     {
-        return getIdentity().split(":")[1];
+        return getIdentityPart(1);
     }
 
     /**
@@ -180,7 +219,7 @@ public class ConnectMessage extends Message
      */
     public String getBanner()
     {
-        return getIdentity().split(":")[2];
+        return getIdentityPart(2);
     }
 
     @Override
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.usb.UsbException;
+
+/**
+ * Connects ADB devices. The CNXN/AUTH handshake is performed concurrently
+ * for many devices with a bounded number of worker threads. Each device has
+ * its own timeout which starts when its handshake starts. When the timeout
+ * expires then the device is closed which aborts the handshake.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class ConnectionManager
+{
+    /** The logger for this class. */
+    private static final Logger LOG = Logger.getLogger(ConnectionManager.class
+        .getName());
+
+    /** The default number of worker threads. */
+    public static final int DEFAULT_THREADS = 8;
+
+    /** The default timeout per device in milliseconds. */
+    public static final long DEFAULT_TIMEOUT = 10000;
+
+    /** The default banner sent to the devices. */
+    public static final String DEFAULT_BANNER = "usb4java";
+
+    /** The number of worker threads. */
+    private final int threads;
+
+    /** The timeout per device in milliseconds. */
+    private final long timeout;
+
+    /** The banner sent to the devices. */
+    private String banner = DEFAULT_BANNER;
+
+    /**
+     * Constructs a new connection manager with default settings.
+     */
+    public ConnectionManager()
+    {
+        this(DEFAULT_THREADS, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs a new connection manager.
+     * 
+     * @param threads
+     *            The maximum number of devices connected at the same time.
+     * @param timeout
+     *            The timeout per device in milliseconds.
+     */
+    public ConnectionManager(int threads, long timeout)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        if (timeout < 1)
+            throw new IllegalArgumentException("timeout must be at least 1");
+        this.threads = threads;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the banner sent to the devices.
+     * 
+     * @return The banner.
+     */
+    public String getBanner()
+    {
+        return this.banner;
+    }
+
+    /**
+     * Sets the banner sent to the devices.
+     * 
+     * @param banner
+     *            The banner to set. Must not be null.
+     */
+    public void setBanner(String banner)
+    {
+        if (banner == null)
+            throw new IllegalArgumentException("banner must be set");
+        this.banner = banner;
+    }
+
+    /**
+     * Connects all available ADB devices.
+     * 
+     * @return The connection results in the order of the found devices.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    public List<ConnectionResult> connectAll() throws UsbException
+    {
+        return connectAll(Adb.findDevices());
+    }
+
+    /**
+     * Connects the specified ADB devices concurrently. Each device is opened
+     * and the CNXN/AUTH handshake is performed. Successfully connected
+     * devices stay open and must be closed by the caller. Devices which
+     * could not be connected are closed.
+     * 
+     * @param devices
+     *            The devices to connect.
+     * @return The connection results in the order of the specified devices.
+     */
+    public List<ConnectionResult> connectAll(List<AdbDevice> devices)
+    {
+        List<ConnectionResult> results =
+            new ArrayList<ConnectionResult>(devices.size());
+        if (devices.isEmpty()) return results;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(this.threads, devices.size()));
+        final ScheduledExecutorService watchdog =
+            Executors.newSingleThreadScheduledExecutor();
+        try
+        {
+            List<Future<ConnectionResult>> futures =
+                new ArrayList<Future<ConnectionResult>>(devices.size());
+            for (final AdbDevice device: devices)
+            {
+                futures.add(executor.submit(new Callable<ConnectionResult>()
+                {
+                    @Override
+                    public ConnectionResult call()
+                    {
+                        return connectWithTimeout(device, watchdog);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++)
+                results.add(getResult(devices.get(i), futures.get(i)));
+        }
+        finally
+        {
+            executor.shutdownNow();
+            watchdog.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the result of a connection task.
+     * 
+     * @param device
+     *            The device which is connected by the task.
+     * @param future
+     *            The future of the task.
+     * @return The connection result.
+     */
+    private ConnectionResult getResult(AdbDevice device,
+        Future<ConnectionResult> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return new ConnectionResult(device, null, e, 0);
+        }
+        catch (ExecutionException e)
+        {
+            return new ConnectionResult(device, null,
+                (Exception) e.getCause(), 0);
+        }
+    }
+
+    /**
+     * Opens and connects the specified device. The device is closed when
+     * the timeout expires before the handshake is finished. The attempt
+     * counts as timed out as soon as the watchdog task has started, even
+     * when the handshake finished in the meantime.
+     * 
+     * @param device
+     *            The device to connect.
+     * @param watchdog
+     *            The executor used for scheduling the timeout.
+     * @return The connection result.
+     */
+    private ConnectionResult connectWithTimeout(final AdbDevice device,
+        ScheduledExecutorService watchdog)
+    {
+        long start = System.nanoTime();
+        ScheduledFuture<?> timer = watchdog.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                closeQuietly(device);
+            }
+        }, this.timeout, TimeUnit.MILLISECONDS);
+        try
+        {
+            device.open();
+            ConnectMessage message = connect(device);
+            if (timer.cancel(false))
+                return new ConnectionResult(device, message, null,
+                    System.nanoTime() - start);
+        }
+        catch (Exception e)
+        {
+            if (timer.cancel(false))
+            {
+                closeQuietly(device);
+                return new ConnectionResult(device, null, e,
+                    System.nanoTime() - start);
+            }
+        }
+
+        // The watchdog has started and closes the device
+        return new ConnectionResult(device, null, new TimeoutException(
+            "Handshake timed out after " + this.timeout + " ms"),
+            System.nanoTime() - start);
+    }
+
+    /**
+     * Closes the specified device and ignores errors.
+     * 
+     * @param device
+     *            The device to close.
+     */
+    private static void closeQuietly(AdbDevice device)
+    {
+        try
+        {
+            device.close();
+        }
+        catch (Exception e)
+        {
+            LOG.log(Level.FINE, "Unable to close ADB device", e);
+        }
+    }
+
+    /**
+     * Performs the CNXN/AUTH handshake with the specified open device. First
+     * the token sent by the device is signed with the private key. If the
+     * device doesn't accept the signature then the public key is sent so the
+     * user can accept it on the device.
+     * 
+     * @param device
+     *            The open ADB device.
+     * @return The CONNECT message sent by the device.
+     * @throws UsbException
+     *             When USB communication failed.
+     * @throws IOException
+     *             When authentication failed or the keys could not be read.
+     */
+    public ConnectMessage connect(AdbDevice device) throws UsbException,
+        IOException
+    {
+        device.sendMessage(new ConnectMessage(
+            ConnectMessage.SYSTEM_TYPE_HOST, "", this.banner));
+        boolean sentSignature = false;
+        boolean sentPublicKey = false;
+        while (true)
+        {
+            Message message = device.receiveMessage();
+            if (message instanceof ConnectMessage)
+                return (ConnectMessage) message;
+            if (!(message instanceof AuthMessage))
+                throw new IOException("Received unexpected message: "
+                    + message);
+            AuthMessage authMessage = (AuthMessage) message;
+            if (!sentSignature)
+            {
+                device.sendMessage(new AuthMessage(AuthMessage.TYPE_SIGNATURE,
+                    sign(authMessage.getData())));
+                sentSignature = true;
+            }
+            else if (!sentPublicKey)
+            {
+                device.sendMessage(new AuthMessage(
+                    AuthMessage.TYPE_RSAPUBLICKEY, Adb.getPublicKey()));
+                sentPublicKey = true;
+            }
+            else
+            {
+                throw new IOException("Couldn't authenticate");
+            }
+        }
+    }
+
+    /**
+     * Signs the specified token.
+     * 
+     * @param token
+     *            The token to sign.
+     * @return The signature.
+     * @throws IOException
+     *             When token could not be signed.
+     */
+    private static byte[] sign(byte[] token) throws IOException
+    {
+        try
+        {
+            return Adb.signToken(token);
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException("Unable to sign token", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of connecting an ADB device with a {@link ConnectionManager}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class ConnectionResult
+{
+    /** The ADB device. */
+    private final AdbDevice device;
+
+    /** The CONNECT message of the device. Null if connecting failed. */
+    private final ConnectMessage connectMessage;
+
+    /** The error which occurred while connecting. Null if none. */
+    private final Exception error;
+
+    /** The time it took to connect or to fail in nanoseconds. */
+    private final long time;
+
+    /**
+     * Constructs a new connection result.
+     * 
+     * @param device
+     *            The ADB device.
+     * @param connectMessage
+     *            The CONNECT message of the device. Null if connecting
+     *            failed.
+     * @param error
+     *            The error which occurred while connecting. Null if none.
+     * @param time
+     *            The time it took to connect or to fail in nanoseconds.
+     */
+    ConnectionResult(AdbDevice device, ConnectMessage connectMessage,
+        Exception error, long time)
+    {
+        this.device = device;
+        this.connectMessage = connectMessage;
+        this.error = error;
+        this.time = time;
+    }
+
+    /**
+     * Returns the ADB device. When connected then the device is open and
+     * must be closed by the caller.
+     * 
+     * @return The ADB device.
+     */
+    public AdbDevice getDevice()
+    {
+        return this.device;
+    }
+
+    /**
+     * Checks if the device has been connected.
+     * 
+     * @return True if connected, false if connecting failed.
+     */
+    public boolean isConnected()
+    {
+        return this.connectMessage != null;
+    }
+
+    /**
+     * Returns the CONNECT message sent by the device.
+     * 
+     * @return The CONNECT message. Null if connecting failed.
+     */
+    public ConnectMessage getConnectMessage()
+    {
+        return this.connectMessage;
+    }
+
+    /**
+     * Returns the error which occurred while connecting.
+     * 
+     * @return The error. Null if connected.
+     */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * Returns the time it took to connect the device or to fail.
+     * 
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The time.
+     */
+    public long getTime(TimeUnit unit)
+    {
+        return unit.convert(this.time, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString()
+    {
+        if (isConnected())
+            return String.format("Connected in %d ms: %s",
+                getTime(TimeUnit.MILLISECONDS), this.connectMessage);
+        return String.format("Failed after %d ms: %s",
+            getTime(TimeUnit.MILLISECONDS), this.error);
+    }
+}
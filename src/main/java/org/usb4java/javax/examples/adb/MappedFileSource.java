@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Readable channel which reads a file through memory mappings. The file is
+ * mapped in windows of limited size and the data is copied from the mapped
+ * pages straight into the target buffer. Compared to reading from the file
+ * channel this avoids the read system call and the intermediate direct
+ * buffer of the JDK for each chunk. Java provides no way to unmap a mapping
+ * explicitly. A window which has been read completely is dropped and only
+ * unmapped when the garbage collector reclaims it. So the windows are kept
+ * small to limit the address space held by windows not yet collected.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class MappedFileSource implements ReadableByteChannel
+{
+    /** The default size of a mapped window. */
+    public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+
+    /** The file channel. */
+    private final FileChannel channel;
+
+    /** The size of a mapped window. */
+    private final int windowSize;
+
+    /** The file position of the next window. */
+    private long position;
+
+    /** The end position in the file. */
+    private final long end;
+
+    /** The current window. Null if a new window must be mapped. */
+    private MappedByteBuffer window;
+
+    /** If the source has been closed. */
+    private boolean closed;
+
+    /**
+     * Constructs a new mapped file source which reads from the current
+     * position of the channel to its end with the default window size.
+     * 
+     * @param channel
+     *            The file channel. It is not closed by this source.
+     * @throws IOException
+     *             When position or size of the channel could not be read.
+     */
+    public MappedFileSource(FileChannel channel) throws IOException
+    {
+        this(channel, channel.position(), channel.size(),
+            DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs a new mapped file source.
+     * 
+     * @param channel
+     *            The file channel. It is not closed by this source.
+     * @param start
+     *            The file position to start reading at.
+     * @param end
+     *            The file position to stop reading at.
+     * @param windowSize
+     *            The size of a mapped window.
+     */
+    public MappedFileSource(FileChannel channel, long start, long end,
+        int windowSize)
+    {
+        if (channel == null)
+            throw new IllegalArgumentException("channel must be set");
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Invalid range");
+        if (windowSize < 1)
+            throw new IllegalArgumentException(
+                "windowSize must be at least 1");
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns the number of bytes which have not been read yet.
+     * 
+     * @return The number of remaining bytes.
+     */
+    public long getRemaining()
+    {
+        MappedByteBuffer window = this.window;
+        return this.end - this.position
+            + (window == null ? 0 : window.remaining());
+    }
+
+    @Override
+    public int read(ByteBuffer target) throws IOException
+    {
+        if (this.closed) throw new ClosedChannelException();
+        if (this.window == null || !this.window.hasRemaining())
+        {
+            if (this.position >= this.end)
+            {
+                this.window = null;
+                return -1;
+            }
+            long size = Math.min(this.windowSize, this.end - this.position);
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                this.position, size);
+            this.position += size;
+        }
+        int size = Math.min(target.remaining(), this.window.remaining());
+        ByteBuffer slice = this.window.duplicate();
+        slice.limit(slice.position() + size);
+        target.put(slice);
+        this.window.position(this.window.position() + size);
+        return size;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return !this.closed;
+    }
+
+    @Override
+    public void close()
+    {
+        this.closed = true;
+        this.window = null;
+    }
+}
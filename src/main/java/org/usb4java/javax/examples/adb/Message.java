@@ -5,6 +5,8 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * ADB Message. The abstract base class for all commands.
@@ -13,11 +15,32 @@ package org.usb4java.javax.examples.adb;
  */
 public abstract class Message
 {
+    /**
+     * Maximum number of 8 byte words which can be summed up in parallel
+     * before the 16 bit lanes of the accumulator could overflow.
+     */
+    private static final int MAX_WORDS_PER_BLOCK = 128;
+
+    /** Mask selecting every second byte of a word. */
+    private static final long BYTE_MASK = 0x00ff00ff00ff00ffL;
+
     /** The ADB message header. */
     protected final MessageHeader header;
 
-    /** The data payload. */
-    protected final byte[] data;
+    /**
+     * The data payload. Position is always 0 and limit is the payload size.
+     * May be a slice of a larger heap or direct buffer.
+     */
+    protected final ByteBuffer data;
+
+    /**
+     * The pool the payload buffer was borrowed from. Null if not pooled.
+     * Stays set after the buffer has been released.
+     */
+    private BufferPool pool;
+
+    /** The pooled payload buffer. Null if not pooled or already released. */
+    private byte[] pooledBuffer;
 
     /**
      * Constructs a new ADB message.
@@ -33,12 +56,27 @@ public abstract class Message
      */
     protected Message(int command, int arg0, int arg1, byte[] data)
     {
-        this.data = data;
-        int checksum = 0;
-        for (byte b: data)
-            checksum += b & 0xff;
-        this.header = new MessageHeader(command, arg0, arg1,
-            data.length, checksum, command ^ 0xffffffff);
+        this(command, arg0, arg1, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Constructs a new ADB message with a payload which is not copied. The
+     * remaining bytes of the buffer are the payload. The buffer must not be
+     * modified until the message has been sent.
+     * 
+     * @param command
+     *            The command.
+     * @param arg0
+     *            The first argument.
+     * @param arg1
+     *            The second argument.
+     * @param data
+     *            The data payload.
+     */
+    protected Message(int command, int arg0, int arg1, ByteBuffer data)
+    {
+        this.data = data.slice();
+        this.header = new MessageHeader(command, arg0, arg1, this.data);
     }
 
     /**
@@ -50,9 +88,57 @@ public abstract class Message
      *            The ADB message data.
      */
     public Message(MessageHeader header, byte[] data)
+    {
+        this(header, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Constructs a new ADB message with a payload which is not copied. The
+     * remaining bytes of the buffer are the payload.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public Message(MessageHeader header, ByteBuffer data)
     {
         this.header = header;
-        this.data = data;
+        this.data = data.slice();
+    }
+
+    /**
+     * Remembers the pooled buffer backing the payload of this message so it
+     * can be returned to the pool with {@link #release()}.
+     * 
+     * @param pool
+     *            The pool the buffer was borrowed from.
+     * @param buffer
+     *            The borrowed buffer.
+     */
+    synchronized void setPooledBuffer(BufferPool pool, byte[] buffer)
+    {
+        this.pool = pool;
+        this.pooledBuffer = buffer;
+    }
+
+    /**
+     * Returns the pooled buffer backing the payload of this message to its
+     * pool. The payload of the message must not be used anymore after
+     * calling this method. Does nothing if the payload is not pooled or has
+     * already been released.
+     */
+    public void release()
+    {
+        BufferPool pool;
+        byte[] buffer;
+        synchronized (this)
+        {
+            pool = this.pool;
+            buffer = this.pooledBuffer;
+            this.pooledBuffer = null;
+        }
+        if (buffer != null) pool.release(buffer);
     }
 
     /**
@@ -66,13 +152,75 @@ public abstract class Message
     }
 
     /**
-     * Returns the payload data.
+     * Checks if the payload of this message is backed by a pooled buffer.
+     * This stays true after the buffer has been released.
+     * 
+     * @return True if payload is pooled, false if not.
+     */
+    synchronized boolean isPooled()
+    {
+        return this.pool != null;
+    }
+
+    /**
+     * Returns the payload data. When the payload is backed by an array of
+     * exactly the payload size which is not pooled then this array is
+     * returned. Otherwise the payload is copied into a new array so a pooled
+     * buffer is never exposed.
      * 
      * @return The payload data.
      */
     public byte[] getData()
     {
-        return this.data;
+        ByteBuffer data = this.data;
+        if (!isPooled() && data.hasArray() && data.arrayOffset() == 0
+            && data.array().length == data.remaining()) return data.array();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the payload data as a buffer without copying it. The returned
+     * buffer is a new view on the payload so changing its position or limit
+     * does not affect the message.
+     * 
+     * @return The payload data buffer.
+     */
+    public ByteBuffer getDataBuffer()
+    {
+        return this.data.duplicate();
+    }
+
+    /**
+     * Returns the payload decoded as an UTF-8 string. Trailing null
+     * characters are ignored.
+     * 
+     * @return The payload string.
+     */
+    protected String decodeString()
+    {
+        ByteBuffer data = this.data.duplicate();
+        int len = data.remaining();
+        while (len > 0 && data.get(len - 1) == 0) len--;
+        data.limit(len);
+        return Charset.forName("UTF-8").decode(data).toString();
+    }
+
+    /**
+     * Writes the header and the payload of this message into the specified
+     * buffer starting at its current position. The position is advanced by
+     * the number of written bytes.
+     * 
+     * @param buffer
+     *            The buffer to write to.
+     * @param withChecksum
+     *            True to write the data checksum, false to write 0 instead.
+     */
+    public void writeTo(ByteBuffer buffer, boolean withChecksum)
+    {
+        this.header.writeTo(buffer, withChecksum);
+        buffer.put(this.data.duplicate());
     }
 
     /**
@@ -84,10 +232,73 @@ public abstract class Message
     public boolean isValid()
     {
         if (!this.header.isValid()) return false;
+        return checksum(this.data) == this.header.getDataChecksum();
+    }
+
+    /**
+     * Calculates the ADB data checksum of the remaining bytes of the
+     * specified buffer. The position of the buffer is not changed.
+     * 
+     * @param buffer
+     *            The data buffer.
+     * @return The checksum.
+     */
+    public static int checksum(ByteBuffer buffer)
+    {
+        if (buffer.hasArray())
+            return checksum(buffer.array(), buffer.arrayOffset()
+                + buffer.position(), buffer.remaining());
+        return checksum(buffer, buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Calculates the ADB data checksum which is simply the sum of all bytes.
+     * The bytes are summed up eight at a time in the 16 bit lanes of a long
+     * value which is much faster than summing up each single byte.
+     * 
+     * @param data
+     *            The data array.
+     * @param offset
+     *            The offset of the first byte.
+     * @param length
+     *            The number of bytes.
+     * @return The checksum.
+     */
+    public static int checksum(byte[] data, int offset, int length)
+    {
+        return checksum(ByteBuffer.wrap(data), offset, offset + length);
+    }
+
+    /**
+     * Calculates the ADB data checksum of the specified buffer range.
+     * 
+     * @param buffer
+     *            The data buffer.
+     * @param start
+     *            The index of the first byte.
+     * @param end
+     *            The index after the last byte.
+     * @return The checksum.
+     */
+    private static int checksum(ByteBuffer buffer, int start, int end)
+    {
         int checksum = 0;
-        for (byte b: this.data)
-            checksum += b & 0xff;
-        return checksum == this.header.getDataChecksum();
+        int pos = start;
+        while (end - pos >= 8)
+        {
+            int blockEnd = Math.min(end - 7, pos + MAX_WORDS_PER_BLOCK * 8);
+            long lanes = 0;
+            for (; pos < blockEnd; pos += 8)
+            {
+                long word = buffer.getLong(pos);
+                lanes += (word & BYTE_MASK) + ((word >>> 8) & BYTE_MASK);
+            }
+            checksum += (int) ((lanes & 0xffff) + ((lanes >>> 16) & 0xffff)
+                + ((lanes >>> 32) & 0xffff) + (lanes >>> 48));
+        }
+        for (; pos < end; pos++)
+            checksum += buffer.get(pos) & 0xff;
+        return checksum;
     }
 
     /**
@@ -100,6 +311,21 @@ public abstract class Message
      * @return The parsed ADB message.
      */
     public static Message create(MessageHeader header, byte[] data)
+    {
+        return create(header, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates an ADB message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data. The remaining bytes of the buffer are
+     *            the payload.
+     * @return The parsed ADB message.
+     */
+    public static Message create(MessageHeader header, ByteBuffer data)
     {
         int command = header.getCommand();
         switch (command)
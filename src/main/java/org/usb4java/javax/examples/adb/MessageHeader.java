@@ -52,7 +52,13 @@ public class MessageHeader
     private final int dataLength;
 
     /** Checksum of data payload (Sum of all bytes). */
-    private final int dataChecksum;
+    private int dataChecksum;
+
+    /**
+     * The data payload as long as the checksum has not been calculated yet.
+     * Null when checksum is known.
+     */
+    private volatile ByteBuffer checksumData;
 
     /** Inverted command. */
     private final int magic;
@@ -87,6 +93,31 @@ public class MessageHeader
         this.magic = command ^ 0xffffffff;
     }
 
+    /**
+     * Constructs a new ADB message header for the specified data payload.
+     * The data checksum is calculated on first access so it is never
+     * calculated when it is not needed.
+     * 
+     * @param command
+     *            The command.
+     * @param arg0
+     *            The first argument.
+     * @param arg1
+     *            The second argument.
+     * @param data
+     *            The data payload. The remaining bytes of the buffer are the
+     *            payload.
+     */
+    MessageHeader(int command, int arg0, int arg1, ByteBuffer data)
+    {
+        this.command = command;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        this.dataLength = data.remaining();
+        this.magic = command ^ 0xffffffff;
+        this.checksumData = data;
+    }
+
     /**
      * Constructs a new ADB message header from the specified byte array.
      * 
@@ -94,18 +125,97 @@ public class MessageHeader
      *            The ADB message header as bytes.
      */
     public MessageHeader(byte[] bytes)
+    {
+        this(checkSize(bytes), 0);
+    }
+
+    /**
+     * Constructs a new ADB message header from the specified byte array
+     * range.
+     * 
+     * @param bytes
+     *            The byte array containing the ADB message header.
+     * @param offset
+     *            The offset of the header in the array.
+     */
+    public MessageHeader(byte[] bytes, int offset)
+    {
+        this(ByteBuffer.wrap(bytes, offset, SIZE));
+    }
+
+    /**
+     * Constructs a new ADB message header from the specified buffer. The
+     * header is read with absolute reads starting at the current position of
+     * the buffer so neither position nor byte order of the buffer is
+     * changed. The fields are copied so the buffer can be reused afterwards.
+     * 
+     * @param buffer
+     *            The buffer containing the ADB message header.
+     */
+    public MessageHeader(ByteBuffer buffer)
+    {
+        if (buffer.remaining() < SIZE)
+            throw new IllegalArgumentException("ADB message header must be "
+                + SIZE + " bytes large, not " + buffer.remaining() + " bytes");
+        int pos = buffer.position();
+        this.command = getInt(buffer, pos);
+        this.arg0 = getInt(buffer, pos + 4);
+        this.arg1 = getInt(buffer, pos + 8);
+        this.dataLength = getInt(buffer, pos + 12);
+        this.dataChecksum = getInt(buffer, pos + 16);
+        this.magic = getInt(buffer, pos + 20);
+    }
+
+    /**
+     * Ensures that the specified byte array has the size of an ADB message
+     * header.
+     * 
+     * @param bytes
+     *            The byte array to check.
+     * @return The checked byte array.
+     */
+    private static byte[] checkSize(byte[] bytes)
     {
         if (bytes.length != SIZE)
             throw new IllegalArgumentException("ADB message header must be "
                 + SIZE + " bytes large, not " + bytes.length + " bytes");
-        ByteBuffer buffer = ByteBuffer.wrap(bytes).
-            order(ByteOrder.LITTLE_ENDIAN);
-        this.command = buffer.getInt();
-        this.arg0 = buffer.getInt();
-        this.arg1 = buffer.getInt();
-        this.dataLength = buffer.getInt();
-        this.dataChecksum = buffer.getInt();
-        this.magic = buffer.getInt();
+        return bytes;
+    }
+
+    /**
+     * Reads a little endian integer from the specified buffer independent of
+     * the byte order of the buffer.
+     * 
+     * @param buffer
+     *            The buffer to read from.
+     * @param index
+     *            The index to read from.
+     * @return The read integer.
+     */
+    private static int getInt(ByteBuffer buffer, int index)
+    {
+        int value = buffer.getInt(index);
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) return value;
+        return Integer.reverseBytes(value);
+    }
+
+    /**
+     * Writes a little endian integer to the specified buffer independent of
+     * the byte order of the buffer.
+     * 
+     * @param buffer
+     *            The buffer to write to.
+     * @param index
+     *            The index to write to.
+     * @param value
+     *            The integer to write.
+     */
+    private static void putInt(ByteBuffer buffer, int index, int value)
+    {
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN)
+            buffer.putInt(index, value);
+        else
+            buffer.putInt(index, Integer.reverseBytes(value));
     }
     
     /**
@@ -145,6 +255,12 @@ public class MessageHeader
      */
     public int getDataChecksum()
     {
+        ByteBuffer data = this.checksumData;
+        if (data != null)
+        {
+            this.dataChecksum = Message.checksum(data);
+            this.checksumData = null;
+        }
         return this.dataChecksum;
     }
 
@@ -186,14 +302,64 @@ public class MessageHeader
      */
     public byte[] getBytes()
     {
-        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.putInt(this.command);
-        buffer.putInt(this.arg0);
-        buffer.putInt(this.arg1);
-        buffer.putInt(this.dataLength);
-        buffer.putInt(this.dataChecksum);
-        buffer.putInt(this.magic);
-        return buffer.array();
+        return getBytes(true);
+    }
+
+    /**
+     * Returns the message header as a byte array.
+     * 
+     * @param withChecksum
+     *            True to include the data checksum, false to write 0
+     *            instead. Peers which negotiated
+     *            {@link ConnectMessage#PROTOCOL_VERSION_SKIP_CHECKSUM} or
+     *            newer don't check the checksum so it doesn't need to be
+     *            calculated.
+     * @return The message header as a byte array.
+     */
+    public byte[] getBytes(boolean withChecksum)
+    {
+        byte[] bytes = new byte[SIZE];
+        writeTo(bytes, 0, withChecksum);
+        return bytes;
+    }
+
+    /**
+     * Writes the message header into the specified byte array.
+     * 
+     * @param bytes
+     *            The byte array to write to.
+     * @param offset
+     *            The offset in the array to write to.
+     * @param withChecksum
+     *            True to write the data checksum, false to write 0 instead.
+     */
+    public void writeTo(byte[] bytes, int offset, boolean withChecksum)
+    {
+        writeTo(ByteBuffer.wrap(bytes, offset, SIZE), withChecksum);
+    }
+
+    /**
+     * Writes the message header into the specified buffer starting at its
+     * current position. The header is always written in little endian byte
+     * order. The position is advanced by {@link #SIZE}.
+     * 
+     * @param buffer
+     *            The buffer to write to.
+     * @param withChecksum
+     *            True to write the data checksum, false to write 0 instead.
+     */
+    public void writeTo(ByteBuffer buffer, boolean withChecksum)
+    {
+        if (buffer.remaining() < SIZE)
+            throw new IllegalArgumentException(
+                "Not enough space for ADB message header");
+        int pos = buffer.position();
+        putInt(buffer, pos, this.command);
+        putInt(buffer, pos + 4, this.arg0);
+        putInt(buffer, pos + 8, this.arg1);
+        putInt(buffer, pos + 12, this.dataLength);
+        putInt(buffer, pos + 16, withChecksum ? getDataChecksum() : 0);
+        putInt(buffer, pos + 20, this.magic);
+        buffer.position(pos + SIZE);
     }
 }
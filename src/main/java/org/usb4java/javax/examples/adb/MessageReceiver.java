@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.usb.UsbException;
+import javax.usb.UsbPipe;
+
+/**
+ * Background receiver which continuously reads messages from an ADB device
+ * and puts them into a receive queue. This way the in endpoint of the device
+ * is drained even when the consumer is slow. Use
+ * {@link AdbDevice#startReceiver(int, OverflowPolicy)} to start it.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class MessageReceiver implements Runnable
+{
+    /** Interval in milliseconds for retrying to stop the thread. */
+    private static final long STOP_INTERVAL = 100;
+
+    /** Queue entry which signals that the receiver has stopped. */
+    private static final Entry STOPPED = new Entry(null);
+
+    /** The ADB device to read from. */
+    private final AdbDevice device;
+
+    /** The overflow policy. */
+    private final OverflowPolicy policy;
+
+    /** The receive queue. */
+    private final BlockingQueue<Entry> queue;
+
+    /** Free slots of the receive queue. Null if queue is unbounded. */
+    private final Semaphore slots;
+
+    /** The receiver thread. */
+    private final Thread thread;
+
+    /** If receiver is running. */
+    private volatile boolean running;
+
+    /** The error which stopped the receiver. Null if none. */
+    private volatile Exception error;
+
+    /** The number of received messages. */
+    private final AtomicLong receivedCount = new AtomicLong();
+
+    /** The number of dropped messages. */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** The number of messages taken from the queue. */
+    private final AtomicLong takenCount = new AtomicLong();
+
+    /** The total time taken messages spent in the queue in nanoseconds. */
+    private final AtomicLong totalQueueTime = new AtomicLong();
+
+    /** The maximum time a message spent in the queue in nanoseconds. */
+    private final AtomicLong maxQueueTime = new AtomicLong();
+
+    /** The maximum queue depth seen so far. */
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    /**
+     * Constructs a new message receiver.
+     * 
+     * @param device
+     *            The ADB device to read from.
+     * @param capacity
+     *            The capacity of the receive queue. Ignored for
+     *            {@link OverflowPolicy#GROW}.
+     * @param policy
+     *            The overflow policy.
+     */
+    MessageReceiver(AdbDevice device, int capacity, OverflowPolicy policy)
+    {
+        if (policy == null)
+            throw new IllegalArgumentException("policy must be set");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be at least 1");
+        this.device = device;
+        this.policy = policy;
+        this.queue = new LinkedBlockingQueue<Entry>();
+        if (policy == OverflowPolicy.GROW)
+            this.slots = null;
+        else
+            this.slots = new Semaphore(capacity);
+        this.thread = new Thread(this, "ADB receiver");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the receiver thread.
+     */
+    void start()
+    {
+        this.running = true;
+        this.thread.start();
+    }
+
+    /**
+     * Stops the receiver thread and waits for it to end. Pending reads on the
+     * specified pipe are aborted so the thread can finish. Messages which are
+     * still queued are discarded and their buffers are released.
+     * 
+     * @param pipe
+     *            The in pipe the receiver reads from. May be null if already
+     *            closed.
+     */
+    void stop(UsbPipe pipe)
+    {
+        this.running = false;
+        if (Thread.currentThread() == this.thread) return;
+        try
+        {
+            // Repeat aborting because the thread may have just submitted
+            // a new read
+            while (this.thread.isAlive())
+            {
+                if (pipe != null) pipe.abortAllSubmissions();
+                this.thread.interrupt();
+                this.thread.join(STOP_INTERVAL);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        discardQueue();
+    }
+
+    /**
+     * Removes all messages from the queue and releases them. The stop marker
+     * is put back so waiting consumers still wake up.
+     */
+    private void discardQueue()
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        this.queue.drainTo(entries);
+        for (Entry entry: entries)
+            if (entry != STOPPED) entry.message.release();
+        this.queue.add(STOPPED);
+    }
+
+    @Override
+    public void run()
+    {
+        // The read message which is not queued yet
+        Message message = null;
+        try
+        {
+            while (this.running)
+            {
+                message = this.device.readMessage();
+                this.receivedCount.incrementAndGet();
+                if (this.policy == OverflowPolicy.DROP)
+                {
+                    if (!this.slots.tryAcquire())
+                    {
+                        this.droppedCount.incrementAndGet();
+                        message.release();
+                        message = null;
+                        continue;
+                    }
+                }
+                else if (this.policy == OverflowPolicy.BLOCK)
+                {
+                    this.slots.acquire();
+                }
+
+                // Stamped after waiting for a slot so the queue time
+                // doesn't include the time blocked in BLOCK mode
+                this.queue.add(new Entry(message));
+                message = null;
+                updateMax(this.maxQueueDepth, this.queue.size());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Receiver has been stopped
+        }
+        catch (Exception e)
+        {
+            if (this.running) this.error = e;
+        }
+        finally
+        {
+            // A message read while stopping (for example when interrupted
+            // while waiting for a slot in BLOCK mode) is never queued
+            if (message != null) message.release();
+
+            // Already queued messages can still be taken before the
+            // consumer sees the stop marker
+            this.running = false;
+            this.queue.add(STOPPED);
+        }
+    }
+
+    /**
+     * Takes the next message from the receive queue. Blocks until a message
+     * is available.
+     * 
+     * @return The received message.
+     * @throws UsbException
+     *             When the receiver has been stopped because of a USB error
+     *             or when waiting for a message has been interrupted.
+     */
+    Message take() throws UsbException
+    {
+        Entry entry;
+        try
+        {
+            entry = this.queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new UsbException("Interrupted while waiting for message");
+        }
+        if (entry == STOPPED)
+        {
+            // Put marker back so other consumers wake up too
+            this.queue.add(STOPPED);
+            Exception error = this.error;
+            if (error instanceof UsbException) throw (UsbException) error;
+            if (error instanceof RuntimeException)
+                throw (RuntimeException) error;
+            UsbException e = new UsbException("ADB receiver stopped");
+            if (error != null) e.initCause(error);
+            throw e;
+        }
+        if (this.slots != null) this.slots.release();
+        long queueTime = System.nanoTime() - entry.time;
+        this.takenCount.incrementAndGet();
+        this.totalQueueTime.addAndGet(queueTime);
+        updateMax(this.maxQueueTime, queueTime);
+        return entry.message;
+    }
+
+    /**
+     * Updates the specified maximum value.
+     * 
+     * @param max
+     *            The maximum value to update.
+     * @param value
+     *            The new value.
+     */
+    private static void updateMax(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    /**
+     * Checks if the receiver is running.
+     * 
+     * @return True if running, false if not.
+     */
+    public boolean isRunning()
+    {
+        return this.running;
+    }
+
+    /**
+     * Returns the overflow policy.
+     * 
+     * @return The overflow policy.
+     */
+    public OverflowPolicy getPolicy()
+    {
+        return this.policy;
+    }
+
+    /**
+     * Returns the number of messages currently waiting in the queue.
+     * 
+     * @return The current queue depth.
+     */
+    public int getQueueDepth()
+    {
+        int depth = this.queue.size();
+        return this.queue.contains(STOPPED) ? depth - 1 : depth;
+    }
+
+    /**
+     * Returns the maximum number of messages which were waiting in the queue
+     * at the same time.
+     * 
+     * @return The maximum queue depth.
+     */
+    public long getMaxQueueDepth()
+    {
+        return this.maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of messages read from the device.
+     * 
+     * @return The number of received messages.
+     */
+    public long getReceivedCount()
+    {
+        return this.receivedCount.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full.
+     * 
+     * @return The number of dropped messages.
+     */
+    public long getDroppedCount()
+    {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Returns the average time taken messages spent in the queue.
+     * 
+     * @return The average time in queue in nanoseconds.
+     */
+    public long getAverageQueueTime()
+    {
+        long taken = this.takenCount.get();
+        return taken == 0 ? 0 : this.totalQueueTime.get() / taken;
+    }
+
+    /**
+     * Returns the maximum time a message spent in the queue.
+     * 
+     * @return The maximum time in queue in nanoseconds.
+     */
+    public long getMaxQueueTime()
+    {
+        return this.maxQueueTime.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "MessageReceiver(%s, depth=%d, maxDepth=%d, received=%d, "
+                + "dropped=%d, avgQueueTime=%dns, maxQueueTime=%dns)",
+            this.policy, getQueueDepth(), getMaxQueueDepth(),
+            getReceivedCount(), getDroppedCount(), getAverageQueueTime(),
+            getMaxQueueTime());
+    }
+
+    /**
+     * Entry of the receive queue.
+     */
+    private static final class Entry
+    {
+        /** The received message. */
+        final Message message;
+
+        /** The time when the message has been queued in nanoseconds. */
+        final long time;
+
+        /**
+         * Constructs a new queue entry.
+         * 
+         * @param message
+         *            The received message.
+         */
+        Entry(Message message)
+        {
+            this.message = message;
+            this.time = System.nanoTime();
+        }
+    }
+}
@@ -5,6 +5,7 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
 
 /**
  * ADB OKAY message.
@@ -25,6 +26,19 @@ public class OkayMessage extends Message
     {
         super(header, data);
     }
+
+    /**
+     * Constructs a new OKAY message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public OkayMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
     
     /**
      * Constructs a new OKAY message.
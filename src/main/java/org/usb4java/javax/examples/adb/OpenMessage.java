@@ -5,6 +5,7 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -26,6 +27,19 @@ public class OpenMessage extends Message
     {
         super(header, data);
     }
+
+    /**
+     * Constructs a new OPEN message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public OpenMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
     
     /**
      * Constructs a new OPEN message.
@@ -70,9 +84,7 @@ public class OpenMessage extends Message
      */
     public String getDestination()
     {
-        int len = this.data.length;
-        while (len > 0 && this.data[len - 1] == 0) len--;
-        return new String(this.data, 0, len, Charset.forName("UTF-8"));
+        return decodeString();
     }
 
     @Override
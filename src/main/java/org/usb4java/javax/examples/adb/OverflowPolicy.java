@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+/**
+ * Defines what a {@link MessageReceiver} does when its receive queue is full.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public enum OverflowPolicy
+{
+    /**
+     * The receiver stops reading from the device until the consumer has taken
+     * a message from the queue.
+     */
+    BLOCK,
+
+    /**
+     * The received message is dropped and its buffer is released. Dropping
+     * messages breaks the ADB protocol so this should only be used for
+     * monitoring purposes. A {@link StreamMultiplexer} refuses to start on
+     * a device with a dropping receiver because a stream whose OKAY, WRTE
+     * or CLSE message is dropped would wait forever.
+     */
+    DROP,
+
+    /** The queue grows without limit. The capacity is ignored. */
+    GROW
+}
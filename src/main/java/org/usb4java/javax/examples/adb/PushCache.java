@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.usb.UsbException;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Remembers which file contents have been pushed to a device so unchanged
+ * files can be skipped (See {@link SyncClient#pushIfChanged(File, String,
+ * PushCache)}). For each remote path the size, the modification time and
+ * the SHA-1 hash of the pushed content are stored. Content hashes of local
+ * files are cached by path, size and modification time so unchanged local
+ * files are not hashed again. The sync protocol reports sizes and times as
+ * 32 bit values so they are compared modulo 2^32. The cache is stored per
+ * device serial number in a properties file.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class PushCache
+{
+    /** The logger for this class. */
+    private static final Logger LOG = Logger.getLogger(PushCache.class
+        .getName());
+
+    /** The default directory of the cache files. */
+    public static final File DEFAULT_DIRECTORY = new File(
+        System.getProperty("user.home"), ".android/usb4java_push");
+
+    /** The key prefix of remote entries. */
+    private static final String REMOTE = "remote:";
+
+    /** The key prefix of local hash entries. */
+    private static final String LOCAL = "local:";
+
+    /** The size of the buffer used for hashing files. */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /** The mask of the 32 bit sizes and times reported by STAT. */
+    private static final long UINT32_MASK = 0xffffffffL;
+
+    /** The cache file. */
+    private final File file;
+
+    /** The cached entries. */
+    private final Properties entries = new Properties();
+
+    /** If entries have been changed since the cache was loaded or saved. */
+    private boolean modified;
+
+    /**
+     * Constructs a new push cache for the device with the specified serial
+     * number. The cache file is located in {@link #DEFAULT_DIRECTORY}.
+     * 
+     * @param serialNo
+     *            The serial number of the device. Must not be empty. See
+     *            {@link #forDevice(AdbDevice, ConnectMessage)} for getting
+     *            it from a connected device.
+     */
+    public PushCache(String serialNo)
+    {
+        this(new File(DEFAULT_DIRECTORY, toFileName(serialNo)));
+    }
+
+    /**
+     * Constructs a new push cache. Existing entries are loaded from the
+     * specified file. A missing or unreadable file results in an empty
+     * cache.
+     * 
+     * @param file
+     *            The cache file. Must not be null.
+     */
+    public PushCache(File file)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("file must be set");
+        this.file = file;
+        if (file.exists()) load();
+    }
+
+    /**
+     * Creates the push cache for the specified connected device. The serial
+     * number reported in the CONNECT message is used. Current devices leave
+     * it empty so the USB serial number is used instead in this case.
+     * 
+     * @param device
+     *            The connected ADB device.
+     * @param message
+     *            The CONNECT message received from the device.
+     * @return The push cache.
+     * @throws UsbException
+     *             When USB serial number could not be read.
+     * @throws IllegalArgumentException
+     *             When the device has no serial number at all.
+     */
+    public static PushCache forDevice(AdbDevice device, ConnectMessage message)
+        throws UsbException
+    {
+        String serialNo = message.getSerialNo();
+        if (serialNo.isEmpty()) serialNo = device.getSerialNumber();
+        return new PushCache(serialNo);
+    }
+
+    /**
+     * Converts a serial number into a file name.
+     * 
+     * @param serialNo
+     *            The serial number.
+     * @return The file name.
+     */
+    private static String toFileName(String serialNo)
+    {
+        if (serialNo == null || serialNo.isEmpty())
+            throw new IllegalArgumentException("serialNo must be set");
+        return serialNo.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties";
+    }
+
+    /**
+     * Returns the cache file.
+     * 
+     * @return The cache file.
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Loads the entries from the cache file.
+     */
+    private void load()
+    {
+        try
+        {
+            InputStream in = new FileInputStream(this.file);
+            try
+            {
+                this.entries.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.WARNING, "Unable to read " + this.file, e);
+        }
+    }
+
+    /**
+     * Writes the entries to the cache file if they have been changed. The
+     * entries are first written to a temporary file which then replaces the
+     * cache file.
+     * 
+     * @throws IOException
+     *             When cache file could not be written.
+     */
+    public synchronized void save() throws IOException
+    {
+        if (!this.modified) return;
+        File dir = this.file.getParentFile();
+        if (dir != null) dir.mkdirs();
+        File tmpFile = new File(this.file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try
+        {
+            this.entries.store(out, null);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmpFile.renameTo(this.file))
+        {
+            this.file.delete();
+            if (!tmpFile.renameTo(this.file))
+                throw new IOException("Unable to rename " + tmpFile);
+        }
+        this.modified = false;
+    }
+
+    /**
+     * Returns the SHA-1 hash of the content of the specified local file.
+     * The cached hash is used when size and modification time of the file
+     * didn't change.
+     * 
+     * @param file
+     *            The local file.
+     * @return The content hash as a hex string.
+     * @throws IOException
+     *             When file could not be read.
+     */
+    public String getHash(File file) throws IOException
+    {
+        String key = LOCAL + file.getAbsolutePath();
+        String stamp = file.length() + ":" + file.lastModified() + ":";
+        synchronized (this)
+        {
+            String value = this.entries.getProperty(key);
+            if (value != null && value.startsWith(stamp))
+                return value.substring(stamp.length());
+        }
+        String hash = hash(file);
+        putHash(file, file.length(), file.lastModified(), hash);
+        return hash;
+    }
+
+    /**
+     * Remembers the content hash of a local file which has been calculated
+     * elsewhere, for example while pushing the file.
+     * 
+     * @param file
+     *            The local file.
+     * @param length
+     *            The size of the file when the hash was calculated.
+     * @param lastModified
+     *            The modification time of the file when the hash was
+     *            calculated.
+     * @param hash
+     *            The content hash as a hex string.
+     */
+    synchronized void putHash(File file, long length, long lastModified,
+        String hash)
+    {
+        this.entries.setProperty(LOCAL + file.getAbsolutePath(), length + ":"
+            + lastModified + ":" + hash);
+        this.modified = true;
+    }
+
+    /**
+     * Creates the message digest used for content hashes.
+     * 
+     * @return The message digest.
+     * @throws IOException
+     *             When SHA-1 is not supported.
+     */
+    static MessageDigest createDigest() throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException("SHA-1 not supported", e);
+        }
+    }
+
+    /**
+     * Completes the specified message digest and returns the content hash.
+     * 
+     * @param digest
+     *            The message digest.
+     * @return The content hash as a hex string.
+     */
+    static String toHash(MessageDigest digest)
+    {
+        return DatatypeConverter.printHexBinary(digest.digest());
+    }
+
+    /**
+     * Calculates the SHA-1 hash of the content of the specified file.
+     * 
+     * @param file
+     *            The file.
+     * @return The content hash as a hex string.
+     * @throws IOException
+     *             When file could not be read.
+     */
+    private static String hash(File file) throws IOException
+    {
+        MessageDigest digest = createDigest();
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+        return toHash(digest);
+    }
+
+    /**
+     * Checks if the specified content is already on the device. This is the
+     * case when the content with the specified hash has been pushed to the
+     * remote path before and the device still reports the same size and
+     * modification time for it.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param stat
+     *            The current STAT result of the remote path.
+     * @param hash
+     *            The hash of the content to push.
+     * @return True if the content is already on the device, false if not.
+     */
+    public synchronized boolean matches(String remotePath, RemoteFile stat,
+        String hash)
+    {
+        String pushed = getPushedHash(remotePath, stat);
+        return pushed != null && pushed.equals(hash);
+    }
+
+    /**
+     * Checks if the content of the specified local file is already on the
+     * device. The local file is only hashed when the device still reports
+     * the size and modification time of the last push and the size of the
+     * local file matches.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param stat
+     *            The current STAT result of the remote path.
+     * @param file
+     *            The local file to push.
+     * @return True if the content is already on the device, false if not.
+     * @throws IOException
+     *             When the local file could not be hashed.
+     */
+    public boolean matches(String remotePath, RemoteFile stat, File file)
+        throws IOException
+    {
+        String pushed;
+        synchronized (this)
+        {
+            pushed = getPushedHash(remotePath, stat);
+        }
+        if (pushed == null
+            || ((file.length() ^ stat.getSize()) & UINT32_MASK) != 0)
+            return false;
+        return pushed.equals(getHash(file));
+    }
+
+    /**
+     * Returns the hash of the content last pushed to the specified remote
+     * path if the device still reports the size and modification time of
+     * this push. Must be called while holding the lock of the cache.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param stat
+     *            The current STAT result of the remote path.
+     * @return The pushed hash or null if the remote file is missing, has
+     *         been changed or is unknown.
+     */
+    private String getPushedHash(String remotePath, RemoteFile stat)
+    {
+        if (!stat.exists()) return null;
+        String value = this.entries.getProperty(REMOTE + remotePath);
+        if (value == null) return null;
+        String[] parts = value.split(":", 3);
+        if (parts.length != 3) return null;
+        try
+        {
+            if (((Long.parseLong(parts[0]) ^ stat.getSize())
+                & UINT32_MASK) != 0) return null;
+            if (((Long.parseLong(parts[1]) ^ stat.getTime())
+                & UINT32_MASK) != 0) return null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        return parts[2];
+    }
+
+    /**
+     * Remembers that content has been pushed to the remote path.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param size
+     *            The size of the pushed content.
+     * @param time
+     *            The modification time set on the device in seconds since
+     *            the epoch.
+     * @param hash
+     *            The hash of the pushed content.
+     */
+    public synchronized void put(String remotePath, long size, long time,
+        String hash)
+    {
+        this.entries.setProperty(REMOTE + remotePath, size + ":" + time + ":"
+            + hash);
+        this.modified = true;
+    }
+
+    /**
+     * Forgets what has been pushed to the specified remote path.
+     * 
+     * @param remotePath
+     *            The remote path.
+     */
+    public synchronized void remove(String remotePath)
+    {
+        if (this.entries.remove(REMOTE + remotePath) != null)
+            this.modified = true;
+    }
+}
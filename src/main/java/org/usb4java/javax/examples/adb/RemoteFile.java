@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+/**
+ * File information returned by the STAT and LIST requests of a
+ * {@link SyncClient}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class RemoteFile
+{
+    /** The file type bit mask of the mode. */
+    private static final int S_IFMT = 0170000;
+
+    /** The file type of directories. */
+    private static final int S_IFDIR = 0040000;
+
+    /** The file type of regular files. */
+    private static final int S_IFREG = 0100000;
+
+    /** The file name. Null for STAT results. */
+    private final String name;
+
+    /** The file mode. */
+    private final int mode;
+
+    /** The file size. */
+    private final long size;
+
+    /** The modification time in seconds since the epoch. */
+    private final long time;
+
+    /**
+     * Constructs new file information.
+     * 
+     * @param name
+     *            The file name. Null for STAT results.
+     * @param mode
+     *            The file mode.
+     * @param size
+     *            The file size.
+     * @param time
+     *            The modification time in seconds since the epoch.
+     */
+    public RemoteFile(String name, int mode, long size, long time)
+    {
+        this.name = name;
+        this.mode = mode;
+        this.size = size;
+        this.time = time;
+    }
+
+    /**
+     * Returns the file name. Only set for directory entries.
+     * 
+     * @return The file name or null for STAT results.
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * Returns the file mode.
+     * 
+     * @return The file mode. 0 if the file doesn't exist.
+     */
+    public int getMode()
+    {
+        return this.mode;
+    }
+
+    /**
+     * Returns the file size. Sizes above 4 GB are truncated by the sync
+     * protocol.
+     * 
+     * @return The file size.
+     */
+    public long getSize()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the modification time.
+     * 
+     * @return The modification time in seconds since the epoch.
+     */
+    public long getTime()
+    {
+        return this.time;
+    }
+
+    /**
+     * Checks if the file exists.
+     * 
+     * @return True if file exists, false if not.
+     */
+    public boolean exists()
+    {
+        return this.mode != 0;
+    }
+
+    /**
+     * Checks if the file is a directory.
+     * 
+     * @return True if directory, false if not.
+     */
+    public boolean isDirectory()
+    {
+        return (this.mode & S_IFMT) == S_IFDIR;
+    }
+
+    /**
+     * Checks if the file is a regular file.
+     * 
+     * @return True if regular file, false if not.
+     */
+    public boolean isFile()
+    {
+        return (this.mode & S_IFMT) == S_IFREG;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s mode=%o size=%d time=%d",
+            this.name == null ? "" : this.name, this.mode, this.size,
+            this.time).trim();
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+/**
+ * Callback which is informed when an asynchronously sent ADB message has
+ * been transferred. The callback is called from the USB I/O thread so it must
+ * return quickly and must not block.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public interface SendCallback
+{
+    /**
+     * Called when the message has been sent successfully.
+     * 
+     * @param message
+     *            The sent message.
+     */
+    void messageSent(Message message);
+
+    /**
+     * Called when the message could not be sent.
+     * 
+     * @param message
+     *            The message which could not be sent.
+     * @param cause
+     *            The cause of the failure.
+     */
+    void messageFailed(Message message, Exception cause);
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.usb.UsbIrp;
+import javax.usb.util.DefaultUsbIrp;
+
+/**
+ * The pending result of an asynchronously sent ADB message. The message is
+ * sent with one IRP for the header and one IRP for the payload or with a
+ * single IRP for both when coalescing is enabled. The future is completed
+ * when all IRPs are completed.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class SendFuture implements Future<Message>
+{
+    /** The message to send. */
+    private final Message message;
+
+    /** The optional callback to inform when sending is finished. */
+    private final SendCallback callback;
+
+    /** The task to run when sending is finished. */
+    private final Runnable finisher;
+
+    /** The IRPs to submit. */
+    private final List<UsbIrp> irps;
+
+    /** Latch counting down the not yet completed IRPs. */
+    private final CountDownLatch latch;
+
+    /** If the finisher and the callback have already been run. */
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    /** The first error which occurred while sending. Null if none. */
+    private volatile Exception error;
+
+    /**
+     * Constructs a new send future.
+     * 
+     * @param message
+     *            The message to send.
+     * @param withChecksum
+     *            True to send the data checksum, false to send 0 instead.
+     * @param coalesce
+     *            True to send header and payload with a single IRP.
+     * @param callback
+     *            The optional callback to inform when sending is finished.
+     *            May be null.
+     * @param finisher
+     *            The task to run when sending is finished. Must not be null.
+     */
+    SendFuture(Message message, boolean withChecksum, boolean coalesce,
+        SendCallback callback, Runnable finisher)
+    {
+        this.message = message;
+        this.callback = callback;
+        this.finisher = finisher;
+        this.irps = new ArrayList<UsbIrp>(2);
+        if (coalesce)
+        {
+            byte[] bytes = new byte[MessageHeader.SIZE
+                + message.getHeader().getDataLength()];
+            message.writeTo(ByteBuffer.wrap(bytes), withChecksum);
+            this.irps.add(new SendIrp(bytes, 0, bytes.length));
+            this.latch = new CountDownLatch(1);
+            return;
+        }
+        this.irps.add(new SendIrp(message.getHeader().getBytes(withChecksum),
+            0, MessageHeader.SIZE));
+        ByteBuffer data = message.getDataBuffer();
+        if (data.hasArray())
+            this.irps.add(new SendIrp(data.array(), data.arrayOffset()
+                + data.position(), data.remaining()));
+        else
+            this.irps.add(new SendIrp(message.getData(), 0, data.remaining()));
+        this.latch = new CountDownLatch(this.irps.size());
+    }
+
+    /**
+     * Returns the IRPs which must be submitted to send the message.
+     * 
+     * @return The IRPs to submit.
+     */
+    List<UsbIrp> getIrps()
+    {
+        return this.irps;
+    }
+
+    /**
+     * Fails this future without waiting for the IRPs. Used when submission
+     * itself failed or when the device is closed while the IRPs are still
+     * queued. Does nothing when the future is already finished.
+     * 
+     * @param cause
+     *            The cause of the failure.
+     */
+    void fail(Exception cause)
+    {
+        if (this.finished.get()) return;
+        this.error = cause;
+        while (this.latch.getCount() > 0) this.latch.countDown();
+        finish();
+    }
+
+    /**
+     * Called when a single IRP has been completed.
+     * 
+     * @param irp
+     *            The completed IRP.
+     */
+    private void irpCompleted(UsbIrp irp)
+    {
+        if (this.error == null)
+        {
+            if (irp.isUsbException())
+                this.error = irp.getUsbException();
+            else if (irp.getActualLength() != irp.getLength())
+                this.error = new InvalidMessageException(
+                    "Size mismatch in sent ADB message. Should be "
+                        + irp.getLength() + " but is "
+                        + irp.getActualLength());
+        }
+        this.latch.countDown();
+        if (this.latch.getCount() == 0) finish();
+    }
+
+    /**
+     * Runs the finisher and informs the callback. Does nothing when this has
+     * already been done, for example when IRPs complete after the future
+     * has failed.
+     */
+    private void finish()
+    {
+        if (!this.finished.compareAndSet(false, true)) return;
+        this.finisher.run();
+        if (this.callback == null) return;
+        if (this.error == null)
+            this.callback.messageSent(this.message);
+        else
+            this.callback.messageFailed(this.message, this.error);
+    }
+
+    /**
+     * Returns the message to send.
+     * 
+     * @return The message.
+     */
+    public Message getMessage()
+    {
+        return this.message;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        // Submitted IRPs can't be cancelled individually
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return this.latch.getCount() == 0;
+    }
+
+    @Override
+    public Message get() throws InterruptedException, ExecutionException
+    {
+        this.latch.await();
+        return getResult();
+    }
+
+    @Override
+    public Message get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!this.latch.await(timeout, unit))
+            throw new TimeoutException("ADB message not sent yet: "
+                + this.message);
+        return getResult();
+    }
+
+    /**
+     * Returns the sent message or throws the error which occurred while
+     * sending it.
+     * 
+     * @return The sent message.
+     * @throws ExecutionException
+     *             When sending the message failed.
+     */
+    private Message getResult() throws ExecutionException
+    {
+        if (this.error != null) throw new ExecutionException(this.error);
+        return this.message;
+    }
+
+    /**
+     * IRP which informs the future about its completion.
+     */
+    private final class SendIrp extends DefaultUsbIrp
+    {
+        /**
+         * Constructs a new IRP for the specified array range.
+         * 
+         * @param data
+         *            The data array.
+         * @param offset
+         *            The offset of the data to send.
+         * @param length
+         *            The number of bytes to send.
+         */
+        SendIrp(byte[] data, int offset, int length)
+        {
+            super(data, offset, length, true);
+        }
+
+        @Override
+        public void complete()
+        {
+            super.complete();
+            irpCompleted(this);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+
+/**
+ * Client for the ADB shell service. The output of the shell is streamed
+ * while it is received so the output of long-running commands can be
+ * followed without holding all of it in memory. The output can either be
+ * read as raw bytes (See {@link #getInputStream()}) or as decoded text
+ * (See {@link #getReader()}) but not both.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class ShellClient
+{
+    /** The destination of the shell service. */
+    public static final String DESTINATION = "shell:";
+
+    /** The ADB stream connected to the shell service. */
+    private final AdbStream stream;
+
+    /** The input stream. Null if not yet created. */
+    private AdbInputStream inputStream;
+
+    /** The reader. Null if not yet created. */
+    private AdbReader reader;
+
+    /**
+     * Constructs a new shell client.
+     * 
+     * @param stream
+     *            The ADB stream connected to the shell service. Must not be
+     *            null.
+     */
+    public ShellClient(AdbStream stream)
+    {
+        if (stream == null)
+            throw new IllegalArgumentException("stream must be set");
+        this.stream = stream;
+    }
+
+    /**
+     * Opens an interactive shell with the specified multiplexer.
+     * 
+     * @param multiplexer
+     *            The stream multiplexer.
+     * @return The shell client.
+     * @throws IOException
+     *             When shell service could not be opened.
+     */
+    public static ShellClient open(StreamMultiplexer multiplexer)
+        throws IOException
+    {
+        return new ShellClient(multiplexer.openStream(DESTINATION));
+    }
+
+    /**
+     * Executes the specified command with the specified multiplexer. The
+     * stream is closed by the device when the command has finished.
+     * 
+     * @param multiplexer
+     *            The stream multiplexer.
+     * @param command
+     *            The command to execute.
+     * @return The shell client.
+     * @throws IOException
+     *             When shell service could not be opened.
+     */
+    public static ShellClient exec(StreamMultiplexer multiplexer,
+        String command) throws IOException
+    {
+        return new ShellClient(multiplexer.openStream(DESTINATION + command));
+    }
+
+    /**
+     * Returns the ADB stream used by this client.
+     * 
+     * @return The ADB stream.
+     */
+    public AdbStream getStream()
+    {
+        return this.stream;
+    }
+
+    /**
+     * Returns the input stream for reading the raw shell output. The
+     * returned stream is also a byte channel.
+     * 
+     * @return The input stream.
+     * @throws IllegalStateException
+     *             When the output is already read with a reader.
+     */
+    public synchronized AdbInputStream getInputStream()
+    {
+        if (this.reader != null)
+            throw new IllegalStateException("Output is read by a reader");
+        if (this.inputStream == null)
+            this.inputStream = new AdbInputStream(this.stream);
+        return this.inputStream;
+    }
+
+    /**
+     * Returns the reader for reading the UTF-8 decoded shell output.
+     * 
+     * @return The reader.
+     * @throws IllegalStateException
+     *             When the output is already read with an input stream.
+     */
+    public synchronized AdbReader getReader()
+    {
+        if (this.inputStream != null)
+            throw new IllegalStateException("Output is read by a stream");
+        if (this.reader == null) this.reader = new AdbReader(this.stream);
+        return this.reader;
+    }
+
+    /**
+     * Reads the next line of the shell output.
+     * 
+     * @return The line without line terminator or null if the shell has
+     *         been closed.
+     * @throws IOException
+     *             When reading failed.
+     */
+    public String readLine() throws IOException
+    {
+        return getReader().readLine();
+    }
+
+    /**
+     * Sends input to the shell.
+     * 
+     * @param input
+     *            The input to send. It is encoded with UTF-8.
+     * @throws IOException
+     *             When input could not be sent.
+     */
+    public void write(String input) throws IOException
+    {
+        this.stream.write(input.getBytes(AdbReader.UTF8));
+    }
+
+    /**
+     * Closes the shell.
+     * 
+     * @throws IOException
+     *             When shell could not be closed.
+     */
+    public void close() throws IOException
+    {
+        this.stream.close();
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.usb.UsbException;
+
+/**
+ * Multiplexes many logical ADB streams over a single connected ADB device.
+ * The multiplexer allocates local stream IDs and runs a dispatcher thread
+ * which receives all messages from the device and routes them to the
+ * matching stream. While the multiplexer is running nobody else must receive
+ * messages from the device. The dispatcher thread ends when the multiplexer
+ * or the device is closed.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class StreamMultiplexer implements Runnable
+{
+    /** The logger for this class. */
+    private static final Logger LOG = Logger.getLogger(StreamMultiplexer.class
+        .getName());
+
+    /** Interval in milliseconds for retrying to stop the dispatcher. */
+    private static final long STOP_INTERVAL = 100;
+
+    /** The default number of unacknowledged writes per stream. */
+    public static final int DEFAULT_WRITE_WINDOW = 1;
+
+    /** The connected ADB device. */
+    private final AdbDevice device;
+
+    /** The maximum payload size of a single message. */
+    private final int maxData;
+
+    /** The maximum number of unacknowledged writes per stream. */
+    private volatile int writeWindow = DEFAULT_WRITE_WINDOW;
+
+    /** The open streams mapped by local ID. */
+    private final ConcurrentMap<Integer, AdbStream> streams =
+        new ConcurrentHashMap<Integer, AdbStream>();
+
+    /** The last allocated local ID. */
+    private final AtomicInteger lastLocalId = new AtomicInteger();
+
+    /** The dispatcher thread. */
+    private final Thread thread;
+
+    /** If multiplexer is running. */
+    private volatile boolean running;
+
+    /** OKAY messages for read data which are not sent yet. */
+    private final Queue<Message> pendingAcks =
+        new ConcurrentLinkedQueue<Message>();
+
+    /** Lock which is held while the pending OKAY messages are sent. */
+    private final Object ackLock = new Object();
+
+    /**
+     * Constructs a new stream multiplexer which uses the maximum payload size
+     * negotiated by the device.
+     * 
+     * @param device
+     *            The ADB device. Must already be connected.
+     */
+    public StreamMultiplexer(AdbDevice device)
+    {
+        // Null device is rejected by the other constructor
+        this(device, device == null ? 0 : device.getMaxData());
+    }
+
+    /**
+     * Constructs a new stream multiplexer.
+     * 
+     * @param device
+     *            The ADB device. Must already be connected.
+     * @param maxData
+     *            The maximum payload size of a single message. Must not be
+     *            larger than the maximum payload size negotiated by the
+     *            device.
+     */
+    public StreamMultiplexer(AdbDevice device, int maxData)
+    {
+        if (device == null)
+            throw new IllegalArgumentException("device must be set");
+        if (maxData < 1)
+            throw new IllegalArgumentException("maxData must be at least 1");
+        this.device = device;
+        this.maxData = maxData;
+        this.thread = new Thread(this, "ADB stream multiplexer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Returns the ADB device.
+     * 
+     * @return The ADB device.
+     */
+    public AdbDevice getDevice()
+    {
+        return this.device;
+    }
+
+    /**
+     * Returns the maximum payload size of a single message. Larger writes
+     * are split into multiple messages.
+     * 
+     * @return The maximum payload size.
+     */
+    public int getMaxData()
+    {
+        return this.maxData;
+    }
+
+    /**
+     * Returns the maximum number of unacknowledged writes per stream.
+     * 
+     * @return The write window.
+     */
+    public int getWriteWindow()
+    {
+        return this.writeWindow;
+    }
+
+    /**
+     * Sets the maximum number of unacknowledged writes per stream. The ADB
+     * protocol only allows a single unacknowledged write so values larger
+     * than 1 must only be used when the remote side is known to tolerate
+     * them. The window is applied to streams opened afterwards.
+     * 
+     * @param writeWindow
+     *            The write window. Must be at least 1.
+     */
+    public void setWriteWindow(int writeWindow)
+    {
+        if (writeWindow < 1)
+            throw new IllegalArgumentException(
+                "writeWindow must be at least 1");
+        this.writeWindow = writeWindow;
+    }
+
+    /**
+     * Starts the dispatcher thread. The background receiver of the device
+     * must not use {@link OverflowPolicy#DROP}.
+     */
+    public void start()
+    {
+        MessageReceiver receiver = this.device.getReceiver();
+        if (receiver != null && receiver.getPolicy() == OverflowPolicy.DROP)
+            throw new IllegalStateException(
+                "Streams can't be multiplexed with a dropping receiver");
+        this.running = true;
+        this.thread.start();
+    }
+
+    /**
+     * Checks if the multiplexer is running.
+     * 
+     * @return True if running, false if not.
+     */
+    public boolean isRunning()
+    {
+        return this.running;
+    }
+
+    /**
+     * Returns the number of open streams.
+     * 
+     * @return The number of open streams.
+     */
+    public int getStreamCount()
+    {
+        return this.streams.size();
+    }
+
+    /**
+     * Opens a new stream to the specified destination and waits until the
+     * remote side accepted it.
+     * 
+     * @param destination
+     *            The destination. For example "shell:ls" or "sync:".
+     * @return The opened stream.
+     * @throws IOException
+     *             When stream could not be opened.
+     */
+    public AdbStream openStream(String destination) throws IOException
+    {
+        if (!this.running)
+            throw new IOException("Stream multiplexer is not running");
+        // Allocate the next free positive local ID
+        AdbStream stream;
+        while (true)
+        {
+            int localId = this.lastLocalId.incrementAndGet() & 0x7fffffff;
+            if (localId == 0) continue;
+            stream = new AdbStream(this, localId, destination,
+                this.writeWindow);
+            if (this.streams.putIfAbsent(localId, stream) == null) break;
+        }
+        int localId = stream.getLocalId();
+        try
+        {
+            send(new OpenMessage(localId, destination));
+            stream.awaitOpen();
+        }
+        catch (IOException e)
+        {
+            this.streams.remove(localId);
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * Closes all open streams and stops the dispatcher thread. A pending
+     * receive is aborted for this.
+     * 
+     * @throws IOException
+     *             When a stream could not be closed.
+     */
+    public void close() throws IOException
+    {
+        this.running = false;
+        IOException error = null;
+        for (AdbStream stream: new ArrayList<AdbStream>(this.streams.values()))
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException e)
+            {
+                if (error == null) error = e;
+            }
+        }
+        stopDispatcher();
+        if (error != null) throw error;
+    }
+
+    /**
+     * Aborts pending receives until the dispatcher thread has ended.
+     */
+    private void stopDispatcher()
+    {
+        if (Thread.currentThread() == this.thread) return;
+        try
+        {
+            // Repeat aborting because the thread may have just started
+            // a new receive
+            while (this.thread.isAlive())
+            {
+                this.device.abortReceive();
+                this.thread.join(STOP_INTERVAL);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends a message to the device.
+     * 
+     * @param message
+     *            The message to send.
+     * @throws IOException
+     *             When message could not be sent.
+     */
+    void send(Message message) throws IOException
+    {
+        try
+        {
+            this.device.sendMessage(message);
+        }
+        catch (UsbException e)
+        {
+            throw new IOException("Unable to send " + message, e);
+        }
+    }
+
+    /**
+     * Acknowledges data which has been read from a stream. The OKAY message
+     * is queued and then all queued OKAY messages are sent with a single
+     * {@link AdbDevice#sendMessages(List)} call. While one thread sends, the
+     * OKAY messages of other streams pile up and are sent together by the
+     * next thread so with coalescing enabled they share a USB transfer.
+     * 
+     * @param okay
+     *            The OKAY message to send.
+     * @throws IOException
+     *             When messages could not be sent.
+     */
+    void acknowledge(Message okay) throws IOException
+    {
+        this.pendingAcks.add(okay);
+        synchronized (this.ackLock)
+        {
+            List<Message> acks = new ArrayList<Message>();
+            Message ack;
+            while ((ack = this.pendingAcks.poll()) != null)
+                acks.add(ack);
+            if (acks.isEmpty()) return;
+            try
+            {
+                this.device.sendMessages(acks);
+            }
+            catch (UsbException e)
+            {
+                throw new IOException("Unable to send acknowledgements", e);
+            }
+        }
+    }
+
+    /**
+     * Removes the specified stream.
+     * 
+     * @param stream
+     *            The stream to remove.
+     */
+    void unregister(AdbStream stream)
+    {
+        this.streams.remove(stream.getLocalId(), stream);
+    }
+
+    @Override
+    public void run()
+    {
+        IOException error = null;
+        try
+        {
+            while (this.running)
+                dispatch(this.device.receiveMessage());
+        }
+        catch (Exception e)
+        {
+            if (this.running)
+                error = new IOException("Stream multiplexer failed", e);
+        }
+        finally
+        {
+            this.running = false;
+            if (error == null) error = new IOException(
+                "Stream multiplexer stopped");
+            for (AdbStream stream: this.streams.values())
+            {
+                this.streams.remove(stream.getLocalId());
+                stream.failed(error);
+            }
+        }
+    }
+
+    /**
+     * Routes the specified message to the matching stream. Received writes
+     * are acknowledged by the stream when they are read (See
+     * {@link AdbStream#read()}) so the device doesn't send more data than
+     * the consumer takes.
+     * 
+     * @param message
+     *            The received message.
+     */
+    private void dispatch(Message message)
+    {
+        // The second argument of all stream messages sent by the remote side
+        // is the local ID of our stream
+        int localId = message.getHeader().getArg1();
+        AdbStream stream = this.streams.get(localId);
+        if (stream == null)
+        {
+            LOG.log(Level.FINE, "Ignoring message for unknown stream: {0}",
+                message);
+            message.release();
+            return;
+        }
+        if (message instanceof WriteMessage)
+        {
+            // The stream releases the message when it has been read
+            stream.dataReceived(message);
+            return;
+        }
+        if (message instanceof OkayMessage)
+        {
+            stream.okayReceived(((OkayMessage) message).getRemoteId());
+        }
+        else if (message instanceof CloseMessage)
+        {
+            this.streams.remove(localId, stream);
+            stream.closeReceived();
+        }
+        else
+        {
+            LOG.warning("Ignoring unexpected message: " + message);
+        }
+        message.release();
+    }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client for the ADB file synchronization service ("sync:"). Files are
+ * streamed from and to file channels in chunks so the memory usage doesn't
+ * depend on the file size. Each DATA frame sent to the device fits into a
+ * single WRITE message. A sync client is not thread-safe. Use one client per
+ * thread.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class SyncClient
+{
+    /** The sync service destination. */
+    public static final String DESTINATION = "sync:";
+
+    /** The maximum payload size of a DATA frame. */
+    public static final int MAX_DATA = 64 * 1024;
+
+    /** The maximum length of a remote path. */
+    public static final int MAX_PATH = 1024;
+
+    /** The default mode of pushed files (Regular file, rw-r--r--). */
+    public static final int DEFAULT_MODE = 0100644;
+
+    /** The mode of pushed executable files (Regular file, rwxr-xr-x). */
+    public static final int EXECUTABLE_MODE = 0100755;
+
+    /** The minimum file size for reading pushed files through mappings. */
+    public static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+    /** The size of a sync frame header. */
+    private static final int HEADER_SIZE = 8;
+
+    /** The ID of STAT requests and responses. */
+    private static final int ID_STAT = id("STAT");
+
+    /** The ID of LIST requests. */
+    private static final int ID_LIST = id("LIST");
+
+    /** The ID of directory entry responses. */
+    private static final int ID_DENT = id("DENT");
+
+    /** The ID of SEND requests. */
+    private static final int ID_SEND = id("SEND");
+
+    /** The ID of RECV requests. */
+    private static final int ID_RECV = id("RECV");
+
+    /** The ID of DATA frames. */
+    private static final int ID_DATA = id("DATA");
+
+    /** The ID of DONE frames. */
+    private static final int ID_DONE = id("DONE");
+
+    /** The ID of OKAY responses. */
+    private static final int ID_OKAY = id("OKAY");
+
+    /** The ID of FAIL responses. */
+    private static final int ID_FAIL = id("FAIL");
+
+    /** The ID of QUIT requests. */
+    private static final int ID_QUIT = id("QUIT");
+
+    /** The charset of paths and messages. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The ADB stream connected to the sync service. */
+    private final AdbStream stream;
+
+    /** The input stream reading the responses. */
+    private final AdbInputStream in;
+
+    /** The buffer for outgoing frames. */
+    private final ByteBuffer frame;
+
+    /** The maximum payload of outgoing DATA frames. */
+    private final int frameData;
+
+    /** The buffer for incoming frame headers (DENT has the largest). */
+    private final byte[] header = new byte[20];
+
+    /** The buffer for incoming data. */
+    private byte[] data;
+
+    /**
+     * Constructs a new sync client.
+     * 
+     * @param stream
+     *            An open ADB stream connected to {@link #DESTINATION}.
+     * @param maxData
+     *            The maximum payload size of ADB messages. DATA frames are
+     *            sized so a frame including its header fits into one message.
+     */
+    public SyncClient(AdbStream stream, int maxData)
+    {
+        if (stream == null)
+            throw new IllegalArgumentException("stream must be set");
+        if (maxData <= HEADER_SIZE)
+            throw new IllegalArgumentException("maxData is too small");
+        this.stream = stream;
+        this.in = new AdbInputStream(stream);
+        this.frameData = Math.min(maxData - HEADER_SIZE, MAX_DATA);
+
+        // The frame buffer must also be large enough for SEND requests
+        // which contain the path and the mode
+        int size = Math.max(HEADER_SIZE + this.frameData,
+            HEADER_SIZE + MAX_PATH + 16);
+        this.frame = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens the sync service with the specified multiplexer.
+     * 
+     * @param multiplexer
+     *            The stream multiplexer.
+     * @return The sync client.
+     * @throws IOException
+     *             When sync service could not be opened.
+     */
+    public static SyncClient open(StreamMultiplexer multiplexer)
+        throws IOException
+    {
+        return new SyncClient(multiplexer.openStream(DESTINATION),
+            multiplexer.getMaxData());
+    }
+
+    /**
+     * Returns the ADB stream used by this client.
+     * 
+     * @return The ADB stream.
+     */
+    public AdbStream getStream()
+    {
+        return this.stream;
+    }
+
+    /**
+     * Converts a four character frame ID into its little endian integer
+     * value.
+     * 
+     * @param id
+     *            The frame ID.
+     * @return The integer value.
+     */
+    private static int id(String id)
+    {
+        return id.charAt(0) | (id.charAt(1) << 8) | (id.charAt(2) << 16)
+            | (id.charAt(3) << 24);
+    }
+
+    /**
+     * Returns the four character string of a frame ID.
+     * 
+     * @param id
+     *            The integer value of the frame ID.
+     * @return The frame ID.
+     */
+    private static String idString(int id)
+    {
+        return new String(new char[] { (char) (id & 0xff),
+            (char) ((id >> 8) & 0xff), (char) ((id >> 16) & 0xff),
+            (char) ((id >>> 24) & 0xff) });
+    }
+
+    /**
+     * Reads a little endian integer from the header buffer.
+     * 
+     * @param offset
+     *            The offset in the header buffer.
+     * @return The integer.
+     */
+    private int getInt(int offset)
+    {
+        byte[] b = this.header;
+        return (b[offset] & 0xff) | ((b[offset + 1] & 0xff) << 8)
+            | ((b[offset + 2] & 0xff) << 16) | ((b[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Sends a request frame.
+     * 
+     * @param id
+     *            The frame ID.
+     * @param argument
+     *            The argument (Usually a path).
+     * @throws IOException
+     *             When request could not be sent.
+     */
+    private void sendRequest(int id, String argument) throws IOException
+    {
+        byte[] bytes = argument.getBytes(UTF8);
+        if (bytes.length > MAX_PATH)
+            throw new IOException("Path too long: " + argument);
+        this.frame.clear();
+        this.frame.putInt(id).putInt(bytes.length).put(bytes).flip();
+        this.stream.write(this.frame);
+    }
+
+    /**
+     * Sends a frame without payload.
+     * 
+     * @param id
+     *            The frame ID.
+     * @param value
+     *            The value sent in the length field.
+     * @throws IOException
+     *             When frame could not be sent.
+     */
+    private void sendFrame(int id, int value) throws IOException
+    {
+        this.frame.clear();
+        this.frame.putInt(id).putInt(value).flip();
+        this.stream.write(this.frame);
+    }
+
+    /**
+     * Reads a frame header into the header buffer.
+     * 
+     * @param size
+     *            The number of header bytes to read.
+     * @return The frame ID.
+     * @throws IOException
+     *             When header could not be read.
+     */
+    private int readHeader(int size) throws IOException
+    {
+        this.in.readFully(this.header, 0, size);
+        return getInt(0);
+    }
+
+    /**
+     * Reads the rest of a frame header whose first 8 bytes have already
+     * been read with {@link #readHeader(int)}.
+     * 
+     * @param size
+     *            The total size of the frame header.
+     * @throws IOException
+     *             When header could not be read.
+     */
+    private void readHeaderRest(int size) throws IOException
+    {
+        this.in.readFully(this.header, 8, size - 8);
+    }
+
+    /**
+     * Reads the message of a FAIL response and throws it as an exception.
+     * 
+     * @param length
+     *            The message length.
+     * @return Nothing. Always throws an exception.
+     * @throws IOException
+     *             Always.
+     */
+    private IOException fail(int length) throws IOException
+    {
+        byte[] message = new byte[length];
+        this.in.readFully(message, 0, length);
+        throw new IOException("Sync failed: " + new String(message, UTF8));
+    }
+
+    /**
+     * Throws an exception for an unexpected frame ID.
+     * 
+     * @param id
+     *            The received frame ID.
+     * @return Nothing. Always throws an exception.
+     * @throws IOException
+     *             Always.
+     */
+    private static IOException unexpected(int id) throws IOException
+    {
+        throw new IOException("Unexpected sync response: " + idString(id));
+    }
+
+    /**
+     * Returns information about the specified remote file.
+     * 
+     * @param path
+     *            The remote path.
+     * @return The file information. {@link RemoteFile#exists()} returns
+     *         false when the file doesn't exist.
+     * @throws IOException
+     *             When request failed.
+     */
+    public RemoteFile stat(String path) throws IOException
+    {
+        sendRequest(ID_STAT, path);
+
+        // Read only the common part first because a FAIL response has a
+        // shorter header followed by the message
+        int id = readHeader(8);
+        if (id == ID_FAIL) throw fail(getInt(4));
+        if (id != ID_STAT) throw unexpected(id);
+        readHeaderRest(16);
+        return new RemoteFile(null, getInt(4), getInt(8) & 0xffffffffL,
+            getInt(12) & 0xffffffffL);
+    }
+
+    /**
+     * Lists the specified remote directory. The entries "." and ".." are
+     * omitted.
+     * 
+     * @param path
+     *            The remote directory path.
+     * @return The directory entries.
+     * @throws IOException
+     *             When request failed.
+     */
+    public List<RemoteFile> list(String path) throws IOException
+    {
+        sendRequest(ID_LIST, path);
+        List<RemoteFile> files = new ArrayList<RemoteFile>();
+        while (true)
+        {
+            int id = readHeader(8);
+            if (id == ID_FAIL) throw fail(getInt(4));
+            if (id != ID_DENT && id != ID_DONE) throw unexpected(id);
+
+            // DONE is sent as a complete directory entry frame
+            readHeaderRest(20);
+            if (id == ID_DONE) return files;
+            int nameLength = getInt(16);
+            byte[] name = new byte[nameLength];
+            this.in.readFully(name, 0, nameLength);
+            String fileName = new String(name, UTF8);
+            if (fileName.equals(".") || fileName.equals("..")) continue;
+            files.add(new RemoteFile(fileName, getInt(4),
+                getInt(8) & 0xffffffffL, getInt(12) & 0xffffffffL));
+        }
+    }
+
+    /**
+     * Pushes a local file to the device. The mode is
+     * {@link #EXECUTABLE_MODE} for executable files and
+     * {@link #DEFAULT_MODE} otherwise. The modification time of the local
+     * file is preserved. Files of at least {@link #MAPPING_THRESHOLD} bytes
+     * are read through memory mappings (See {@link MappedFileSource}).
+     * 
+     * @param file
+     *            The local file.
+     * @param remotePath
+     *            The remote path.
+     * @return The number of pushed bytes.
+     * @throws IOException
+     *             When push failed.
+     */
+    public long push(File file, String remotePath) throws IOException
+    {
+        return push(file, remotePath, null);
+    }
+
+    /**
+     * Pushes a local file to the device like {@link #push(File, String)}
+     * and optionally feeds the pushed content into a message digest.
+     * 
+     * @param file
+     *            The local file.
+     * @param remotePath
+     *            The remote path.
+     * @param digest
+     *            The message digest to update with the pushed content. Null
+     *            for none.
+     * @return The number of pushed bytes.
+     * @throws IOException
+     *             When push failed.
+     */
+    private long push(File file, String remotePath, MessageDigest digest)
+        throws IOException
+    {
+        FileInputStream input = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = input.getChannel();
+            ReadableByteChannel source = channel;
+            if (channel.size() >= MAPPING_THRESHOLD)
+                source = new MappedFileSource(channel);
+            if (digest != null) source = new DigestChannel(source, digest);
+            return push(source, remotePath,
+                file.canExecute() ? EXECUTABLE_MODE : DEFAULT_MODE,
+                (int) (file.lastModified() / 1000));
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Pushes a local file to the device unless the same content is already
+     * there. The remote file is checked with a STAT request first and
+     * compared with the entry of the push cache. Only when size and
+     * modification time still match the last push the local file is hashed.
+     * If its hash equals the pushed hash then the file is skipped.
+     * Otherwise the hash is calculated while pushing so the file is read
+     * only once. The cache is updated after a successful push but not
+     * saved.
+     * 
+     * @param file
+     *            The local file.
+     * @param remotePath
+     *            The remote path.
+     * @param cache
+     *            The push cache of the device.
+     * @return The number of pushed bytes or -1 if the file was skipped.
+     * @throws IOException
+     *             When push failed.
+     */
+    public long pushIfChanged(File file, String remotePath, PushCache cache)
+        throws IOException
+    {
+        if (cache.matches(remotePath, stat(remotePath), file)) return -1;
+        cache.remove(remotePath);
+        long length = file.length();
+        long lastModified = file.lastModified();
+        MessageDigest digest = PushCache.createDigest();
+        long bytes = push(file, remotePath, digest);
+        String hash = PushCache.toHash(digest);
+        if (bytes == length) cache.putHash(file, length, lastModified, hash);
+        cache.put(remotePath, bytes, lastModified / 1000, hash);
+        return bytes;
+    }
+
+    /**
+     * Pushes the data of the specified channel until its end to the device.
+     * The data is read directly into the buffer of the outgoing message so
+     * each DATA frame is copied only once on the host.
+     * 
+     * @param source
+     *            The channel to read the data from. Use a
+     *            {@link MappedFileSource} for large files.
+     * @param remotePath
+     *            The remote path.
+     * @param mode
+     *            The file mode.
+     * @param time
+     *            The modification time in seconds since the epoch.
+     * @return The number of pushed bytes.
+     * @throws IOException
+     *             When push failed.
+     */
+    public long push(ReadableByteChannel source, String remotePath, int mode,
+        int time) throws IOException
+    {
+        sendRequest(ID_SEND, remotePath + "," + mode);
+        ByteBuffer frame = this.frame;
+        long total = 0;
+        boolean eof = false;
+        while (!eof)
+        {
+            frame.clear();
+            frame.limit(HEADER_SIZE + this.frameData);
+            frame.position(HEADER_SIZE);
+            while (frame.hasRemaining())
+            {
+                if (source.read(frame) < 0)
+                {
+                    eof = true;
+                    break;
+                }
+            }
+            int size = frame.position() - HEADER_SIZE;
+            if (size == 0) break;
+            frame.putInt(0, ID_DATA).putInt(4, size).flip();
+            this.stream.write(frame);
+            total += size;
+        }
+        sendFrame(ID_DONE, time);
+        int id = readHeader(HEADER_SIZE);
+        if (id == ID_FAIL) throw fail(getInt(4));
+        if (id != ID_OKAY) throw unexpected(id);
+        return total;
+    }
+
+    /**
+     * Pulls a remote file from the device into a local file.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param file
+     *            The local file. Overwritten if it exists.
+     * @return The number of pulled bytes.
+     * @throws IOException
+     *             When pull failed.
+     */
+    public long pull(String remotePath, File file) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream(file);
+        try
+        {
+            return pull(remotePath, output.getChannel());
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     * Pulls a remote file from the device and writes it to the specified
+     * channel.
+     * 
+     * @param remotePath
+     *            The remote path.
+     * @param target
+     *            The channel to write the data to.
+     * @return The number of pulled bytes.
+     * @throws IOException
+     *             When pull failed.
+     */
+    public long pull(String remotePath, FileChannel target) throws IOException
+    {
+        sendRequest(ID_RECV, remotePath);
+        if (this.data == null) this.data = new byte[MAX_DATA];
+        ByteBuffer buffer = ByteBuffer.wrap(this.data);
+        long total = 0;
+        while (true)
+        {
+            int id = readHeader(HEADER_SIZE);
+            int length = getInt(4);
+            if (id == ID_DONE) return total;
+            if (id == ID_FAIL) throw fail(length);
+            if (id != ID_DATA) throw unexpected(id);
+            if (length < 0 || length > MAX_DATA)
+                throw new IOException("Invalid sync data length: " + length);
+            while (length > 0)
+            {
+                int read = this.in.read(this.data, 0, length);
+                if (read < 0) throw new IOException("Unexpected end of sync");
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining())
+                    target.write(buffer);
+                length -= read;
+                total += read;
+            }
+        }
+    }
+
+    /**
+     * Ends the sync session and closes the stream.
+     * 
+     * @throws IOException
+     *             When stream could not be closed.
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if (this.stream.isOpen()) sendFrame(ID_QUIT, 0);
+        }
+        finally
+        {
+            this.stream.close();
+        }
+    }
+
+    /**
+     * Readable channel which feeds all data read from another channel into a
+     * message digest.
+     */
+    private static final class DigestChannel implements ReadableByteChannel
+    {
+        /** The channel to read from. */
+        private final ReadableByteChannel source;
+
+        /** The message digest to update. */
+        private final MessageDigest digest;
+
+        /**
+         * Constructs a new digest channel.
+         * 
+         * @param source
+         *            The channel to read from.
+         * @param digest
+         *            The message digest to update.
+         */
+        DigestChannel(ReadableByteChannel source, MessageDigest digest)
+        {
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException
+        {
+            int start = target.position();
+            int read = this.source.read(target);
+            if (read > 0)
+            {
+                ByteBuffer data = target.duplicate();
+                data.position(start).limit(start + read);
+                this.digest.update(data);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return this.source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.source.close();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Cipher;
+
+/**
+ * Signs ADB authentication tokens with a cached private key. The key file is
+ * only read again when its modification time or size changes. Initialized
+ * ciphers are kept in a pool so they can be reused by multiple threads
+ * without initializing a new cipher for each signature.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class TokenSigner
+{
+    /** The cipher transformation used for signing. */
+    private static final String TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+
+    /** Header for token signing. */
+    private static final byte[] HEADER_OID = new byte[] {
+        0x30, 0x21, 0x30, 0x09, 0x06, 0x05, 0x2b, 0x0e, 0x03, 0x02, 0x1a, 0x05,
+        0x00, 0x04, 0x14
+    };
+
+    /** The private key file. */
+    private final File file;
+
+    /** The currently loaded key. Null if not loaded yet. */
+    private volatile LoadedKey loadedKey;
+
+    /**
+     * Constructs a new token signer.
+     * 
+     * @param file
+     *            The private key file.
+     */
+    public TokenSigner(File file)
+    {
+        if (file == null)
+            throw new IllegalArgumentException("file must be set");
+        this.file = file;
+    }
+
+    /**
+     * Returns the private key file.
+     * 
+     * @return The private key file.
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Returns the private key. The key is loaded from the file if this
+     * hasn't been done yet or when the file has been changed since the last
+     * time it was loaded.
+     * 
+     * @return The private key.
+     * @throws IOException
+     *             When key file could not be read.
+     * @throws GeneralSecurityException
+     *             When private key could not be parsed.
+     */
+    public RSAPrivateKey getPrivateKey() throws IOException,
+        GeneralSecurityException
+    {
+        return getLoadedKey().key;
+    }
+
+    /**
+     * Returns the loaded key and reloads it if the file has been changed.
+     * 
+     * @return The loaded key.
+     * @throws IOException
+     *             When key file could not be read.
+     * @throws GeneralSecurityException
+     *             When private key could not be parsed.
+     */
+    private LoadedKey getLoadedKey() throws IOException,
+        GeneralSecurityException
+    {
+        LoadedKey key = this.loadedKey;
+        long modified = this.file.lastModified();
+        long length = this.file.length();
+        if (key != null && key.modified == modified && key.length == length)
+            return key;
+        synchronized (this)
+        {
+            key = this.loadedKey;
+            if (key == null || key.modified != modified
+                || key.length != length)
+            {
+                key = new LoadedKey(Adb.readPrivateKey(this.file), modified,
+                    length);
+                this.loadedKey = key;
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Signs the specified token and returns the signature. This method can
+     * be called by multiple threads at the same time.
+     * 
+     * @param token
+     *            The token to sign.
+     * @return The signature.
+     * @throws IOException
+     *             When private key could not be read
+     * @throws GeneralSecurityException
+     *             When private key could not be parsed or token could not be
+     *             signed.
+     */
+    public byte[] sign(byte[] token) throws IOException,
+        GeneralSecurityException
+    {
+        LoadedKey key = getLoadedKey();
+        Cipher cipher = key.ciphers.poll();
+        if (cipher == null)
+        {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key.key);
+        }
+        cipher.update(HEADER_OID);
+        byte[] signature = cipher.doFinal(token);
+
+        // doFinal resets the cipher so it can be reused for the same key
+        key.ciphers.offer(cipher);
+        return signature;
+    }
+
+    /**
+     * A loaded private key together with the file state it was loaded from
+     * and the pool of ciphers initialized with it.
+     */
+    private static final class LoadedKey
+    {
+        /** The private key. */
+        final RSAPrivateKey key;
+
+        /** The modification time of the key file. */
+        final long modified;
+
+        /** The size of the key file. */
+        final long length;
+
+        /** The initialized ciphers which are currently not in use. */
+        final Queue<Cipher> ciphers = new ConcurrentLinkedQueue<Cipher>();
+
+        /**
+         * Constructs a new loaded key.
+         * 
+         * @param key
+         *            The private key.
+         * @param modified
+         *            The modification time of the key file.
+         * @param length
+         *            The size of the key file.
+         */
+        LoadedKey(RSAPrivateKey key, long modified, long length)
+        {
+            this.key = key;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+}
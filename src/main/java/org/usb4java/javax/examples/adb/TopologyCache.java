@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.usb.UsbDevice;
+import javax.usb.UsbPort;
+
+/**
+ * Caches which USB devices are ADB devices. The decision is stored per port
+ * path (The port numbers from the root hub down to the device separated by
+ * dots) together with the probed USB device. As long as the same device is
+ * attached to the same port its interfaces and endpoints are not inspected
+ * again. Devices which are not cached yet are probed in parallel. Entries of
+ * ports which no longer have a device attached are dropped on the next
+ * lookup.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class TopologyCache
+{
+    /** The cached entries mapped by port path. */
+    private final Map<String, Entry> entries =
+        new ConcurrentHashMap<String, Entry>();
+
+    /** The number of threads used for probing devices. */
+    private final int threads;
+
+    /** The number of cache hits. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of cache misses. */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The executor for probing devices. Created on demand. */
+    private ExecutorService executor;
+
+    /**
+     * Constructs a new topology cache which probes devices with as many
+     * threads as processors are available.
+     */
+    public TopologyCache()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new topology cache.
+     * 
+     * @param threads
+     *            The number of threads used for probing devices.
+     */
+    public TopologyCache(int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the port path of the specified USB device. This is the list of
+     * port numbers from the root hub down to the device separated by dots.
+     * 
+     * @param device
+     *            The USB device.
+     * @return The port path. Empty for the root hub.
+     */
+    public static String getPortPath(UsbDevice device)
+    {
+        StringBuilder builder = new StringBuilder();
+        UsbPort port = device.getParentUsbPort();
+        while (port != null)
+        {
+            if (builder.length() > 0) builder.insert(0, '.');
+            builder.insert(0, port.getPortNumber() & 0xff);
+            port = port.getUsbHub().getParentUsbPort();
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the ADB devices from the specified map of USB devices. The
+     * devices are returned in the iteration order of the map.
+     * 
+     * @param devices
+     *            The attached USB devices mapped by port path. Cached
+     *            entries of other port paths are dropped.
+     * @param vendorIds
+     *            The vendor IDs of the devices to return. Null for all known
+     *            ADB vendors.
+     * @return The found ADB devices.
+     */
+    public List<AdbDevice> findDevices(Map<String, UsbDevice> devices,
+        short[] vendorIds)
+    {
+        return findDevices(new ArrayList<String>(devices.keySet()),
+            new ArrayList<UsbDevice>(devices.values()), vendorIds);
+    }
+
+    /**
+     * Returns the ADB devices found on the specified USB device. The cached
+     * result is used when the same device has already been probed on the
+     * same port. The vendor of the device is not checked.
+     * 
+     * @param portPath
+     *            The port path of the USB device.
+     * @param device
+     *            The USB device.
+     * @return The ADB devices. Empty if the USB device has no ADB interface.
+     */
+    public List<AdbDevice> getAdbDevices(String portPath, UsbDevice device)
+    {
+        Entry entry = this.entries.get(portPath);
+        if (entry != null && entry.device == device)
+        {
+            this.hitCount.incrementAndGet();
+        }
+        else
+        {
+            this.missCount.incrementAndGet();
+            entry = new Entry(device, Adb.probeDevice(device));
+            this.entries.put(portPath, entry);
+        }
+        return copy(entry);
+    }
+
+    /**
+     * Returns the ADB devices from the specified USB devices.
+     * 
+     * @param paths
+     *            The port paths of the USB devices.
+     * @param devices
+     *            The USB devices.
+     * @param vendorIds
+     *            The vendor IDs of the devices to return. Null for all known
+     *            ADB vendors.
+     * @return The found ADB devices.
+     */
+    private List<AdbDevice> findDevices(List<String> paths,
+        List<UsbDevice> devices, short[] vendorIds)
+    {
+        // Look up cached entries and collect the devices to probe
+        int count = devices.size();
+        Entry[] found = new Entry[count];
+        List<Integer> misses = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            UsbDevice device = devices.get(i);
+            if (device.isUsbHub()) continue;
+            short vendorId = device.getUsbDeviceDescriptor().idVendor();
+            if (!Adb.matchesVendor(vendorId, vendorIds)) continue;
+            Entry entry = this.entries.get(paths.get(i));
+            if (entry != null && entry.device == device)
+            {
+                found[i] = entry;
+                this.hitCount.incrementAndGet();
+            }
+            else
+            {
+                misses.add(i);
+                this.missCount.incrementAndGet();
+            }
+        }
+        probe(devices, misses, found);
+
+        // Store new entries and drop entries of detached devices
+        for (int index: misses)
+            this.entries.put(paths.get(index), found[index]);
+        Set<String> attached = new HashSet<String>(paths);
+        this.entries.keySet().retainAll(attached);
+
+        List<AdbDevice> adbDevices = new ArrayList<AdbDevice>();
+        for (Entry entry: found)
+            if (entry != null) adbDevices.addAll(copy(entry));
+        return adbDevices;
+    }
+
+    /**
+     * Creates new ADB devices from the prototypes of the specified entry.
+     * 
+     * @param entry
+     *            The cache entry.
+     * @return The new ADB devices.
+     */
+    private static List<AdbDevice> copy(Entry entry)
+    {
+        List<AdbDevice> adbDevices =
+            new ArrayList<AdbDevice>(entry.adbDevices.size());
+        for (AdbDevice prototype: entry.adbDevices)
+            adbDevices.add(new AdbDevice(prototype.getUsbInterface(),
+                prototype.getInEndpoint(), prototype.getOutEndpoint()));
+        return adbDevices;
+    }
+
+    /**
+     * Probes the specified devices. More than one device is probed in
+     * parallel.
+     * 
+     * @param devices
+     *            All devices to look up.
+     * @param indices
+     *            The indices of the devices to probe.
+     * @param found
+     *            The array to store the new entries in.
+     */
+    private void probe(List<UsbDevice> devices, List<Integer> indices,
+        Entry[] found)
+    {
+        if (indices.size() == 1)
+        {
+            int index = indices.get(0);
+            UsbDevice device = devices.get(index);
+            found[index] = new Entry(device, Adb.probeDevice(device));
+            return;
+        }
+        if (indices.isEmpty()) return;
+        List<Callable<Entry>> tasks =
+            new ArrayList<Callable<Entry>>(indices.size());
+        for (int index: indices)
+        {
+            final UsbDevice device = devices.get(index);
+            tasks.add(new Callable<Entry>()
+            {
+                @Override
+                public Entry call()
+                {
+                    return new Entry(device, Adb.probeDevice(device));
+                }
+            });
+        }
+        try
+        {
+            List<Future<Entry>> futures = getExecutor().invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++)
+                found[indices.get(i)] = futures.get(i).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while probing", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the executor for probing devices. The executor uses daemon
+     * threads so it doesn't keep the JVM alive.
+     * 
+     * @return The executor.
+     */
+    private synchronized ExecutorService getExecutor()
+    {
+        if (this.executor == null)
+        {
+            this.executor = Executors.newFixedThreadPool(this.threads,
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable,
+                            "usb4java-topology-probe");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return this.executor;
+    }
+
+    /**
+     * Returns the number of cached devices.
+     * 
+     * @return The number of cached devices.
+     */
+    public int size()
+    {
+        return this.entries.size();
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the number of devices which were found in the cache.
+     * 
+     * @return The number of cache hits.
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of devices which had to be probed.
+     * 
+     * @return The number of cache misses.
+     */
+    public long getMissCount()
+    {
+        return this.missCount.get();
+    }
+
+    /**
+     * A cached probe result.
+     */
+    private static final class Entry
+    {
+        /** The probed USB device. */
+        final UsbDevice device;
+
+        /** The ADB devices found on the USB device. */
+        final List<AdbDevice> adbDevices;
+
+        /**
+         * Constructs a new entry.
+         * 
+         * @param device
+         *            The probed USB device.
+         * @param adbDevices
+         *            The ADB devices found on the USB device.
+         */
+        Entry(UsbDevice device, List<AdbDevice> adbDevices)
+        {
+            this.device = device;
+            this.adbDevices = adbDevices;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of all transfers of a {@link TransferScheduler} run.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class TransferReport
+{
+    /** The results of the single transfers in the order they were added. */
+    private final List<TransferResult> results;
+
+    /** The total time of the run in nanoseconds. */
+    private final long time;
+
+    /**
+     * Constructs a new transfer report.
+     * 
+     * @param results
+     *            The results of the single transfers.
+     * @param time
+     *            The total time of the run in nanoseconds.
+     */
+    TransferReport(List<TransferResult> results, long time)
+    {
+        this.results = Collections.unmodifiableList(results);
+        this.time = time;
+    }
+
+    /**
+     * Returns the results of the single transfers.
+     * 
+     * @return The transfer results in the order the files were added.
+     */
+    public List<TransferResult> getResults()
+    {
+        return this.results;
+    }
+
+    /**
+     * Returns the total number of transferred bytes.
+     * 
+     * @return The total number of transferred bytes.
+     */
+    public long getBytes()
+    {
+        long bytes = 0;
+        for (TransferResult result: this.results)
+            bytes += result.getBytes();
+        return bytes;
+    }
+
+    /**
+     * Returns the number of failed transfers.
+     * 
+     * @return The number of failed transfers.
+     */
+    public int getFailedCount()
+    {
+        int failed = 0;
+        for (TransferResult result: this.results)
+            if (!result.isSuccess()) failed++;
+        return failed;
+    }
+
+    /**
+     * Returns the number of files which were skipped because they were
+     * already on the device.
+     * 
+     * @return The number of skipped files.
+     */
+    public int getSkippedCount()
+    {
+        int skipped = 0;
+        for (TransferResult result: this.results)
+            if (result.isSkipped()) skipped++;
+        return skipped;
+    }
+
+    /**
+     * Returns the total time of the run.
+     * 
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The total time.
+     */
+    public long getTime(TimeUnit unit)
+    {
+        return unit.convert(this.time, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the aggregate throughput of all transfers.
+     * 
+     * @return The throughput in bytes per second.
+     */
+    public double getThroughput()
+    {
+        return TransferResult.throughput(getBytes(), this.time);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "%d files, %d skipped, %d failed, %d bytes in %d ms (%.1f KB/s)",
+            this.results.size(), getSkippedCount(), getFailedCount(),
+            getBytes(),
+            getTime(TimeUnit.MILLISECONDS), getThroughput() / 1024);
+    }
+}
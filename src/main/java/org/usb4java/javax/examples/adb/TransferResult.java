@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a single file transfer of a {@link TransferScheduler}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class TransferResult
+{
+    /** The local file. */
+    private final File file;
+
+    /** The remote path. */
+    private final String remotePath;
+
+    /** The number of transferred bytes. */
+    private final long bytes;
+
+    /** The transfer time in nanoseconds. */
+    private final long time;
+
+    /** The error which occurred. Null if none. */
+    private final Exception error;
+
+    /** If the file was skipped because it is already on the device. */
+    private final boolean skipped;
+
+    /**
+     * Constructs a new transfer result.
+     * 
+     * @param file
+     *            The local file.
+     * @param remotePath
+     *            The remote path.
+     * @param bytes
+     *            The number of transferred bytes.
+     * @param time
+     *            The transfer time in nanoseconds.
+     * @param error
+     *            The error which occurred. Null if none.
+     * @param skipped
+     *            If the file was skipped because it is already on the
+     *            device.
+     */
+    TransferResult(File file, String remotePath, long bytes, long time,
+        Exception error, boolean skipped)
+    {
+        this.file = file;
+        this.remotePath = remotePath;
+        this.bytes = bytes;
+        this.time = time;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Returns the local file.
+     * 
+     * @return The local file.
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Returns the remote path.
+     * 
+     * @return The remote path.
+     */
+    public String getRemotePath()
+    {
+        return this.remotePath;
+    }
+
+    /**
+     * Returns the number of transferred bytes.
+     * 
+     * @return The number of transferred bytes.
+     */
+    public long getBytes()
+    {
+        return this.bytes;
+    }
+
+    /**
+     * Returns the transfer time.
+     * 
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The transfer time.
+     */
+    public long getTime(TimeUnit unit)
+    {
+        return unit.convert(this.time, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the throughput of the transfer.
+     * 
+     * @return The throughput in bytes per second.
+     */
+    public double getThroughput()
+    {
+        return throughput(this.bytes, this.time);
+    }
+
+    /**
+     * Returns the error which occurred.
+     * 
+     * @return The error or null if the transfer succeeded.
+     */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * Checks if the transfer succeeded.
+     * 
+     * @return True if succeeded, false if failed.
+     */
+    public boolean isSuccess()
+    {
+        return this.error == null;
+    }
+
+    /**
+     * Checks if the file was skipped because the same content is already on
+     * the device.
+     * 
+     * @return True if skipped, false if transferred or failed.
+     */
+    public boolean isSkipped()
+    {
+        return this.skipped;
+    }
+
+    /**
+     * Calculates a throughput.
+     * 
+     * @param bytes
+     *            The number of bytes.
+     * @param nanos
+     *            The time in nanoseconds.
+     * @return The throughput in bytes per second.
+     */
+    static double throughput(long bytes, long nanos)
+    {
+        return nanos <= 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (!isSuccess())
+            return String.format("%s -> %s failed: %s", this.file,
+                this.remotePath, this.error);
+        if (this.skipped)
+            return String.format("%s -> %s: unchanged", this.file,
+                this.remotePath);
+        return String.format("%s -> %s: %d bytes in %d ms (%.1f KB/s)",
+            this.file, this.remotePath, this.bytes,
+            getTime(TimeUnit.MILLISECONDS), getThroughput() / 1024);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes many files to a single device over several sync sessions in
+ * parallel. Each worker opens one sync session and keeps it open for all
+ * the files it transfers so small files don't pay for opening and closing a
+ * stream each. Files are transferred from the largest to the smallest so
+ * the large transfers start early and the small files fill the remaining
+ * gaps at the end.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class TransferScheduler
+{
+    /** The logger for this class. */
+    private static final Logger LOG = Logger.getLogger(TransferScheduler.class
+        .getName());
+
+    /** The default number of parallel sync sessions. */
+    public static final int DEFAULT_SESSIONS = 4;
+
+    /** The multiplexer used for opening sync sessions. */
+    private final StreamMultiplexer multiplexer;
+
+    /** The number of parallel sync sessions. */
+    private final int sessions;
+
+    /** The push cache for skipping unchanged files. Null if disabled. */
+    private volatile PushCache pushCache;
+
+    /** The queued transfers in the order they were added. */
+    private final List<Transfer> transfers = new ArrayList<Transfer>();
+
+    /**
+     * Constructs a new transfer scheduler with the default number of
+     * sessions.
+     * 
+     * @param multiplexer
+     *            The started multiplexer of the device.
+     */
+    public TransferScheduler(StreamMultiplexer multiplexer)
+    {
+        this(multiplexer, DEFAULT_SESSIONS);
+    }
+
+    /**
+     * Constructs a new transfer scheduler.
+     * 
+     * @param multiplexer
+     *            The started multiplexer of the device.
+     * @param sessions
+     *            The maximum number of parallel sync sessions.
+     */
+    public TransferScheduler(StreamMultiplexer multiplexer, int sessions)
+    {
+        if (multiplexer == null)
+            throw new IllegalArgumentException("multiplexer must be set");
+        if (sessions < 1)
+            throw new IllegalArgumentException("sessions must be at least 1");
+        this.multiplexer = multiplexer;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Returns the push cache used for skipping unchanged files.
+     * 
+     * @return The push cache or null if all files are pushed.
+     */
+    public PushCache getPushCache()
+    {
+        return this.pushCache;
+    }
+
+    /**
+     * Sets the push cache used for skipping unchanged files. The cache is
+     * saved at the end of each run.
+     * 
+     * @param pushCache
+     *            The push cache of the device. Null to push all files.
+     */
+    public void setPushCache(PushCache pushCache)
+    {
+        this.pushCache = pushCache;
+    }
+
+    /**
+     * Queues a file for pushing.
+     * 
+     * @param file
+     *            The local file.
+     * @param remotePath
+     *            The remote path.
+     */
+    public void add(File file, String remotePath)
+    {
+        this.transfers.add(new Transfer(this.transfers.size(), file,
+            remotePath));
+    }
+
+    /**
+     * Returns the number of queued files.
+     * 
+     * @return The number of queued files.
+     */
+    public int size()
+    {
+        return this.transfers.size();
+    }
+
+    /**
+     * Pushes all queued files and clears the queue. Failed transfers don't
+     * stop the run. They are reported in the returned report. The run
+     * always waits for all workers to finish. When the calling thread is
+     * interrupted meanwhile then its interrupt flag is restored afterwards.
+     * 
+     * @return The transfer report.
+     */
+    public TransferReport run()
+    {
+        final Transfer[] queue =
+            this.transfers.toArray(new Transfer[this.transfers.size()]);
+        this.transfers.clear();
+        Arrays.sort(queue, new Comparator<Transfer>()
+        {
+            @Override
+            public int compare(Transfer a, Transfer b)
+            {
+                return a.size < b.size ? 1 : a.size > b.size ? -1 : 0;
+            }
+        });
+        final TransferResult[] results = new TransferResult[queue.length];
+        final AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+        int workers = Math.min(this.sessions, queue.length);
+        List<Thread> threads = new ArrayList<Thread>(workers);
+        for (int i = 0; i < workers; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    work(queue, next, results);
+                }
+            }, "usb4java-sync-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        boolean interrupted = false;
+        for (Thread thread: threads)
+        {
+            while (thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        PushCache cache = this.pushCache;
+        if (cache != null)
+        {
+            try
+            {
+                cache.save();
+            }
+            catch (IOException e)
+            {
+                LOG.log(Level.WARNING, "Unable to save push cache", e);
+            }
+        }
+
+        // A worker killed by an error leaves its transfer without result
+        for (Transfer transfer: queue)
+        {
+            if (results[transfer.order] == null)
+                results[transfer.order] = new TransferResult(transfer.file,
+                    transfer.remotePath, 0, 0, new IOException(
+                        "Transfer has not been completed"), false);
+        }
+        return new TransferReport(Arrays.asList(results),
+            System.nanoTime() - start);
+    }
+
+    /**
+     * Transfers queued files until the queue is empty. A sync session is
+     * opened for the first file and reused for all following files. After a
+     * failed transfer the session is reopened because the device may have
+     * closed it.
+     * 
+     * @param queue
+     *            The sorted transfer queue.
+     * @param next
+     *            The index of the next transfer in the queue.
+     * @param results
+     *            The array to store the results in (Indexed by the order in
+     *            which the files were added).
+     */
+    private void work(Transfer[] queue, AtomicInteger next,
+        TransferResult[] results)
+    {
+        SyncClient sync = null;
+        try
+        {
+            int index;
+            while ((index = next.getAndIncrement()) < queue.length)
+            {
+                Transfer transfer = queue[index];
+                long start = System.nanoTime();
+                try
+                {
+                    if (sync == null) sync = SyncClient.open(this.multiplexer);
+                    PushCache cache = this.pushCache;
+                    long bytes = cache == null
+                        ? sync.push(transfer.file, transfer.remotePath)
+                        : sync.pushIfChanged(transfer.file,
+                            transfer.remotePath, cache);
+                    results[transfer.order] = new TransferResult(
+                        transfer.file, transfer.remotePath, Math.max(bytes, 0),
+                        System.nanoTime() - start, null, bytes < 0);
+                }
+                catch (Exception e)
+                {
+                    results[transfer.order] = new TransferResult(
+                        transfer.file, transfer.remotePath, 0,
+                        System.nanoTime() - start, e, false);
+                    close(sync);
+                    sync = null;
+                }
+            }
+        }
+        finally
+        {
+            close(sync);
+        }
+    }
+
+    /**
+     * Closes the specified sync client and ignores errors.
+     * 
+     * @param sync
+     *            The sync client to close. Null to do nothing.
+     */
+    private static void close(SyncClient sync)
+    {
+        if (sync == null) return;
+        try
+        {
+            sync.close();
+        }
+        catch (IOException e)
+        {
+            LOG.log(Level.FINE, "Unable to close sync session", e);
+        }
+    }
+
+    /**
+     * A queued transfer.
+     */
+    private static final class Transfer
+    {
+        /** The position of the transfer in the order of addition. */
+        final int order;
+
+        /** The local file. */
+        final File file;
+
+        /** The remote path. */
+        final String remotePath;
+
+        /** The file size. */
+        final long size;
+
+        /**
+         * Constructs a new transfer.
+         * 
+         * @param order
+         *            The position of the transfer in the order of addition.
+         * @param file
+         *            The local file.
+         * @param remotePath
+         *            The remote path.
+         */
+        Transfer(int order, File file, String remotePath)
+        {
+            this.order = order;
+            this.file = file;
+            this.remotePath = remotePath;
+            this.size = file.length();
+        }
+    }
+}
@@ -9,8 +9,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -170,29 +171,85 @@ public class Vendors
         0x19D2
     };
 
+    /** The number of vendor IDs stored in one word of the vendor table. */
+    private static final int WORD_BITS = 64;
+
+    /** The number of words in the vendor table (65536 / 64). */
+    private static final int TABLE_SIZE = 1024;
+
+    /** The adb_usb.ini file with additional vendor IDs. */
+    private static final File INI_FILE = new File(new File(
+        System.getProperty("user.home"), ".android"), "adb_usb.ini");
+
+    /** The lock used for reloading the adb_usb.ini file. */
+    private static final Object RELOAD_LOCK = new Object();
+
+    /** The adb_usb.ini file which is currently used. */
+    private static File iniFile = INI_FILE;
+
+    /** The vendor IDs which have been added at runtime. */
+    private static final AtomicLongArray RUNTIME_TABLE = new AtomicLongArray(
+        TABLE_SIZE);
+
+    /** The listeners informed about changed vendor IDs. */
+    private static final List<VendorsListener> LISTENERS =
+        new CopyOnWriteArrayList<VendorsListener>();
+
+    /** The modification time of the adb_usb.ini file when last read. */
+    private static long iniModified;
+
+    /** The size of the adb_usb.ini file when last read. */
+    private static long iniLength;
+
+    /**
+     * The effective set of ADB USB vendor IDs as a bitset indexed by the
+     * unsigned 16 bit vendor ID. Bits can be set at runtime without
+     * rebuilding the table. The whole table is replaced when the
+     * adb_usb.ini file is reloaded.
+     */
+    private static volatile AtomicLongArray vendorTable = createVendorTable();
+
     /**
      * The effective list of ADB USB vendor IDs (Includiung the ones read from
-     * the adb_usb.ini file.
+     * the adb_usb.ini file. Vendor IDs added at runtime with
+     * {@link #addVendorId(short)} or by reloading the adb_usb.ini file are
+     * not included. Use {@link #getVendorIds()} to get the current list.
      */
-    public static short[] VENDOR_IDS = createVendorIds();
+    public static short[] VENDOR_IDS = getVendorIds();
 
     /**
-     * Creates the effective list of ADB USB vendor IDs and returns it.
+     * Creates the effective table of ADB USB vendor IDs and returns it.
      * 
-     * @return The effective list of ADB USB vendor IDs.
+     * @return The effective table of ADB USB vendor IDs.
      */
-    private static short[] createVendorIds()
+    private static AtomicLongArray createVendorTable()
     {
-        Set<Short> vendorIds = new HashSet<Short>();
+        synchronized (RELOAD_LOCK)
+        {
+            return new AtomicLongArray(readVendorTable());
+        }
+    }
+
+    /**
+     * Builds a new vendor table from the fixed vendor IDs, the adb_usb.ini
+     * file and the vendor IDs added at runtime. Must be called while
+     * holding the reload lock.
+     * 
+     * @return The new vendor table.
+     */
+    private static long[] readVendorTable()
+    {
+        long[] table = new long[TABLE_SIZE];
         for (short vendorId: FIXED_VENDOR_IDS)
-            vendorIds.add(vendorId);
-        File ini = new File(new File(System.getProperty("user.home"),
-            ".android"), "adb_usb.ini");
+            setBit(table, vendorId);
+        iniModified = iniFile.lastModified();
+        iniLength = iniFile.length();
         try
         {
-            if (ini.exists())
+            if (iniFile.exists())
             {
-                BufferedReader reader = new BufferedReader(new FileReader(ini));
+                BufferedReader reader =
+                    new BufferedReader(new FileReader(iniFile));
                 try
                 {
                     String line;
@@ -200,7 +257,7 @@ public class Vendors
                     {
                         if (line.startsWith("0x"))
                         {
-                            vendorIds.add((short) Integer.parseInt(
+                            setBit(table, (short) Integer.parseInt(
                                 line.substring(2), 16));
                         }
                     }
@@ -216,10 +273,215 @@ public class Vendors
             LOG.log(Level.WARNING,
                 "adb_usb.ini could not be read. Ignoring it.", e);
         }
-        short[] result = new short[vendorIds.size()];
-        int i = 0;
-        for (Short vendorId: vendorIds)
-            result[i++] = vendorId;
+        for (int i = 0; i < TABLE_SIZE; i++)
+            table[i] |= RUNTIME_TABLE.get(i);
+        return table;
+    }
+
+    /**
+     * Reloads the adb_usb.ini file if it has been changed since it was read
+     * the last time. The change is detected by the modification time and
+     * the size of the file so calling this method is cheap when nothing
+     * has changed. The new vendor table is swapped in atomically so
+     * concurrent lookups are never blocked. Vendor IDs added at runtime are
+     * kept. The vendors listeners are informed when vendor IDs have been
+     * added or removed.
+     * 
+     * @return The vendor IDs which have been added by the reload. Can be
+     *         passed to {@link Adb#findDevices(short[])} to only probe newly
+     *         matched devices. Empty if nothing has changed.
+     */
+    public static short[] reload()
+    {
+        short[] result;
+        boolean changed = false;
+        synchronized (RELOAD_LOCK)
+        {
+            if (iniFile.lastModified() == iniModified
+                && iniFile.length() == iniLength) return new short[0];
+            long[] table = readVendorTable();
+            AtomicLongArray oldTable = vendorTable;
+            long[] added = new long[TABLE_SIZE];
+            for (int i = 0; i < TABLE_SIZE; i++)
+            {
+                long oldBits = oldTable.get(i);
+                added[i] = table[i] & ~oldBits;
+                changed |= table[i] != oldBits;
+            }
+            AtomicLongArray newTable = new AtomicLongArray(table);
+            vendorTable = newTable;
+
+            // Merge vendor IDs which have been added at runtime while the
+            // new table was built
+            for (int i = 0; i < TABLE_SIZE; i++)
+                setBits(newTable, i, RUNTIME_TABLE.get(i));
+            result = toVendorIds(added);
+        }
+        if (changed) fireVendorsChanged();
+        return result;
+    }
+
+    /**
+     * Adds a listener which is informed when the set of vendor IDs changes.
+     * 
+     * @param listener
+     *            The listener to add.
+     */
+    public static void addVendorsListener(VendorsListener listener)
+    {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Removes a vendors listener.
+     * 
+     * @param listener
+     *            The listener to remove.
+     */
+    public static void removeVendorsListener(VendorsListener listener)
+    {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Informs the listeners about changed vendor IDs.
+     */
+    private static void fireVendorsChanged()
+    {
+        for (VendorsListener listener: LISTENERS)
+            listener.vendorsChanged();
+    }
+
+    /**
+     * Uses the specified file instead of $HOME/.android/adb_usb.ini. The
+     * file is read on the next call to {@link #reload()}. Only used by
+     * tests.
+     * 
+     * @param file
+     *            The adb_usb.ini file to use. Null to use the default file.
+     */
+    static void setIniFile(File file)
+    {
+        synchronized (RELOAD_LOCK)
+        {
+            iniFile = file == null ? INI_FILE : file;
+            iniModified = -1;
+        }
+    }
+
+    /**
+     * Sets the bit of the specified vendor ID in the specified table.
+     * 
+     * @param table
+     *            The vendor table.
+     * @param vendorId
+     *            The vendor ID.
+     */
+    private static void setBit(long[] table, short vendorId)
+    {
+        int index = vendorId & 0xffff;
+        table[index / WORD_BITS] |= 1L << (index % WORD_BITS);
+    }
+
+    /**
+     * Checks if the specified vendor ID is a known ADB vendor.
+     * 
+     * @param vendorId
+     *            The vendor ID to check.
+     * @return True if ADB device vendor, false if not.
+     */
+    public static boolean isAdbVendor(short vendorId)
+    {
+        int index = vendorId & 0xffff;
+        return (vendorTable.get(index / WORD_BITS)
+            & (1L << (index % WORD_BITS))) != 0;
+    }
+
+    /**
+     * Adds the specified vendor ID to the set of ADB vendors. The vendor ID
+     * is kept when the adb_usb.ini file is reloaded. The vendors listeners
+     * are informed when the vendor ID is new.
+     * 
+     * @param vendorId
+     *            The vendor ID to add.
+     * @return True if the vendor ID was added, false if it was already
+     *         known.
+     */
+    public static boolean addVendorId(short vendorId)
+    {
+        int index = vendorId & 0xffff;
+        int word = index / WORD_BITS;
+        long bit = 1L << (index % WORD_BITS);
+
+        // The runtime table must be updated first so a concurrent reload
+        // merges the vendor ID into the new table
+        setBits(RUNTIME_TABLE, word, bit);
+        if (!setBits(vendorTable, word, bit)) return false;
+        fireVendorsChanged();
+        return true;
+    }
+
+    /**
+     * Atomically sets bits in the specified table.
+     * 
+     * @param table
+     *            The table.
+     * @param word
+     *            The index of the word.
+     * @param mask
+     *            The bit mask to set.
+     * @return True if bits were set, false if they were already set.
+     */
+    private static boolean setBits(AtomicLongArray table, int word, long mask)
+    {
+        while (true)
+        {
+            long bits = table.get(word);
+            if ((bits & mask) == mask) return false;
+            if (table.compareAndSet(word, bits, bits | mask)) return true;
+        }
+    }
+
+    /**
+     * Returns the current list of ADB USB vendor IDs sorted by their
+     * unsigned value.
+     * 
+     * @return The current list of ADB USB vendor IDs.
+     */
+    public static short[] getVendorIds()
+    {
+        AtomicLongArray table = vendorTable;
+        long[] words = new long[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++)
+            words[i] = table.get(i);
+        return toVendorIds(words);
+    }
+
+    /**
+     * Converts the specified vendor table into a list of vendor IDs sorted
+     * by their unsigned value.
+     * 
+     * @param words
+     *            The vendor table.
+     * @return The vendor IDs.
+     */
+    private static short[] toVendorIds(long[] words)
+    {
+        int count = 0;
+        for (long bits: words)
+            count += Long.bitCount(bits);
+        short[] result = new short[count];
+        int n = 0;
+        for (int i = 0; i < words.length; i++)
+        {
+            long bits = words[i];
+            while (bits != 0)
+            {
+                int bit = Long.numberOfTrailingZeros(bits);
+                result[n++] = (short) (i * WORD_BITS + bit);
+                bits &= bits - 1;
+            }
+        }
         return result;
     }
 }
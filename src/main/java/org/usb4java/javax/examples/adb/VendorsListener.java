@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.EventListener;
+
+/**
+ * Listener for changes of the set of ADB vendor IDs in {@link Vendors}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public interface VendorsListener extends EventListener
+{
+    /**
+     * Called when vendor IDs have been added at runtime or when a reload of
+     * the adb_usb.ini file added or removed vendor IDs.
+     */
+    void vendorsChanged();
+}
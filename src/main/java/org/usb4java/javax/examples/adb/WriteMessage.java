@@ -5,6 +5,7 @@
 
 package org.usb4java.javax.examples.adb;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import javax.xml.bind.DatatypeConverter;
@@ -28,6 +29,19 @@ public class WriteMessage extends Message
     {
         super(header, data);
     }
+
+    /**
+     * Constructs a new WRITE message with a payload which is not copied.
+     * 
+     * @param header
+     *            The ADB message header.
+     * @param data
+     *            The ADB message data.
+     */
+    public WriteMessage(MessageHeader header, ByteBuffer data)
+    {
+        super(header, data);
+    }
     
     /**
      * Constructs a new WRITE message.
@@ -42,6 +56,38 @@ public class WriteMessage extends Message
         super(MessageHeader.CMD_WRTE, remoteId, 0, data);
     }
     
+    /**
+     * Constructs a new WRITE message.
+     * 
+     * @param localId
+     *            The local ID.
+     * @param remoteId
+     *            The remote ID.
+     * @param data
+     *            The data.
+     */
+    public WriteMessage(int localId, int remoteId, byte[] data)
+    {
+        super(MessageHeader.CMD_WRTE, localId, remoteId, data);
+    }
+
+    /**
+     * Constructs a new WRITE message with a payload which is not copied. The
+     * remaining bytes of the buffer are the payload. The buffer must not be
+     * modified until the message has been sent.
+     * 
+     * @param localId
+     *            The local ID.
+     * @param remoteId
+     *            The remote ID.
+     * @param data
+     *            The data.
+     */
+    public WriteMessage(int localId, int remoteId, ByteBuffer data)
+    {
+        super(MessageHeader.CMD_WRTE, localId, remoteId, data);
+    }
+    
     /**
      * Constructs a new WRITE message.
      * 
@@ -55,6 +101,16 @@ public class WriteMessage extends Message
         this(remoteId, (data + '\0').getBytes(Charset.forName("UTF-8")));
     }
     
+    /**
+     * Returns the local ID.
+     * 
+     * @return The local ID.
+     */
+    public int getLocalId()
+    {
+        return this.header.getArg0();
+    }
+    
     /**
      * Returns the remote ID.
      * 
@@ -72,9 +128,7 @@ public class WriteMessage extends Message
      */
     public String getDataAsString()
     {
-        int len = this.data.length;
-        while (len > 0 && this.data[len - 1] == 0) len--;
-        return new String(this.data, 0, len, Charset.forName("UTF-8"));
+        return decodeString();
     }
 
     @Override
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+
+import javax.usb.UsbDevice;
+
+import org.usb4java.javax.examples.adb.AdbDevice;
+
+/**
+ * Event sent to {@link AdbDeviceListener} when a USB device with ADB
+ * interfaces has been attached or detached.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbDeviceEvent extends EventObject
+{
+    /** Serial version UID. */
+    private static final long serialVersionUID = 1L;
+
+    /** The USB device. */
+    private final transient UsbDevice usbDevice;
+
+    /** The port path of the USB device. */
+    private final String portPath;
+
+    /** The ADB devices of the USB device. */
+    private final transient List<AdbDevice> adbDevices;
+
+    /**
+     * Constructs a new ADB device event.
+     * 
+     * @param registry
+     *            The registry which sends the event.
+     * @param usbDevice
+     *            The USB device.
+     * @param portPath
+     *            The port path of the USB device.
+     * @param adbDevices
+     *            The ADB devices of the USB device.
+     */
+    public AdbDeviceEvent(DeviceRegistry registry, UsbDevice usbDevice,
+        String portPath, List<AdbDevice> adbDevices)
+    {
+        super(registry);
+        this.usbDevice = usbDevice;
+        this.portPath = portPath;
+        this.adbDevices = Collections.unmodifiableList(adbDevices);
+    }
+
+    /**
+     * Returns the registry which sent the event.
+     * 
+     * @return The device registry.
+     */
+    public DeviceRegistry getDeviceRegistry()
+    {
+        return (DeviceRegistry) getSource();
+    }
+
+    /**
+     * Returns the USB device.
+     * 
+     * @return The USB device.
+     */
+    public UsbDevice getUsbDevice()
+    {
+        return this.usbDevice;
+    }
+
+    /**
+     * Returns the port path of the USB device.
+     * 
+     * @return The port path.
+     */
+    public String getPortPath()
+    {
+        return this.portPath;
+    }
+
+    /**
+     * Returns the ADB devices of the USB device. The ADB devices are not
+     * open. When the USB device has been detached then they can no longer
+     * be used.
+     * 
+     * @return The ADB devices.
+     */
+    public List<AdbDevice> getAdbDevices()
+    {
+        return this.adbDevices;
+    }
+}
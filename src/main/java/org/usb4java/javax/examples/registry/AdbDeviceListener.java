@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.util.EventListener;
+
+/**
+ * Listener for ADB devices appearing in or disappearing from a
+ * {@link DeviceRegistry}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public interface AdbDeviceListener extends EventListener
+{
+    /**
+     * Called when a USB device with ADB interfaces has been attached.
+     * 
+     * @param event
+     *            The ADB device event.
+     */
+    void adbDeviceAttached(AdbDeviceEvent event);
+
+    /**
+     * Called when a USB device with ADB interfaces has been detached.
+     * 
+     * @param event
+     *            The ADB device event.
+     */
+    void adbDeviceDetached(AdbDeviceEvent event);
+}
@@ -0,0 +1,927 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.usb.UsbConfiguration;
+import javax.usb.UsbConst;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+import javax.usb.UsbEndpoint;
+import javax.usb.UsbException;
+import javax.usb.UsbHostManager;
+import javax.usb.UsbHub;
+import javax.usb.UsbInterface;
+import javax.usb.UsbInterfaceDescriptor;
+import javax.usb.UsbServices;
+import javax.usb.event.UsbServicesEvent;
+import javax.usb.event.UsbServicesListener;
+
+import org.usb4java.javax.examples.adb.Adb;
+import org.usb4java.javax.examples.adb.AdbDevice;
+import org.usb4java.javax.examples.adb.TopologyCache;
+import org.usb4java.javax.examples.adb.Vendors;
+import org.usb4java.javax.examples.adb.VendorsListener;
+
+/**
+ * Registry of attached USB devices. The device tree is scanned once when the
+ * registry is started. After that the registry is updated incrementally by
+ * the attach and detach events of the USB services. The devices are indexed
+ * by port path, by vendor and product ID and by interface class so callers
+ * can look them up without walking the device tree. Listeners are informed
+ * when a device with ADB interfaces appears or disappears. This also
+ * happens when already registered devices start or stop matching the ADB
+ * vendor IDs because {@link Vendors} has been changed.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class DeviceRegistry implements UsbServicesListener, VendorsListener
+{
+    /** The logger for this class. */
+    private static final Logger LOG = Logger.getLogger(DeviceRegistry.class
+        .getName());
+
+    /** Orders port paths in device tree order. */
+    private static final Comparator<String> PORT_PATH_ORDER =
+        new Comparator<String>()
+        {
+            @Override
+            public int compare(String a, String b)
+            {
+                String[] as = a.split("\\.");
+                String[] bs = b.split("\\.");
+                for (int i = 0; i < Math.min(as.length, bs.length); i++)
+                {
+                    int diff = Integer.parseInt(as[i])
+                        - Integer.parseInt(bs[i]);
+                    if (diff != 0) return diff;
+                }
+                return as.length - bs.length;
+            }
+        };
+
+    /** The shared registry of the default USB services. */
+    private static volatile DeviceRegistry instance;
+
+    /** The USB services. */
+    private final UsbServices services;
+
+    /** The lock protecting the indexes. */
+    private final Object lock = new Object();
+
+    /** The devices mapped by port path in device tree order. */
+    private final NavigableMap<String, UsbDevice> byPortPath =
+        new TreeMap<String, UsbDevice>(PORT_PATH_ORDER);
+
+    /** The port paths mapped by device. */
+    private final Map<UsbDevice, String> portPaths =
+        new IdentityHashMap<UsbDevice, String>();
+
+    /** The devices mapped by vendor and product ID. */
+    private final Map<Integer, List<UsbDevice>> byVendorProduct =
+        new HashMap<Integer, List<UsbDevice>>();
+
+    /** The devices mapped by interface class. */
+    private final Map<Byte, List<UsbDevice>> byInterfaceClass =
+        new HashMap<Byte, List<UsbDevice>>();
+
+    /** The interfaces mapped by class, subclass and protocol. */
+    private final Map<Integer, List<InterfaceEntry>> byInterfaceType =
+        new HashMap<Integer, List<InterfaceEntry>>();
+
+    /** The interfaces of the active configuration mapped by device. */
+    private final Map<UsbDevice, List<InterfaceEntry>> interfaces =
+        new IdentityHashMap<UsbDevice, List<InterfaceEntry>>();
+
+    /** The ADB devices mapped by USB device. */
+    private final Map<UsbDevice, List<AdbDevice>> adbDevices =
+        new IdentityHashMap<UsbDevice, List<AdbDevice>>();
+
+    /** The registered ADB device listeners. */
+    private final List<AdbDeviceListener> listeners =
+        new CopyOnWriteArrayList<AdbDeviceListener>();
+
+    /** If registry is started. */
+    private boolean started;
+
+    /**
+     * Constructs a new device registry. The registry must be started before
+     * it can be used.
+     * 
+     * @param services
+     *            The USB services. Must not be null.
+     */
+    public DeviceRegistry(UsbServices services)
+    {
+        if (services == null)
+            throw new IllegalArgumentException("services must be set");
+        this.services = services;
+    }
+
+    /**
+     * Returns the shared registry of the default USB services. The registry
+     * is created and started on first use.
+     * 
+     * @return The shared device registry.
+     * @throws UsbException
+     *             When USB services could not be initialized.
+     */
+    public static synchronized DeviceRegistry getInstance()
+        throws UsbException
+    {
+        if (instance == null)
+        {
+            DeviceRegistry registry =
+                new DeviceRegistry(UsbHostManager.getUsbServices());
+            registry.start();
+            instance = registry;
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the registry. The registry subscribes to the attach and detach
+     * events of the USB services and to changes of the ADB vendor IDs and
+     * then scans the device tree once.
+     * 
+     * @throws UsbException
+     *             When the root hub could not be read.
+     */
+    public void start() throws UsbException
+    {
+        synchronized (this.lock)
+        {
+            if (this.started) return;
+            this.started = true;
+        }
+        this.services.addUsbServicesListener(this);
+        Vendors.addVendorsListener(this);
+        UsbHub rootHub = this.services.getRootUsbHub();
+        for (UsbDevice device: (List<UsbDevice>) rootHub
+            .getAttachedUsbDevices())
+            attach(device, TopologyCache.getPortPath(device));
+    }
+
+    /**
+     * Stops the registry. The registry unsubscribes from the USB services
+     * and the ADB vendor IDs and forgets all devices.
+     */
+    public void stop()
+    {
+        synchronized (this.lock)
+        {
+            if (!this.started) return;
+            this.started = false;
+            this.byPortPath.clear();
+            this.portPaths.clear();
+            this.byVendorProduct.clear();
+            this.byInterfaceClass.clear();
+            this.byInterfaceType.clear();
+            this.interfaces.clear();
+            this.adbDevices.clear();
+        }
+        this.services.removeUsbServicesListener(this);
+        Vendors.removeVendorsListener(this);
+    }
+
+    /**
+     * Adds an ADB device listener.
+     * 
+     * @param listener
+     *            The listener to add.
+     */
+    public void addAdbDeviceListener(AdbDeviceListener listener)
+    {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes an ADB device listener.
+     * 
+     * @param listener
+     *            The listener to remove.
+     */
+    public void removeAdbDeviceListener(AdbDeviceListener listener)
+    {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public void usbDeviceAttached(UsbServicesEvent event)
+    {
+        UsbDevice device = event.getUsbDevice();
+        try
+        {
+            attach(device, TopologyCache.getPortPath(device));
+        }
+        catch (RuntimeException e)
+        {
+            LOG.log(Level.WARNING, "Unable to register " + device, e);
+        }
+    }
+
+    @Override
+    public void usbDeviceDetached(UsbServicesEvent event)
+    {
+        detach(event.getUsbDevice());
+    }
+
+    /**
+     * Re-evaluates the registered devices after the ADB vendor IDs have
+     * changed. ADB devices whose vendor is no longer known are reported as
+     * detached and devices of newly added vendors are probed for ADB
+     * interfaces.
+     */
+    @Override
+    public void vendorsChanged()
+    {
+        List<AdbDeviceEvent> removed = new ArrayList<AdbDeviceEvent>();
+        List<UsbDevice> candidates = new ArrayList<UsbDevice>();
+        synchronized (this.lock)
+        {
+            if (!this.started) return;
+            for (Map.Entry<UsbDevice, String> entry: this.portPaths
+                .entrySet())
+            {
+                UsbDevice device = entry.getKey();
+                if (device.isUsbHub()) continue;
+                boolean adbVendor = Vendors.isAdbVendor(device
+                    .getUsbDeviceDescriptor().idVendor());
+                List<AdbDevice> adb = this.adbDevices.get(device);
+                if (adb == null && adbVendor)
+                {
+                    candidates.add(device);
+                }
+                else if (adb != null && !adbVendor)
+                {
+                    this.adbDevices.remove(device);
+                    removed.add(new AdbDeviceEvent(this, device,
+                        entry.getValue(), adb));
+                }
+            }
+        }
+        for (AdbDeviceEvent event: removed)
+            fireDetached(event);
+        probe(candidates);
+    }
+
+    /**
+     * Registers the specified device and all devices connected to it when
+     * it is a hub. Then the new devices are checked for ADB interfaces.
+     * 
+     * @param device
+     *            The attached device.
+     * @param portPath
+     *            The port path of the device.
+     */
+    private void attach(UsbDevice device, String portPath)
+    {
+        List<UsbDevice> added = new ArrayList<UsbDevice>();
+        List<AdbDeviceEvent> removed = new ArrayList<AdbDeviceEvent>();
+        synchronized (this.lock)
+        {
+            if (!this.started) return;
+            add(device, portPath, added, removed);
+        }
+        for (AdbDeviceEvent event: removed)
+            fireDetached(event);
+        probe(added);
+    }
+
+    /**
+     * Checks the specified registered devices for ADB interfaces and
+     * informs the listeners about the found ADB devices. Devices which have
+     * been detached or already reported in the meantime are skipped.
+     * 
+     * @param devices
+     *            The devices to check.
+     */
+    private void probe(List<UsbDevice> devices)
+    {
+        for (UsbDevice usbDevice: devices)
+        {
+            if (usbDevice.isUsbHub()) continue;
+            List<AdbDevice> adb = Adb.getAdbDevices(usbDevice);
+            if (adb.isEmpty()) continue;
+            String path;
+            synchronized (this.lock)
+            {
+                path = this.portPaths.get(usbDevice);
+                if (path == null || this.adbDevices.containsKey(usbDevice))
+                    continue;
+                this.adbDevices.put(usbDevice, adb);
+            }
+            fireAttached(new AdbDeviceEvent(this, usbDevice, path, adb));
+        }
+    }
+
+    /**
+     * Adds the specified device and the devices connected to it to the
+     * indexes. Must be called while holding the lock.
+     * 
+     * @param device
+     *            The device to add.
+     * @param portPath
+     *            The port path of the device.
+     * @param added
+     *            The list to add the newly registered devices to.
+     * @param removed
+     *            The list to add detach events of replaced ADB devices to.
+     */
+    private void add(UsbDevice device, String portPath,
+        List<UsbDevice> added, List<AdbDeviceEvent> removed)
+    {
+        UsbDevice old = this.byPortPath.get(portPath);
+        if (old != device)
+        {
+            // The detach event of the previous device may have been missed
+            if (old != null) remove(old, removed);
+
+            this.byPortPath.put(portPath, device);
+            this.portPaths.put(device, portPath);
+            UsbDeviceDescriptor desc = device.getUsbDeviceDescriptor();
+            addToIndex(this.byVendorProduct, key(desc.idVendor(),
+                desc.idProduct()), device);
+            List<InterfaceEntry> entries = createInterfaceEntries(device);
+            this.interfaces.put(device, entries);
+            Set<Byte> interfaceClasses = new LinkedHashSet<Byte>();
+            for (InterfaceEntry entry: entries)
+            {
+                interfaceClasses.add(entry.interfaceClass);
+                addToIndex(this.byInterfaceType, entry.type, entry);
+            }
+            for (Byte interfaceClass: interfaceClasses)
+                addToIndex(this.byInterfaceClass, interfaceClass, device);
+            added.add(device);
+        }
+        if (device.isUsbHub())
+        {
+            for (UsbDevice child: (List<UsbDevice>) ((UsbHub) device)
+                .getAttachedUsbDevices())
+            {
+                int port = child.getParentUsbPort().getPortNumber() & 0xff;
+                add(child, portPath + "." + port, added, removed);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the specified device and all devices which were connected
+     * to it.
+     * 
+     * @param device
+     *            The detached device.
+     */
+    private void detach(UsbDevice device)
+    {
+        List<AdbDeviceEvent> removed = new ArrayList<AdbDeviceEvent>();
+        synchronized (this.lock)
+        {
+            String portPath = this.portPaths.get(device);
+            if (portPath == null) return;
+            String prefix = portPath + ".";
+            List<UsbDevice> devices = new ArrayList<UsbDevice>();
+            devices.add(device);
+            // Devices below the hub directly follow it in tree order
+            for (Map.Entry<String, UsbDevice> entry: this.byPortPath.tailMap(
+                portPath, false).entrySet())
+            {
+                if (!entry.getKey().startsWith(prefix)) break;
+                devices.add(entry.getValue());
+            }
+            for (UsbDevice child: devices)
+                remove(child, removed);
+        }
+        for (AdbDeviceEvent event: removed)
+            fireDetached(event);
+    }
+
+    /**
+     * Removes the specified device from the indexes. Must be called while
+     * holding the lock.
+     * 
+     * @param device
+     *            The device to remove.
+     * @param removed
+     *            The list to add the detach event to when the device was an
+     *            ADB device.
+     */
+    private void remove(UsbDevice device, List<AdbDeviceEvent> removed)
+    {
+        String portPath = this.portPaths.remove(device);
+        if (portPath == null) return;
+        this.byPortPath.remove(portPath);
+        UsbDeviceDescriptor desc = device.getUsbDeviceDescriptor();
+        removeFromIndex(this.byVendorProduct, key(desc.idVendor(),
+            desc.idProduct()), device);
+        List<InterfaceEntry> entries = this.interfaces.remove(device);
+        if (entries != null)
+        {
+            for (InterfaceEntry entry: entries)
+            {
+                removeFromIndex(this.byInterfaceClass, entry.interfaceClass,
+                    device);
+                removeFromIndex(this.byInterfaceType, entry.type, entry);
+            }
+        }
+        List<AdbDevice> adb = this.adbDevices.remove(device);
+        if (adb != null)
+            removed.add(new AdbDeviceEvent(this, device, portPath, adb));
+    }
+
+    /**
+     * Adds a value to an index.
+     * 
+     * @param index
+     *            The index.
+     * @param key
+     *            The index key.
+     * @param value
+     *            The value to add.
+     */
+    private static <K, V> void addToIndex(Map<K, List<V>> index, K key,
+        V value)
+    {
+        List<V> values = index.get(key);
+        if (values == null)
+        {
+            values = new ArrayList<V>(1);
+            index.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Removes a value from an index. The index key is removed when no
+     * values are left.
+     * 
+     * @param index
+     *            The index.
+     * @param key
+     *            The index key.
+     * @param value
+     *            The value to remove.
+     */
+    private static <K, V> void removeFromIndex(Map<K, List<V>> index, K key,
+        V value)
+    {
+        List<V> values = index.get(key);
+        if (values == null) return;
+        values.remove(value);
+        if (values.isEmpty()) index.remove(key);
+    }
+
+    /**
+     * Creates the index entries for the interfaces of the active
+     * configuration of the specified device.
+     * 
+     * @param device
+     *            The device.
+     * @return The interface entries. Empty if the device is not configured.
+     */
+    private static List<InterfaceEntry> createInterfaceEntries(
+        UsbDevice device)
+    {
+        UsbConfiguration config = device.getActiveUsbConfiguration();
+        if (config == null) return Collections.emptyList();
+        List<UsbInterface> ifaces = config.getUsbInterfaces();
+        List<InterfaceEntry> entries =
+            new ArrayList<InterfaceEntry>(ifaces.size());
+        for (UsbInterface iface: ifaces)
+            entries.add(new InterfaceEntry(device, iface));
+        return entries;
+    }
+
+    /**
+     * Returns the index key for the specified interface class, subclass and
+     * protocol.
+     * 
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @return The index key.
+     */
+    private static Integer key(byte interfaceClass, byte interfaceSubClass,
+        byte interfaceProtocol)
+    {
+        return ((interfaceClass & 0xff) << 16)
+            | ((interfaceSubClass & 0xff) << 8) | (interfaceProtocol & 0xff);
+    }
+
+    /**
+     * Returns the index key for the specified vendor and product ID.
+     * 
+     * @param vendorId
+     *            The vendor ID.
+     * @param productId
+     *            The product ID.
+     * @return The index key.
+     */
+    private static Integer key(short vendorId, short productId)
+    {
+        return ((vendorId & 0xffff) << 16) | (productId & 0xffff);
+    }
+
+    /**
+     * Informs the listeners about an attached ADB device.
+     * 
+     * @param event
+     *            The event to send.
+     */
+    private void fireAttached(AdbDeviceEvent event)
+    {
+        for (AdbDeviceListener listener: this.listeners)
+            listener.adbDeviceAttached(event);
+    }
+
+    /**
+     * Informs the listeners about a detached ADB device.
+     * 
+     * @param event
+     *            The event to send.
+     */
+    private void fireDetached(AdbDeviceEvent event)
+    {
+        for (AdbDeviceListener listener: this.listeners)
+            listener.adbDeviceDetached(event);
+    }
+
+    /**
+     * Returns all registered devices mapped by port path in device tree
+     * order. Hubs are included.
+     * 
+     * @return A snapshot of the registered devices.
+     */
+    public SortedMap<String, UsbDevice> getDevicesByPortPath()
+    {
+        synchronized (this.lock)
+        {
+            return new TreeMap<String, UsbDevice>(this.byPortPath);
+        }
+    }
+
+    /**
+     * Returns all registered devices in device tree order. Hubs are
+     * included.
+     * 
+     * @return A snapshot of the registered devices.
+     */
+    public List<UsbDevice> getDevices()
+    {
+        synchronized (this.lock)
+        {
+            return new ArrayList<UsbDevice>(this.byPortPath.values());
+        }
+    }
+
+    /**
+     * Returns the device attached to the specified port path.
+     * 
+     * @param portPath
+     *            The port path.
+     * @return The device or null if none.
+     */
+    public UsbDevice getDevice(String portPath)
+    {
+        synchronized (this.lock)
+        {
+            return this.byPortPath.get(portPath);
+        }
+    }
+
+    /**
+     * Returns the port path of the specified device.
+     * 
+     * @param device
+     *            The device.
+     * @return The port path or null if device is not registered.
+     */
+    public String getPortPath(UsbDevice device)
+    {
+        synchronized (this.lock)
+        {
+            return this.portPaths.get(device);
+        }
+    }
+
+    /**
+     * Returns the devices with the specified vendor and product ID.
+     * 
+     * @param vendorId
+     *            The vendor ID.
+     * @param productId
+     *            The product ID.
+     * @return The matching devices. Empty if none.
+     */
+    public List<UsbDevice> getDevices(short vendorId, short productId)
+    {
+        return get(this.byVendorProduct, key(vendorId, productId));
+    }
+
+    /**
+     * Returns the devices with at least one interface of the specified
+     * class in the active configuration.
+     * 
+     * @param interfaceClass
+     *            The interface class.
+     * @return The matching devices. Empty if none.
+     */
+    public List<UsbDevice> getDevicesByInterfaceClass(byte interfaceClass)
+    {
+        return get(this.byInterfaceClass, interfaceClass);
+    }
+
+    /**
+     * Returns the devices stored under the specified key in an index.
+     * 
+     * @param index
+     *            The index.
+     * @param key
+     *            The index key.
+     * @return A snapshot of the matching devices.
+     */
+    private <K> List<UsbDevice> get(Map<K, List<UsbDevice>> index, K key)
+    {
+        synchronized (this.lock)
+        {
+            List<UsbDevice> devices = index.get(key);
+            if (devices == null) return Collections.emptyList();
+            return new ArrayList<UsbDevice>(devices);
+        }
+    }
+
+    /**
+     * Returns the interfaces with the specified class, subclass and
+     * protocol.
+     * 
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @return The matching interfaces in device tree order. Empty if none.
+     */
+    public List<UsbInterface> getInterfaces(byte interfaceClass,
+        byte interfaceSubClass, byte interfaceProtocol)
+    {
+        return getInterfaces(interfaceClass, interfaceSubClass,
+            interfaceProtocol, -1);
+    }
+
+    /**
+     * Returns the interfaces with the specified class, subclass and protocol
+     * which have exactly the specified number of endpoints and all of them
+     * are bulk endpoints.
+     * 
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @param bulkEndpoints
+     *            The number of bulk endpoints. -1 to match any endpoints.
+     * @return The matching interfaces in device tree order. Empty if none.
+     */
+    public List<UsbInterface> getInterfaces(byte interfaceClass,
+        byte interfaceSubClass, byte interfaceProtocol, int bulkEndpoints)
+    {
+        Integer type = key(interfaceClass, interfaceSubClass,
+            interfaceProtocol);
+        List<UsbInterface> result = new ArrayList<UsbInterface>();
+        synchronized (this.lock)
+        {
+            List<InterfaceEntry> entries = this.byInterfaceType.get(type);
+            if (entries == null) return result;
+            List<InterfaceEntry> matches = new ArrayList<InterfaceEntry>();
+            for (InterfaceEntry entry: entries)
+                if (entry.matches(bulkEndpoints)) matches.add(entry);
+            final Map<UsbDevice, String> paths = this.portPaths;
+            Collections.sort(matches, new Comparator<InterfaceEntry>()
+            {
+                @Override
+                public int compare(InterfaceEntry a, InterfaceEntry b)
+                {
+                    int diff = PORT_PATH_ORDER.compare(paths.get(a.device),
+                        paths.get(b.device));
+                    return diff != 0 ? diff : a.number - b.number;
+                }
+            });
+            for (InterfaceEntry entry: matches)
+                result.add(entry.iface);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the interfaces of the specified device with the specified
+     * class, subclass and protocol which have exactly the specified number
+     * of endpoints and all of them are bulk endpoints. When the device is
+     * not registered then its interfaces are inspected directly.
+     * 
+     * @param device
+     *            The device.
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @param bulkEndpoints
+     *            The number of bulk endpoints. -1 to match any endpoints.
+     * @return The matching interfaces. Empty if none.
+     */
+    public List<UsbInterface> getInterfaces(UsbDevice device,
+        byte interfaceClass, byte interfaceSubClass, byte interfaceProtocol,
+        int bulkEndpoints)
+    {
+        List<InterfaceEntry> entries;
+        synchronized (this.lock)
+        {
+            entries = this.interfaces.get(device);
+        }
+        if (entries == null) entries = createInterfaceEntries(device);
+        return match(entries, interfaceClass, interfaceSubClass,
+            interfaceProtocol, bulkEndpoints);
+    }
+
+    /**
+     * Returns the interfaces of the specified device with the specified
+     * class, subclass and protocol which have exactly the specified number
+     * of endpoints and all of them are bulk endpoints. The index of the
+     * shared registry is used if it has already been created. Otherwise the
+     * interfaces of the device are inspected directly.
+     * 
+     * @param device
+     *            The device.
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @param bulkEndpoints
+     *            The number of bulk endpoints. -1 to match any endpoints.
+     * @return The matching interfaces. Empty if none.
+     */
+    public static List<UsbInterface> findInterfaces(UsbDevice device,
+        byte interfaceClass, byte interfaceSubClass, byte interfaceProtocol,
+        int bulkEndpoints)
+    {
+        DeviceRegistry registry = instance;
+        if (registry != null)
+            return registry.getInterfaces(device, interfaceClass,
+                interfaceSubClass, interfaceProtocol, bulkEndpoints);
+        return match(createInterfaceEntries(device), interfaceClass,
+            interfaceSubClass, interfaceProtocol, bulkEndpoints);
+    }
+
+    /**
+     * Returns the interfaces of the specified entries which match the
+     * specified class, subclass, protocol and number of bulk endpoints.
+     * 
+     * @param entries
+     *            The interface entries.
+     * @param interfaceClass
+     *            The interface class.
+     * @param interfaceSubClass
+     *            The interface subclass.
+     * @param interfaceProtocol
+     *            The interface protocol.
+     * @param bulkEndpoints
+     *            The number of bulk endpoints. -1 to match any endpoints.
+     * @return The matching interfaces. Empty if none.
+     */
+    private static List<UsbInterface> match(List<InterfaceEntry> entries,
+        byte interfaceClass, byte interfaceSubClass, byte interfaceProtocol,
+        int bulkEndpoints)
+    {
+        Integer type = key(interfaceClass, interfaceSubClass,
+            interfaceProtocol);
+        List<UsbInterface> result = new ArrayList<UsbInterface>(1);
+        for (InterfaceEntry entry: entries)
+            if (entry.type.equals(type) && entry.matches(bulkEndpoints))
+                result.add(entry.iface);
+        return result;
+    }
+
+    /**
+     * Returns the interfaces of the active configurations of all devices
+     * with the specified vendor and product ID.
+     * 
+     * @param vendorId
+     *            The vendor ID.
+     * @param productId
+     *            The product ID.
+     * @return The interfaces. Empty if none.
+     */
+    public List<UsbInterface> getInterfaces(short vendorId, short productId)
+    {
+        List<UsbInterface> result = new ArrayList<UsbInterface>();
+        synchronized (this.lock)
+        {
+            List<UsbDevice> devices =
+                this.byVendorProduct.get(key(vendorId, productId));
+            if (devices == null) return result;
+            for (UsbDevice device: devices)
+                for (InterfaceEntry entry: this.interfaces.get(device))
+                    result.add(entry.iface);
+        }
+        return result;
+    }
+
+    /**
+     * Index entry of a single interface. The descriptor values are read once
+     * when the device is attached.
+     */
+    private static final class InterfaceEntry
+    {
+        /** The device of the interface. */
+        final UsbDevice device;
+
+        /** The interface. */
+        final UsbInterface iface;
+
+        /** The interface number. */
+        final int number;
+
+        /** The interface class. */
+        final byte interfaceClass;
+
+        /** The index key of class, subclass and protocol. */
+        final Integer type;
+
+        /** The number of endpoints. */
+        final int endpoints;
+
+        /** The number of bulk endpoints. */
+        final int bulkEndpoints;
+
+        /**
+         * Constructs a new interface entry.
+         * 
+         * @param device
+         *            The device of the interface.
+         * @param iface
+         *            The interface.
+         */
+        InterfaceEntry(UsbDevice device, UsbInterface iface)
+        {
+            UsbInterfaceDescriptor desc = iface.getUsbInterfaceDescriptor();
+            this.device = device;
+            this.iface = iface;
+            this.number = desc.bInterfaceNumber() & 0xff;
+            this.interfaceClass = desc.bInterfaceClass();
+            this.type = key(desc.bInterfaceClass(),
+                desc.bInterfaceSubClass(), desc.bInterfaceProtocol());
+            List<UsbEndpoint> list = iface.getUsbEndpoints();
+            int bulk = 0;
+            for (UsbEndpoint endpoint: list)
+            {
+                byte attributes =
+                    endpoint.getUsbEndpointDescriptor().bmAttributes();
+                if ((attributes & UsbConst.ENDPOINT_TYPE_MASK)
+                    == UsbConst.ENDPOINT_TYPE_BULK) bulk++;
+            }
+            this.endpoints = list.size();
+            this.bulkEndpoints = bulk;
+        }
+
+        /**
+         * Checks if the interface has exactly the specified number of
+         * endpoints and all of them are bulk endpoints.
+         * 
+         * @param bulkEndpoints
+         *            The number of bulk endpoints. -1 to match any
+         *            endpoints.
+         * @return True if interface matches, false if not.
+         */
+        boolean matches(int bulkEndpoints)
+        {
+            return bulkEndpoints < 0 || (this.endpoints == bulkEndpoints
+                && this.bulkEndpoints == bulkEndpoints);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.usb.UsbDevice;
+import javax.usb.UsbHub;
+
+/**
+ * Runs an {@link InventoryTask} for many devices in parallel. Each device
+ * has its own timeout which starts when its task starts so a slow or
+ * unresponsive device doesn't delay the others. A task which ignores
+ * interrupts keeps its thread busy even after it timed out, so the whole
+ * run is also limited to the time all tasks would need if each of them
+ * timed out. Devices which could not be processed by then are reported as
+ * timed out. The results are returned in the order of the specified
+ * devices.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class InventoryEngine
+{
+    /** The default number of threads. */
+    public static final int DEFAULT_THREADS = 32;
+
+    /** The default timeout per device in milliseconds. */
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    /** The number of threads. */
+    private final int threads;
+
+    /** The timeout per device in milliseconds. */
+    private final long timeout;
+
+    /**
+     * Constructs a new inventory engine with default settings.
+     */
+    public InventoryEngine()
+    {
+        this(DEFAULT_THREADS, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs a new inventory engine.
+     * 
+     * @param threads
+     *            The maximum number of devices processed at the same time.
+     * @param timeout
+     *            The timeout per device in milliseconds.
+     */
+    public InventoryEngine(int threads, long timeout)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        if (timeout < 1)
+            throw new IllegalArgumentException("timeout must be at least 1");
+        this.threads = threads;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the specified device and all devices connected to it in
+     * device tree order.
+     * 
+     * @param device
+     *            The root device. Usually the root hub.
+     * @return The devices in tree order.
+     */
+    public static List<UsbDevice> listDevices(UsbDevice device)
+    {
+        List<UsbDevice> devices = new ArrayList<UsbDevice>();
+        listDevices(device, devices);
+        return devices;
+    }
+
+    /**
+     * Recursively adds the specified device and all devices connected to it
+     * to the list.
+     * 
+     * @param device
+     *            The device to add.
+     * @param devices
+     *            The list to add the devices to.
+     */
+    private static void listDevices(UsbDevice device, List<UsbDevice> devices)
+    {
+        devices.add(device);
+        if (device.isUsbHub())
+        {
+            for (UsbDevice child: (List<UsbDevice>) ((UsbHub) device)
+                .getAttachedUsbDevices())
+                listDevices(child, devices);
+        }
+    }
+
+    /**
+     * Runs the specified task for all specified devices.
+     * 
+     * @param <T>
+     *            The result type.
+     * @param devices
+     *            The devices to process.
+     * @param task
+     *            The task to run for each device.
+     * @return The results in the order of the specified devices.
+     */
+    public <T> List<InventoryResult<T>> run(List<UsbDevice> devices,
+        final InventoryTask<T> task)
+    {
+        int count = devices.size();
+        List<InventoryResult<T>> results =
+            new ArrayList<InventoryResult<T>>(count);
+        if (count == 0) return results;
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(this.threads, count), new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    // Daemon threads so devices which never respond don't
+                    // keep the JVM alive
+                    Thread thread = new Thread(runnable, "usb4java-inventory");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try
+        {
+            // Enough time for every task to time out, one batch of threads
+            // after the other
+            long batches = (count + this.threads - 1) / this.threads;
+            long deadline = System.nanoTime() + batches
+                * TimeUnit.MILLISECONDS.toNanos(this.timeout);
+            final AtomicLongArray starts = new AtomicLongArray(count);
+            List<Future<T>> futures = new ArrayList<Future<T>>(count);
+            for (int i = 0; i < count; i++)
+            {
+                final int index = i;
+                final UsbDevice device = devices.get(i);
+                futures.add(executor.submit(new Callable<T>()
+                {
+                    @Override
+                    public T call() throws Exception
+                    {
+                        starts.set(index, System.nanoTime());
+                        return task.run(device);
+                    }
+                }));
+            }
+            for (int i = 0; i < count; i++)
+                results.add(await(devices.get(i), futures.get(i), starts, i,
+                    deadline));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the task of a single device. The timeout of the device
+     * starts when its task starts. A task which has not started until the
+     * deadline of the whole run is cancelled and reported as timed out.
+     * 
+     * @param <T>
+     *            The result type.
+     * @param device
+     *            The device.
+     * @param future
+     *            The future of the task.
+     * @param starts
+     *            The start times of the tasks. 0 if not started yet.
+     * @param index
+     *            The index of the task.
+     * @param deadline
+     *            The deadline of the whole run in nanoseconds (See
+     *            {@link System#nanoTime()}).
+     * @return The result.
+     */
+    private <T> InventoryResult<T> await(UsbDevice device, Future<T> future,
+        AtomicLongArray starts, int index, long deadline)
+    {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        while (true)
+        {
+            long start = starts.get(index);
+            long remaining = (start == 0 ? deadline : start + timeoutNanos)
+                - System.nanoTime();
+            try
+            {
+                T value = future.get(Math.max(remaining, 0),
+                    TimeUnit.NANOSECONDS);
+                return new InventoryResult<T>(device, value, null,
+                    System.nanoTime() - starts.get(index));
+            }
+            catch (TimeoutException e)
+            {
+                if (start == 0)
+                {
+                    // Task was not started when waiting began so wait again
+                    // with the real start time if it has started by now
+                    if (starts.get(index) != 0) continue;
+                    future.cancel(true);
+                    return new InventoryResult<T>(device, null,
+                        new TimeoutException("Device was not processed "
+                            + "because all threads are busy with "
+                            + "unresponsive devices"), 0);
+                }
+                future.cancel(true);
+                return new InventoryResult<T>(device, null,
+                    new TimeoutException("Device didn't respond within "
+                        + this.timeout + " ms"), System.nanoTime() - start);
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) throw (Error) cause;
+                return new InventoryResult<T>(device, null,
+                    (Exception) cause, System.nanoTime() - starts.get(index));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                return new InventoryResult<T>(device, null, e, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.usb.UsbDevice;
+
+/**
+ * The result of an {@link InventoryTask} for a single device.
+ * 
+ * @param <T>
+ *            The result type.
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class InventoryResult<T>
+{
+    /** The USB device. */
+    private final UsbDevice device;
+
+    /** The result value. Null if task failed. */
+    private final T value;
+
+    /** The error which occurred. Null if none. */
+    private final Exception error;
+
+    /** The time the task took in nanoseconds. */
+    private final long time;
+
+    /**
+     * Constructs a new inventory result.
+     * 
+     * @param device
+     *            The USB device.
+     * @param value
+     *            The result value. Null if task failed.
+     * @param error
+     *            The error which occurred. Null if none.
+     * @param time
+     *            The time the task took in nanoseconds.
+     */
+    InventoryResult(UsbDevice device, T value, Exception error, long time)
+    {
+        this.device = device;
+        this.value = value;
+        this.error = error;
+        this.time = time;
+    }
+
+    /**
+     * Returns the USB device.
+     * 
+     * @return The USB device.
+     */
+    public UsbDevice getDevice()
+    {
+        return this.device;
+    }
+
+    /**
+     * Returns the result value.
+     * 
+     * @return The result value. Null if the task failed.
+     */
+    public T getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * Returns the error which occurred while running the task.
+     * 
+     * @return The error or null if the task succeeded.
+     */
+    public Exception getError()
+    {
+        return this.error;
+    }
+
+    /**
+     * Checks if the task succeeded.
+     * 
+     * @return True if task succeeded, false if it failed or timed out.
+     */
+    public boolean isSuccess()
+    {
+        return this.error == null;
+    }
+
+    /**
+     * Checks if the task has been aborted because the device didn't respond
+     * in time.
+     * 
+     * @return True if timed out, false if not.
+     */
+    public boolean isTimedOut()
+    {
+        return this.error instanceof TimeoutException;
+    }
+
+    /**
+     * Returns the time the task took.
+     * 
+     * @param unit
+     *            The time unit of the returned value.
+     * @return The time.
+     */
+    public long getTime(TimeUnit unit)
+    {
+        return unit.convert(this.time, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import javax.usb.UsbDevice;
+
+/**
+ * A task executed by the {@link InventoryEngine} for each device.
+ * 
+ * @param <T>
+ *            The result type.
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public interface InventoryTask<T>
+{
+    /**
+     * Reads the information of a single device.
+     * 
+     * @param device
+     *            The USB device.
+     * @return The result.
+     * @throws Exception
+     *             When reading from the device failed.
+     */
+    T run(UsbDevice device) throws Exception;
+}
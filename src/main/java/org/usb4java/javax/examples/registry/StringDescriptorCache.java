@@ -0,0 +1,549 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.usb.UsbConst;
+import javax.usb.UsbControlIrp;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+import javax.usb.UsbException;
+import javax.usb.UsbHostManager;
+import javax.usb.UsbServices;
+import javax.usb.event.UsbServicesEvent;
+import javax.usb.event.UsbServicesListener;
+
+/**
+ * Process-wide cache of USB string descriptors. Strings are cached per
+ * device, language ID and string index. They are fetched lazily on first
+ * access. When a string of the device descriptor (manufacturer, product or
+ * serial number) is requested then all missing strings of the device
+ * descriptor are fetched in one batch of control transfers. When the batch
+ * fails then the strings are fetched one by one so a single broken string
+ * doesn't lose the others. The strings of a device are evicted when the
+ * device is detached.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class StringDescriptorCache implements UsbServicesListener
+{
+    /** The charset of string descriptors. */
+    private static final Charset UTF16LE = Charset.forName("UTF-16LE");
+
+    /** The maximum size of a string descriptor. */
+    private static final int MAX_DESCRIPTOR_SIZE = 255;
+
+    /** The shared cache of the default USB services. */
+    private static StringDescriptorCache instance;
+
+    /** The USB services. */
+    private final UsbServices services;
+
+    /** The cached strings mapped by device. */
+    private final Map<UsbDevice, DeviceStrings> devices =
+        new ConcurrentHashMap<UsbDevice, DeviceStrings>();
+
+    /** The number of strings found in the cache. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of strings fetched from devices. */
+    private final AtomicLong fetchCount = new AtomicLong();
+
+    /**
+     * Constructs a new string descriptor cache and subscribes to the detach
+     * events of the specified USB services.
+     * 
+     * @param services
+     *            The USB services. Must not be null.
+     */
+    public StringDescriptorCache(UsbServices services)
+    {
+        if (services == null)
+            throw new IllegalArgumentException("services must be set");
+        this.services = services;
+        services.addUsbServicesListener(this);
+    }
+
+    /**
+     * Returns the shared cache of the default USB services.
+     * 
+     * @return The shared string descriptor cache.
+     * @throws UsbException
+     *             When USB services could not be initialized.
+     */
+    public static synchronized StringDescriptorCache getInstance()
+        throws UsbException
+    {
+        if (instance == null)
+            instance = new StringDescriptorCache(
+                UsbHostManager.getUsbServices());
+        return instance;
+    }
+
+    /**
+     * Unsubscribes from the USB services and clears the cache.
+     */
+    public void dispose()
+    {
+        this.services.removeUsbServicesListener(this);
+        this.devices.clear();
+    }
+
+    @Override
+    public void usbDeviceAttached(UsbServicesEvent event)
+    {
+        // Nothing to do. Strings are fetched lazily.
+    }
+
+    @Override
+    public void usbDeviceDetached(UsbServicesEvent event)
+    {
+        evict(event.getUsbDevice());
+    }
+
+    /**
+     * Removes the cached strings of the specified device.
+     * 
+     * @param device
+     *            The device.
+     */
+    public void evict(UsbDevice device)
+    {
+        this.devices.remove(device);
+    }
+
+    /**
+     * Returns the manufacturer string of the specified device.
+     * 
+     * @param device
+     *            The device.
+     * @return The manufacturer string or null if the device has none.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public String getManufacturer(UsbDevice device) throws UsbException
+    {
+        return getDeviceString(device,
+            device.getUsbDeviceDescriptor().iManufacturer());
+    }
+
+    /**
+     * Returns the product string of the specified device.
+     * 
+     * @param device
+     *            The device.
+     * @return The product string or null if the device has none.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public String getProduct(UsbDevice device) throws UsbException
+    {
+        return getDeviceString(device,
+            device.getUsbDeviceDescriptor().iProduct());
+    }
+
+    /**
+     * Returns the serial number string of the specified device.
+     * 
+     * @param device
+     *            The device.
+     * @return The serial number string or null if the device has none.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public String getSerialNumber(UsbDevice device) throws UsbException
+    {
+        return getDeviceString(device,
+            device.getUsbDeviceDescriptor().iSerialNumber());
+    }
+
+    /**
+     * Returns a string of the device descriptor. All missing strings of the
+     * device descriptor are fetched in one batch.
+     * 
+     * @param device
+     *            The device.
+     * @param index
+     *            The string index.
+     * @return The string or null if index is 0.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    private String getDeviceString(UsbDevice device, byte index)
+        throws UsbException
+    {
+        if (index == 0) return null;
+        UsbDeviceDescriptor desc = device.getUsbDeviceDescriptor();
+        return lookup(device, getDefaultLanguageId(device), index,
+            desc.iManufacturer(), desc.iProduct(), desc.iSerialNumber());
+    }
+
+    /**
+     * Returns the strings with the specified indices in the default language
+     * of the device. All missing strings are fetched in one batch.
+     * 
+     * @param device
+     *            The device.
+     * @param indices
+     *            The string indices.
+     * @return The strings. The string of index 0 is null.
+     * @throws UsbException
+     *             When a string descriptor could not be read.
+     */
+    public String[] getStrings(UsbDevice device, byte... indices)
+        throws UsbException
+    {
+        String[] strings = new String[indices.length];
+        short langId = 0;
+        for (int i = 0; i < indices.length; i++)
+        {
+            if (indices[i] == 0) continue;
+            if (langId == 0) langId = getDefaultLanguageId(device);
+            strings[i] = lookup(device, langId, indices[i], indices);
+        }
+        return strings;
+    }
+
+    /**
+     * Returns the string with the specified index in the default language
+     * of the device.
+     * 
+     * @param device
+     *            The device.
+     * @param index
+     *            The string index. Must not be 0.
+     * @return The string.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public String getString(UsbDevice device, byte index) throws UsbException
+    {
+        return getString(device, index, getDefaultLanguageId(device));
+    }
+
+    /**
+     * Returns the string with the specified index and language ID.
+     * 
+     * @param device
+     *            The device.
+     * @param index
+     *            The string index. Must not be 0.
+     * @param langId
+     *            The language ID.
+     * @return The string.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public String getString(UsbDevice device, byte index, short langId)
+        throws UsbException
+    {
+        if (index == 0)
+            throw new IllegalArgumentException("index must not be 0");
+        return lookup(device, langId, index);
+    }
+
+    /**
+     * Returns the language IDs supported by the specified device. They are
+     * read from string descriptor 0.
+     * 
+     * @param device
+     *            The device.
+     * @return The supported language IDs. Empty if the device has no
+     *         strings.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    public short[] getLanguageIds(UsbDevice device) throws UsbException
+    {
+        DeviceStrings strings = getDeviceStrings(device);
+        synchronized (strings)
+        {
+            if (strings.langIds == null)
+            {
+                byte[] data = fetch(device, (byte) 0, (short) 0);
+                int length = checkDescriptor(data, data.length);
+                short[] langIds = new short[(length - 2) / 2];
+                for (int i = 0; i < langIds.length; i++)
+                    langIds[i] = (short) ((data[2 + i * 2] & 0xff)
+                        | ((data[3 + i * 2] & 0xff) << 8));
+                strings.langIds = langIds;
+                this.fetchCount.incrementAndGet();
+            }
+            else
+            {
+                this.hitCount.incrementAndGet();
+            }
+            return strings.langIds.clone();
+        }
+    }
+
+    /**
+     * Returns the default language ID of the specified device. This is the
+     * first language ID in string descriptor 0.
+     * 
+     * @param device
+     *            The device.
+     * @return The default language ID.
+     * @throws UsbException
+     *             When string descriptor could not be read or the device
+     *             doesn't support any language.
+     */
+    private short getDefaultLanguageId(UsbDevice device) throws UsbException
+    {
+        short[] langIds = getLanguageIds(device);
+        if (langIds.length == 0)
+            throw new UsbException("Device has no string descriptors");
+        return langIds[0];
+    }
+
+    /**
+     * Returns the cached strings of the specified device. A new empty entry
+     * is created if there is none.
+     * 
+     * @param device
+     *            The device.
+     * @return The cached strings of the device.
+     */
+    private DeviceStrings getDeviceStrings(UsbDevice device)
+    {
+        DeviceStrings strings = this.devices.get(device);
+        if (strings == null)
+        {
+            synchronized (this.devices)
+            {
+                strings = this.devices.get(device);
+                if (strings == null)
+                {
+                    strings = new DeviceStrings();
+                    this.devices.put(device, strings);
+                }
+            }
+        }
+        return strings;
+    }
+
+    /**
+     * Returns the string with the requested index. All specified indices
+     * which are not cached yet are fetched together in one batch. When the
+     * batch fails then the strings which were not received are fetched one
+     * by one. Strings which could be read are cached even when the
+     * requested string fails.
+     * 
+     * @param device
+     *            The device.
+     * @param langId
+     *            The language ID.
+     * @param index
+     *            The index of the requested string.
+     * @param batch
+     *            Additional indices to fetch. Zero indices are ignored.
+     * @return The requested string.
+     * @throws UsbException
+     *             When the requested string descriptor could not be read.
+     */
+    private String lookup(UsbDevice device, short langId, byte index,
+        byte... batch) throws UsbException
+    {
+        DeviceStrings strings = getDeviceStrings(device);
+        synchronized (strings)
+        {
+            String string = strings.values.get(key(langId, index));
+            if (string != null)
+            {
+                this.hitCount.incrementAndGet();
+                return string;
+            }
+
+            // Build the batch of missing strings
+            List<Byte> indices = new ArrayList<Byte>(batch.length + 1);
+            indices.add(index);
+            for (byte i: batch)
+                if (i != 0 && !indices.contains(i)
+                    && !strings.values.containsKey(key(langId, i)))
+                    indices.add(i);
+            List<UsbControlIrp> irps =
+                new ArrayList<UsbControlIrp>(indices.size());
+            for (byte i: indices)
+                irps.add(createIrp(device, i, langId));
+            if (irps.size() == 1)
+            {
+                device.syncSubmit(irps.get(0));
+            }
+            else
+            {
+                try
+                {
+                    device.syncSubmit(irps);
+                }
+                catch (UsbException e)
+                {
+                    // Fetch the strings which were not received one by one
+                    for (int i = 0; i < irps.size(); i++)
+                    {
+                        UsbControlIrp irp = irps.get(i);
+                        if (irp.isComplete() && !irp.isUsbException())
+                            continue;
+                        irp = createIrp(device, indices.get(i), langId);
+                        irps.set(i, irp);
+                        try
+                        {
+                            device.syncSubmit(irp);
+                        }
+                        catch (UsbException e2)
+                        {
+                            irp.setUsbException(e2);
+                        }
+                    }
+                }
+            }
+
+            // Cache all valid strings and remember the error of the
+            // requested string
+            UsbException error = null;
+            for (int i = 0; i < irps.size(); i++)
+            {
+                UsbControlIrp irp = irps.get(i);
+                try
+                {
+                    if (irp.isUsbException()) throw irp.getUsbException();
+                    byte[] data = irp.getData();
+                    int length = checkDescriptor(data,
+                        irp.getActualLength());
+                    strings.values.put(key(langId, indices.get(i)),
+                        new String(data, 2, length - 2, UTF16LE));
+                    this.fetchCount.incrementAndGet();
+                }
+                catch (UsbException e)
+                {
+                    if (i == 0) error = e;
+                }
+            }
+            if (error != null) throw error;
+            return strings.values.get(key(langId, index));
+        }
+    }
+
+    /**
+     * Fetches a single string descriptor.
+     * 
+     * @param device
+     *            The device.
+     * @param index
+     *            The string index.
+     * @param langId
+     *            The language ID.
+     * @return The descriptor data.
+     * @throws UsbException
+     *             When string descriptor could not be read.
+     */
+    private static byte[] fetch(UsbDevice device, byte index, short langId)
+        throws UsbException
+    {
+        UsbControlIrp irp = createIrp(device, index, langId);
+        device.syncSubmit(irp);
+        byte[] data = new byte[irp.getActualLength()];
+        System.arraycopy(irp.getData(), 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Creates a control IRP for reading a string descriptor.
+     * 
+     * @param device
+     *            The device.
+     * @param index
+     *            The string index.
+     * @param langId
+     *            The language ID.
+     * @return The control IRP.
+     */
+    private static UsbControlIrp createIrp(UsbDevice device, byte index,
+        short langId)
+    {
+        UsbControlIrp irp = device.createUsbControlIrp(
+            (byte) (UsbConst.REQUESTTYPE_DIRECTION_IN
+                | UsbConst.REQUESTTYPE_TYPE_STANDARD
+                | UsbConst.REQUESTTYPE_RECIPIENT_DEVICE),
+            UsbConst.REQUEST_GET_DESCRIPTOR,
+            (short) ((UsbConst.DESCRIPTOR_TYPE_STRING << 8) | (index & 0xff)),
+            langId);
+        irp.setData(new byte[MAX_DESCRIPTOR_SIZE]);
+        return irp;
+    }
+
+    /**
+     * Checks the header of a string descriptor and returns its length.
+     * 
+     * @param data
+     *            The descriptor data.
+     * @param actualLength
+     *            The number of bytes actually received.
+     * @return The descriptor length.
+     * @throws UsbException
+     *             When descriptor is invalid.
+     */
+    private static int checkDescriptor(byte[] data, int actualLength)
+        throws UsbException
+    {
+        if (actualLength < 2 || (data[0] & 0xff) < 2
+            || data[1] != UsbConst.DESCRIPTOR_TYPE_STRING)
+            throw new UsbException("Invalid string descriptor");
+        return Math.min(data[0] & 0xff, actualLength) & ~1;
+    }
+
+    /**
+     * Returns the cache key for the specified language ID and string index.
+     * 
+     * @param langId
+     *            The language ID.
+     * @param index
+     *            The string index.
+     * @return The cache key.
+     */
+    private static Integer key(short langId, byte index)
+    {
+        return ((langId & 0xffff) << 8) | (index & 0xff);
+    }
+
+    /**
+     * Returns the number of strings which were found in the cache.
+     * 
+     * @return The number of cache hits.
+     */
+    public long getHitCount()
+    {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of strings which were fetched from devices.
+     * 
+     * @return The number of fetched strings.
+     */
+    public long getFetchCount()
+    {
+        return this.fetchCount.get();
+    }
+
+    /**
+     * The cached strings of a single device.
+     */
+    private static final class DeviceStrings
+    {
+        /** The supported language IDs. Null if not fetched yet. */
+        short[] langIds;
+
+        /** The strings mapped by language ID and string index. */
+        final Map<Integer, String> values = new HashMap<Integer, String>();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.usb.UsbException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link AdbDevice} class with a simulated USB interface.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbDeviceTest
+{
+    /**
+     * Sends and receives the specified number of messages.
+     * 
+     * @param device
+     *            The open device.
+     * @param count
+     *            The number of round trips.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    private static void roundTrips(AdbDevice device, int count)
+        throws UsbException
+    {
+        for (int i = 0; i < count; i++)
+        {
+            device.sendMessage(new OkayMessage(1, 2));
+            assertTrue(device.receiveMessage() instanceof OkayMessage);
+        }
+    }
+
+    /**
+     * Tests that the pipes are only opened once while the device is open.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test
+    public void testPipesKeptOpen() throws UsbException
+    {
+        SimulatedInterface iface = new SimulatedInterface(new OkayMessage(2,
+            1), 0);
+        AdbDevice device = iface.createDevice();
+        device.open();
+        roundTrips(device, 10);
+        device.close();
+        assertEquals(2, iface.getOpenCount());
+    }
+
+    /**
+     * Tests that the pipes are opened for each message in pipe-per-message
+     * mode.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test
+    public void testPipePerMessage() throws UsbException
+    {
+        SimulatedInterface iface = new SimulatedInterface(new OkayMessage(2,
+            1), 0);
+        AdbDevice device = iface.createDevice();
+        device.setPipePerMessage(true);
+        device.open();
+        roundTrips(device, 10);
+        device.close();
+        assertEquals(20, iface.getOpenCount());
+    }
+
+    /**
+     * Tests that the pipe mode can't be changed while the device is open.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testPipeModeLockedWhileOpen() throws UsbException
+    {
+        AdbDevice device = new SimulatedInterface(new OkayMessage(2, 1), 0)
+            .createDevice();
+        device.open();
+        device.setPipePerMessage(true);
+    }
+
+    /**
+     * Creates a simulated device which answers with an AUTH token and a
+     * CONNECT message of a modern peer, both with zero data checksums.
+     * 
+     * @return The ADB device.
+     */
+    private static AdbDevice createModernPeer()
+    {
+        return new SimulatedInterface(0, false, new AuthMessage(
+            AuthMessage.TYPE_TOKEN, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9,
+                10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 }),
+            new ConnectMessage(
+            ConnectMessage.PROTOCOL_VERSION_SKIP_CHECKSUM,
+            ConnectMessage.DEFAULT_MAX_DATA, ConnectMessage.SYSTEM_TYPE_DEVICE,
+            "", "")).createDevice();
+    }
+
+    /**
+     * Tests that a peer which skips data checksums as soon as it received our
+     * CONNECT message is accepted.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test
+    public void testReceiveWithoutChecksum() throws UsbException
+    {
+        AdbDevice device = createModernPeer();
+        device.open();
+        device.sendMessage(new ConnectMessage(
+            ConnectMessage.SYSTEM_TYPE_HOST, "", ""));
+        assertTrue(device.isChecksumRequired());
+        assertTrue(device.receiveMessage() instanceof AuthMessage);
+        assertTrue(device.receiveMessage() instanceof ConnectMessage);
+        assertFalse(device.isChecksumRequired());
+        device.close();
+    }
+
+    /**
+     * Tests that zero data checksums are rejected when only the legacy
+     * protocol version has been announced.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test(expected = InvalidMessageException.class)
+    public void testLegacyRejectsMissingChecksum() throws UsbException
+    {
+        AdbDevice device = createModernPeer();
+        device.open();
+        device.sendMessage(new ConnectMessage(
+            ConnectMessage.LEGACY_PROTOCOL_VERSION,
+            ConnectMessage.LEGACY_MAX_DATA, ConnectMessage.SYSTEM_TYPE_HOST,
+            "", ""));
+        device.receiveMessage();
+    }
+
+    /**
+     * Tests the handshake of the default CONNECT message with a modern peer
+     * which answers without data checksums.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test
+    public void testNegotiateModernPeer() throws UsbException
+    {
+        AdbDevice device = createModernPeer();
+        device.open();
+        device.sendMessage(new ConnectMessage(
+            ConnectMessage.SYSTEM_TYPE_HOST, "", ""));
+        assertEquals(ConnectMessage.LEGACY_PROTOCOL_VERSION,
+            device.getProtocolVersion());
+        device.receiveMessage();
+        device.receiveMessage();
+        assertEquals(ConnectMessage.DEFAULT_PROTOCOL_VERSION,
+            device.getProtocolVersion());
+        assertEquals(ConnectMessage.DEFAULT_MAX_DATA, device.getMaxData());
+        device.close();
+    }
+
+    /**
+     * Tests the handshake of the default CONNECT message with a legacy peer.
+     * 
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Test
+    public void testNegotiateLegacyPeer() throws UsbException
+    {
+        AdbDevice device = new SimulatedInterface(new ConnectMessage(
+            ConnectMessage.LEGACY_PROTOCOL_VERSION,
+            ConnectMessage.LEGACY_MAX_DATA, ConnectMessage.SYSTEM_TYPE_DEVICE,
+            "", ""), 0).createDevice();
+        device.open();
+        device.sendMessage(new ConnectMessage(
+            ConnectMessage.SYSTEM_TYPE_HOST, "", ""));
+        assertTrue(device.receiveMessage() instanceof ConnectMessage);
+        assertEquals(ConnectMessage.LEGACY_PROTOCOL_VERSION,
+            device.getProtocolVersion());
+        assertEquals(ConnectMessage.LEGACY_MAX_DATA, device.getMaxData());
+        assertTrue(device.isChecksumRequired());
+        device.close();
+    }
+
+    /**
+     * Tests that closing the device fails the futures of asynchronously sent
+     * messages which are still queued behind a blocked write.
+     * 
+     * @throws Exception
+     *             When test fails.
+     */
+    @Test
+    public void testCloseFailsPendingSends() throws Exception
+    {
+        SimulatedInterface iface = new SimulatedInterface(new OkayMessage(2,
+            1), 0);
+        AdbDevice device = iface.createDevice();
+        device.open();
+        iface.setOutBlocked(true);
+        List<SendFuture> futures = new ArrayList<SendFuture>();
+        for (int i = 0; i < 5; i++)
+            futures.add(device.sendMessageAsync(new WriteMessage(1, 2,
+                new byte[] { (byte) i })));
+        assertEquals(10, iface.getHeldCount());
+        device.close();
+        assertEquals(0, iface.getHeldCount());
+        for (SendFuture future: futures)
+        {
+            assertTrue(future.isDone());
+            try
+            {
+                future.get();
+                fail("Expected send to fail");
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof UsbException);
+            }
+        }
+    }
+}
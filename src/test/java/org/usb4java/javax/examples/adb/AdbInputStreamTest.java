@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link AdbInputStream} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbInputStreamTest
+{
+    /**
+     * Creates test data.
+     * 
+     * @param size
+     *            The data size.
+     * @return The test data.
+     */
+    private static byte[] createData(int size)
+    {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i * 7);
+        return data;
+    }
+
+    /**
+     * Tests reading single bytes, arrays and buffers across chunks.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testRead() throws IOException
+    {
+        byte[] data = createData(100);
+        MemoryStream stream = new MemoryStream();
+        stream.receive(data, 7);
+        stream.receive(new byte[0]);
+        AdbInputStream in = new AdbInputStream(stream);
+        byte[] read = new byte[data.length];
+        read[0] = (byte) in.read();
+        in.readFully(read, 1, 49);
+        ByteBuffer buffer = ByteBuffer.wrap(read, 50, 50);
+        while (buffer.hasRemaining())
+            in.read(buffer);
+        assertArrayEquals(data, read);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(ByteBuffer.allocate(1)));
+        assertEquals(0, stream.getPool().getOutstandingCount());
+    }
+
+    /**
+     * Tests that a message is released as soon as its payload has been read
+     * completely.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testReleaseWhenConsumed() throws IOException
+    {
+        MemoryStream stream = new MemoryStream();
+        stream.receive(createData(10));
+        stream.receive(createData(10));
+        AdbInputStream in = new AdbInputStream(stream);
+        byte[] buffer = new byte[10];
+        assertEquals(5, in.read(buffer, 0, 5));
+        assertEquals(1, stream.getPool().getOutstandingCount());
+        assertEquals(5, in.available());
+        assertEquals(5, in.read(buffer, 5, 5));
+        assertEquals(0, stream.getPool().getOutstandingCount());
+        assertEquals(0, in.available());
+    }
+
+    /**
+     * Tests that closing the stream releases the current message.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testCloseReleases() throws IOException
+    {
+        MemoryStream stream = new MemoryStream();
+        stream.receive(createData(10));
+        AdbInputStream in = new AdbInputStream(stream);
+        in.read();
+        in.close();
+        assertEquals(0, stream.getPool().getOutstandingCount());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link AdbReader} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbReaderTest
+{
+    /** Text with two, three and four byte UTF-8 sequences. */
+    private static final String TEXT = "héllo €uro 😀!";
+
+    /**
+     * Reads all characters from the specified reader.
+     * 
+     * @param reader
+     *            The reader.
+     * @return The read text.
+     * @throws IOException
+     *             When reading failed.
+     */
+    private static String readAll(AdbReader reader) throws IOException
+    {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[3];
+        int read;
+        while ((read = reader.read(buffer, 0, buffer.length)) >= 0)
+            builder.append(buffer, 0, read);
+        return builder.toString();
+    }
+
+    /**
+     * Tests decoding when the text is split at every possible position.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testSplitCharacters() throws IOException
+    {
+        byte[] data = TEXT.getBytes(AdbReader.UTF8);
+        for (int split = 1; split < data.length; split++)
+        {
+            MemoryStream stream = new MemoryStream();
+            byte[] head = new byte[split];
+            byte[] tail = new byte[data.length - split];
+            System.arraycopy(data, 0, head, 0, head.length);
+            System.arraycopy(data, split, tail, 0, tail.length);
+            stream.receive(head);
+            stream.receive(tail);
+            assertEquals("Split at " + split, TEXT,
+                readAll(new AdbReader(stream)));
+            assertEquals(0, stream.getPool().getOutstandingCount());
+        }
+    }
+
+    /**
+     * Tests decoding when every byte is received separately.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testSingleByteChunks() throws IOException
+    {
+        MemoryStream stream = new MemoryStream();
+        stream.receive(TEXT.getBytes(AdbReader.UTF8), 1);
+        assertEquals(TEXT, readAll(new AdbReader(stream)));
+        assertEquals(0, stream.getPool().getOutstandingCount());
+    }
+
+    /**
+     * Tests that an incomplete sequence at the end of the stream is
+     * replaced.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testIncompleteSequenceAtEnd() throws IOException
+    {
+        MemoryStream stream = new MemoryStream();
+        stream.receive(new byte[] { 'a', (byte) 0xe2 });
+        stream.receive(new byte[] { (byte) 0x82 });
+        assertEquals("a�", readAll(new AdbReader(stream)));
+    }
+
+    /**
+     * Tests reading lines which are terminated by LF or CRLF and split
+     * across chunks.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testReadLine() throws IOException
+    {
+        MemoryStream stream = new MemoryStream();
+        stream.receive(("first\r\nsecond " + TEXT + "\n\nlast")
+            .getBytes(AdbReader.UTF8), 4);
+        AdbReader reader = new AdbReader(stream);
+        assertEquals("first", reader.readLine());
+        assertEquals("second " + TEXT, reader.readLine());
+        assertEquals("", reader.readLine());
+        assertEquals("last", reader.readLine());
+        assertNull(reader.readLine());
+    }
+}
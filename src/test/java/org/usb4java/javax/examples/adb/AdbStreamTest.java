@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.usb.UsbException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the write window of the {@link AdbStream} class. The stream writes to
+ * a simulated device and acknowledgements are simulated by calling
+ * {@link AdbStream#okayReceived(int)}.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class AdbStreamTest
+{
+    /** The remote ID of the tested stream. */
+    private static final int REMOTE_ID = 5;
+
+    /** The simulated ADB device. */
+    private AdbDevice device;
+
+    /** The tested stream with a maximum payload of 4 and a window of 2. */
+    private AdbStream stream;
+
+    /**
+     * Opens the simulated device and the stream.
+     * 
+     * @throws UsbException
+     *             When device could not be opened.
+     */
+    @Before
+    public void setUp() throws UsbException
+    {
+        this.device = new SimulatedInterface(new OkayMessage(REMOTE_ID, 1),
+            0).createDevice();
+        this.device.open();
+        this.stream = new AdbStream(new StreamMultiplexer(this.device, 4), 1,
+            "test:", 2);
+        this.stream.okayReceived(REMOTE_ID);
+    }
+
+    /**
+     * Closes the simulated device.
+     * 
+     * @throws UsbException
+     *             When device could not be closed.
+     */
+    @After
+    public void tearDown() throws UsbException
+    {
+        this.device.close();
+    }
+
+    /**
+     * Starts a thread which writes the specified data to the stream.
+     * 
+     * @param data
+     *            The data to write.
+     * @return The started thread.
+     */
+    private Thread startWriter(final byte[] data)
+    {
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    AdbStreamTest.this.stream.write(data);
+                }
+                catch (IOException e)
+                {
+                    // Expected when the stream is closed while waiting
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Tests that writes are split into messages of the maximum payload size
+     * and that a write waits when the window is full.
+     * 
+     * @throws InterruptedException
+     *             When test has been interrupted.
+     */
+    @Test
+    public void testWriteWindow() throws InterruptedException
+    {
+        Thread writer = startWriter(new byte[10]);
+        writer.join(100);
+        assertTrue(writer.isAlive());
+        assertEquals(2, this.device.getSentMessageCount());
+        assertEquals(2, this.stream.getUnacknowledgedWrites());
+
+        this.stream.okayReceived(REMOTE_ID);
+        writer.join(1000);
+        assertFalse(writer.isAlive());
+        assertEquals(3, this.device.getSentMessageCount());
+        assertEquals(2, this.stream.getUnacknowledgedWrites());
+    }
+
+    /**
+     * Tests that closing the stream releases a waiting writer.
+     * 
+     * @throws Exception
+     *             When test fails.
+     */
+    @Test
+    public void testCloseReleasesWriter() throws Exception
+    {
+        Thread writer = startWriter(new byte[12]);
+        writer.join(100);
+        assertTrue(writer.isAlive());
+        this.stream.close();
+        writer.join(1000);
+        assertFalse(writer.isAlive());
+
+        // Two writes and the CLSE message
+        assertEquals(3, this.device.getSentMessageCount());
+    }
+}
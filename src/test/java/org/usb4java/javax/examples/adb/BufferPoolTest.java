@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link BufferPool} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class BufferPoolTest
+{
+    /**
+     * Tests that released buffers are reused.
+     */
+    @Test
+    public void testReuse()
+    {
+        BufferPool pool = new BufferPool(16, 2);
+        byte[] buffer = pool.borrow();
+        assertEquals(16, buffer.length);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getOutstandingCount());
+        pool.release(buffer);
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(1, pool.getFreeCount());
+        assertSame(buffer, pool.borrow());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    /**
+     * Tests that no more than the maximum number of buffers are kept.
+     */
+    @Test
+    public void testMaxPooled()
+    {
+        BufferPool pool = new BufferPool(16, 1);
+        byte[] a = pool.borrow();
+        byte[] b = pool.borrow();
+        assertNotSame(a, b);
+        assertEquals(2, pool.getOutstandingCount());
+        pool.release(a);
+        pool.release(b);
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(1, pool.getFreeCount());
+        assertSame(a, pool.borrow());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    /**
+     * Tests that disabled pooling always creates new buffers.
+     */
+    @Test
+    public void testNoPooling()
+    {
+        BufferPool pool = new BufferPool(16, 0);
+        byte[] buffer = pool.borrow();
+        pool.release(buffer);
+        assertEquals(0, pool.getFreeCount());
+        assertNotSame(buffer, pool.borrow());
+    }
+
+    /**
+     * Tests that foreign buffers are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseForeignBuffer()
+    {
+        new BufferPool(16, 1).release(new byte[8]);
+    }
+
+    /**
+     * Tests that invalid buffer sizes are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBufferSize()
+    {
+        new BufferPool(0, 1);
+    }
+}
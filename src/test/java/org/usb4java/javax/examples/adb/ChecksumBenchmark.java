@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the old byte-by-byte checksum loop with
+ * {@link Message#checksum(byte[], int, int)} and measures the cost of
+ * writing the header of a new message with and without the checksum. The
+ * latter is what peers with protocol version
+ * {@link ConnectMessage#PROTOCOL_VERSION_SKIP_CHECKSUM} allow.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChecksumBenchmark
+{
+    /** The payload size. */
+    @Param({ "4096", "262144" })
+    public int size;
+
+    /** The payload. */
+    private byte[] data;
+
+    /** The buffer the message header is written to. */
+    private final byte[] header = new byte[MessageHeader.SIZE];
+
+    /**
+     * Creates the payload with random content.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.data = new byte[this.size];
+        new Random(1).nextBytes(this.data);
+    }
+
+    /**
+     * Calculates the checksum byte by byte like before.
+     * 
+     * @return The checksum.
+     */
+    @Benchmark
+    public int byteLoop()
+    {
+        int checksum = 0;
+        for (byte b: this.data)
+            checksum += b & 0xff;
+        return checksum;
+    }
+
+    /**
+     * Calculates the checksum with {@link Message#checksum(byte[], int, int)}.
+     * 
+     * @return The checksum.
+     */
+    @Benchmark
+    public int checksum()
+    {
+        return Message.checksum(this.data, 0, this.data.length);
+    }
+
+    /**
+     * Creates a message and writes its header with the checksum.
+     * 
+     * @return The written header.
+     */
+    @Benchmark
+    public byte[] headerWithChecksum()
+    {
+        new WriteMessage(1, 2, this.data).getHeader().writeTo(this.header, 0,
+            true);
+        return this.header;
+    }
+
+    /**
+     * Creates a message and writes its header without the checksum. The
+     * payload is not touched at all.
+     * 
+     * @return The written header.
+     */
+    @Benchmark
+    public byte[] headerSkipChecksum()
+    {
+        new WriteMessage(1, 2, this.data).getHeader().writeTo(this.header, 0,
+            false);
+        return this.header;
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The command line arguments. Not used.
+     * @throws RunnerException
+     *             When benchmark failed.
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(
+            ChecksumBenchmark.class.getSimpleName()).build()).run();
+    }
+}
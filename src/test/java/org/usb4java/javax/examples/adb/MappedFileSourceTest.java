@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link MappedFileSource} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class MappedFileSourceTest
+{
+    /** The content of the test file. */
+    private byte[] content;
+
+    /** The test file. */
+    private File file;
+
+    /** The opened test file. */
+    private RandomAccessFile raf;
+
+    /**
+     * Creates and opens the test file.
+     * 
+     * @throws IOException
+     *             When test file could not be created.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        this.content = new byte[1000];
+        for (int i = 0; i < this.content.length; i++)
+            this.content[i] = (byte) (i * 7);
+        this.file = File.createTempFile("usb4java", ".bin");
+        FileOutputStream out = new FileOutputStream(this.file);
+        try
+        {
+            out.write(this.content);
+        }
+        finally
+        {
+            out.close();
+        }
+        this.raf = new RandomAccessFile(this.file, "r");
+    }
+
+    /**
+     * Closes and deletes the test file.
+     * 
+     * @throws IOException
+     *             When test file could not be closed.
+     */
+    @After
+    public void tearDown() throws IOException
+    {
+        this.raf.close();
+        this.file.delete();
+    }
+
+    /**
+     * Reads all remaining bytes from the specified source.
+     * 
+     * @param source
+     *            The source.
+     * @param bufferSize
+     *            The size of the target buffer.
+     * @return The read bytes.
+     * @throws IOException
+     *             When reading failed.
+     */
+    private static byte[] readAll(MappedFileSource source, int bufferSize)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        while (source.read(buffer) >= 0)
+        {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a range of the file content.
+     * 
+     * @param start
+     *            The start position.
+     * @param end
+     *            The end position.
+     * @return The content range.
+     */
+    private byte[] range(int start, int end)
+    {
+        byte[] data = new byte[end - start];
+        System.arraycopy(this.content, start, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Tests reading the whole file with windows and buffers which don't
+     * divide the file size.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testReadAcrossWindows() throws IOException
+    {
+        FileChannel channel = this.raf.getChannel();
+        MappedFileSource source = new MappedFileSource(channel, 0,
+            channel.size(), 64);
+        assertEquals(1000, source.getRemaining());
+        assertArrayEquals(this.content, readAll(source, 37));
+        assertEquals(0, source.getRemaining());
+        assertEquals(-1, source.read(ByteBuffer.allocate(1)));
+    }
+
+    /**
+     * Tests reading a range of the file and the remaining byte count.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testReadRange() throws IOException
+    {
+        MappedFileSource source = new MappedFileSource(this.raf.getChannel(),
+            100, 300, 150);
+        ByteBuffer buffer = ByteBuffer.allocate(50);
+        assertEquals(50, source.read(buffer));
+        assertArrayEquals(range(100, 150), buffer.array());
+        assertEquals(150, source.getRemaining());
+        assertArrayEquals(range(150, 300), readAll(source, 1000));
+    }
+
+    /**
+     * Tests that the default constructor starts at the channel position.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test
+    public void testStartAtChannelPosition() throws IOException
+    {
+        FileChannel channel = this.raf.getChannel();
+        channel.position(900);
+        MappedFileSource source = new MappedFileSource(channel);
+        assertEquals(100, source.getRemaining());
+        assertArrayEquals(range(900, 1000), readAll(source, 64));
+    }
+
+    /**
+     * Tests that reading from a closed source fails.
+     * 
+     * @throws IOException
+     *             When reading failed.
+     */
+    @Test(expected = ClosedChannelException.class)
+    public void testReadClosed() throws IOException
+    {
+        MappedFileSource source = new MappedFileSource(this.raf.getChannel());
+        source.close();
+        assertFalse(source.isOpen());
+        source.read(ByteBuffer.allocate(1));
+    }
+
+    /**
+     * Tests that an invalid range is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange()
+    {
+        new MappedFileSource(this.raf.getChannel(), 10, 5, 64);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * ADB stream which is not connected to a device. Received data is taken
+ * from a queue of chunks and written data is collected in memory. Received
+ * chunks which fit into the buffers of the pool are returned in pooled
+ * messages so tests can check that all messages are released.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+class MemoryStream extends AdbStream
+{
+    /** The chunks returned by {@link #readMessage()}. */
+    private final Queue<byte[]> chunks = new LinkedList<byte[]>();
+
+    /** The written data. */
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    /** If stream has been closed. */
+    private boolean closed;
+
+    /** The pool for the payloads of received messages. */
+    private final BufferPool pool = new BufferPool(4096, 4);
+
+    /**
+     * Constructs a new memory stream.
+     */
+    MemoryStream()
+    {
+        super(null, 1, "test:", 1);
+    }
+
+    /**
+     * Queues a chunk of received data.
+     * 
+     * @param data
+     *            The received data.
+     */
+    void receive(byte[] data)
+    {
+        this.chunks.add(data);
+    }
+
+    /**
+     * Queues received data split into chunks of the specified size.
+     * 
+     * @param data
+     *            The received data.
+     * @param chunkSize
+     *            The maximum size of a chunk.
+     */
+    void receive(byte[] data, int chunkSize)
+    {
+        for (int i = 0; i < data.length; i += chunkSize)
+        {
+            byte[] chunk = new byte[Math.min(chunkSize, data.length - i)];
+            System.arraycopy(data, i, chunk, 0, chunk.length);
+            this.chunks.add(chunk);
+        }
+    }
+
+    /**
+     * Returns the written data and forgets it.
+     * 
+     * @return The written data.
+     */
+    byte[] takeWritten()
+    {
+        byte[] data = this.written.toByteArray();
+        this.written.reset();
+        return data;
+    }
+
+    /**
+     * Returns the pool for the payloads of received messages.
+     * 
+     * @return The buffer pool.
+     */
+    BufferPool getPool()
+    {
+        return this.pool;
+    }
+
+    @Override
+    synchronized Message readMessage()
+    {
+        byte[] chunk = this.chunks.poll();
+        if (chunk == null) return null;
+        if (chunk.length > this.pool.getBufferSize())
+            return new WriteMessage(1, 1, chunk);
+        byte[] buffer = this.pool.borrow();
+        System.arraycopy(chunk, 0, buffer, 0, chunk.length);
+        Message message = new WriteMessage(1, 1, ByteBuffer.wrap(buffer, 0,
+            chunk.length));
+        message.setPooledBuffer(this.pool, buffer);
+        return message;
+    }
+
+    @Override
+    public void write(byte[] data)
+    {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length)
+    {
+        this.written.write(data, offset, length);
+    }
+
+    @Override
+    public void write(ByteBuffer buffer)
+    {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        write(data);
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return !this.closed;
+    }
+
+    @Override
+    public void close()
+    {
+        this.closed = true;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.usb.UsbException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link MessageReceiver} class with a simulated USB interface.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class MessageReceiverTest
+{
+    /** The simulated ADB device which endlessly receives WRTE messages. */
+    private AdbDevice device;
+
+    /**
+     * Opens the simulated device with buffer pooling enabled.
+     * 
+     * @throws UsbException
+     *             When device could not be opened.
+     */
+    @Before
+    public void setUp() throws UsbException
+    {
+        this.device = new SimulatedInterface(new WriteMessage(2, 1,
+            new byte[100]), 0).createDevice();
+        this.device.setBufferPooling(true);
+        this.device.open();
+    }
+
+    /**
+     * Closes the simulated device.
+     * 
+     * @throws UsbException
+     *             When device could not be closed.
+     */
+    @After
+    public void tearDown() throws UsbException
+    {
+        this.device.close();
+    }
+
+    /**
+     * Tests that dropped and discarded messages are released.
+     * 
+     * @throws InterruptedException
+     *             When test has been interrupted.
+     */
+    @Test
+    public void testDropReleasesMessages() throws InterruptedException
+    {
+        MessageReceiver receiver = this.device.startReceiver(2,
+            OverflowPolicy.DROP);
+        while (receiver.getDroppedCount() < 10)
+            Thread.sleep(1);
+        this.device.stopReceiver();
+        assertEquals(0, this.device.getBufferPool().getOutstandingCount());
+    }
+
+    /**
+     * Tests that a message waiting for a queue slot is released when the
+     * receiver is stopped in BLOCK mode.
+     * 
+     * @throws InterruptedException
+     *             When test has been interrupted.
+     */
+    @Test
+    public void testBlockStopReleasesMessages() throws InterruptedException
+    {
+        MessageReceiver receiver = this.device.startReceiver(2,
+            OverflowPolicy.BLOCK);
+        while (receiver.getReceivedCount() < 3)
+            Thread.sleep(1);
+        this.device.stopReceiver();
+        assertEquals(0, this.device.getBufferPool().getOutstandingCount());
+    }
+
+    /**
+     * Tests that a stream multiplexer refuses a dropping receiver.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testMultiplexerRejectsDrop()
+    {
+        this.device.startReceiver(2, OverflowPolicy.DROP);
+        new StreamMultiplexer(this.device).start();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link Message} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class MessageTest
+{
+    /**
+     * Calculates the checksum the simple way.
+     * 
+     * @param data
+     *            The data.
+     * @param offset
+     *            The offset of the data.
+     * @param length
+     *            The length of the data.
+     * @return The checksum.
+     */
+    private static int sum(byte[] data, int offset, int length)
+    {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i++)
+            sum += data[i] & 0xff;
+        return sum;
+    }
+
+    /**
+     * Tests the checksum of arrays with random content, offsets and lengths.
+     */
+    @Test
+    public void testChecksumOfArrays()
+    {
+        Random random = new Random(1);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        for (int i = 0; i < 1000; i++)
+        {
+            int offset = random.nextInt(64);
+            int length = random.nextInt(data.length - offset);
+            assertEquals(sum(data, offset, length),
+                Message.checksum(data, offset, length));
+        }
+    }
+
+    /**
+     * Tests the checksum of heap, direct and sliced buffers.
+     */
+    @Test
+    public void testChecksumOfBuffers()
+    {
+        Random random = new Random(2);
+        byte[] data = new byte[1000];
+        random.nextBytes(data);
+        int expected = sum(data, 3, 990);
+
+        ByteBuffer heap = ByteBuffer.wrap(data, 3, 990);
+        assertEquals(expected, Message.checksum(heap));
+        assertEquals(3, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).position(3).limit(993);
+        assertEquals(expected, Message.checksum(direct));
+        assertEquals(expected, Message.checksum(direct.slice()));
+
+        ByteBuffer slice = ByteBuffer.wrap(data);
+        slice.position(3);
+        slice = slice.slice();
+        slice.limit(990);
+        assertEquals(expected, Message.checksum(slice));
+    }
+
+    /**
+     * Tests the checksum of large payloads which contain only 0xff bytes so
+     * the parallel summation must not overflow.
+     */
+    @Test
+    public void testChecksumWithoutOverflow()
+    {
+        byte[] data = new byte[256 * 1024];
+        Arrays.fill(data, (byte) 0xff);
+        assertEquals(data.length * 0xff, Message.checksum(data, 0,
+            data.length));
+        assertEquals(0, Message.checksum(new byte[0], 0, 0));
+    }
+
+    /**
+     * Tests that the payload array is returned when it is not pooled.
+     */
+    @Test
+    public void testGetDataOfUnpooledPayload()
+    {
+        byte[] data = new byte[] { 1, 2, 3, 4 };
+        Message message = new WriteMessage(1, 2, data);
+        assertSame(data, message.getData());
+    }
+
+    /**
+     * Tests that a pooled payload array is never returned because it is
+     * reused after the message has been released.
+     */
+    @Test
+    public void testGetDataOfPooledPayload()
+    {
+        BufferPool pool = new BufferPool(4, 1);
+        byte[] buffer = pool.borrow();
+        System.arraycopy(new byte[] { 1, 2, 3, 4 }, 0, buffer, 0, 4);
+        Message message = new WriteMessage(1, 2, buffer);
+        message.setPooledBuffer(pool, buffer);
+        byte[] data = message.getData();
+        assertNotSame(buffer, data);
+        message.release();
+        assertSame(buffer, pool.borrow());
+        Arrays.fill(buffer, (byte) 0);
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, data);
+        assertNotSame(buffer, message.getData());
+    }
+}
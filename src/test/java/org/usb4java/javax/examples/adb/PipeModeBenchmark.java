@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.usb.UsbException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the latency of a message round trip when the USB pipes are opened
+ * and closed for each message with the latency when the pipes are kept open.
+ * The device is simulated by {@link SimulatedInterface} so the measured time
+ * is the overhead of the pipe handling plus the simulated cost of opening
+ * and closing a pipe.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PipeModeBenchmark
+{
+    /** If pipes are opened and closed for each message. */
+    @Param({ "false", "true" })
+    public boolean pipePerMessage;
+
+    /** The simulated CPU work for opening or closing a pipe. */
+    @Param({ "0", "1000" })
+    public long openCost;
+
+    /** The message sent in each round trip. */
+    private final Message request = new OkayMessage(1, 2);
+
+    /** The simulated ADB device. */
+    private AdbDevice device;
+
+    /**
+     * Opens the simulated device.
+     * 
+     * @throws UsbException
+     *             When device could not be opened.
+     */
+    @Setup
+    public void setUp() throws UsbException
+    {
+        this.device = new SimulatedInterface(new OkayMessage(2, 1),
+            this.openCost).createDevice();
+        this.device.setPipePerMessage(this.pipePerMessage);
+        this.device.open();
+    }
+
+    /**
+     * Closes the simulated device.
+     * 
+     * @throws UsbException
+     *             When device could not be closed.
+     */
+    @TearDown
+    public void tearDown() throws UsbException
+    {
+        this.device.close();
+    }
+
+    /**
+     * Sends a message and receives the answer.
+     * 
+     * @return The received message.
+     * @throws UsbException
+     *             When USB communication failed.
+     */
+    @Benchmark
+    public Message roundTrip() throws UsbException
+    {
+        this.device.sendMessage(this.request);
+        return this.device.receiveMessage();
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args
+     *            The command line arguments. Not used.
+     * @throws RunnerException
+     *             When benchmark failed.
+     */
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(
+            PipeModeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link PushCache} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class PushCacheTest
+{
+    /** The SHA-1 hash of "hello". */
+    private static final String HELLO_HASH =
+        "AAF4C61DDCC5E8A2DABEDE0F3B482CD9AEA9434D";
+
+    /** The SHA-1 hash of "jello". */
+    private static final String JELLO_HASH =
+        "2CED3EE86F82BF91C15CC30605DF6D3DDF0769FF";
+
+    /** The cache file. */
+    private File cacheFile;
+
+    /** The local file. */
+    private File file;
+
+    /** The tested cache. */
+    private PushCache cache;
+
+    /**
+     * Creates the local file and an empty cache.
+     * 
+     * @throws IOException
+     *             When files could not be created.
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        this.cacheFile = File.createTempFile("usb4java", ".properties");
+        this.cacheFile.delete();
+        this.file = File.createTempFile("usb4java", ".txt");
+        write(this.file, "hello");
+        this.cache = new PushCache(this.cacheFile);
+    }
+
+    /**
+     * Deletes the files.
+     */
+    @After
+    public void tearDown()
+    {
+        this.cacheFile.delete();
+        this.file.delete();
+    }
+
+    /**
+     * Writes the specified text into the specified file.
+     * 
+     * @param file
+     *            The file to write.
+     * @param text
+     *            The text to write.
+     * @throws IOException
+     *             When writing failed.
+     */
+    private static void write(File file, String text) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(text.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates the STAT result of an existing regular file.
+     * 
+     * @param size
+     *            The reported size.
+     * @param time
+     *            The reported modification time.
+     * @return The STAT result.
+     */
+    private static RemoteFile stat(long size, long time)
+    {
+        return new RemoteFile(null, SyncClient.DEFAULT_MODE, size, time);
+    }
+
+    /**
+     * Tests that hashes are cached by size and modification time of the
+     * local file.
+     * 
+     * @throws IOException
+     *             When file could not be hashed.
+     */
+    @Test
+    public void testGetHash() throws IOException
+    {
+        long lastModified = this.file.lastModified();
+        assertEquals(HELLO_HASH, this.cache.getHash(this.file));
+
+        // Same size and modification time. The cached hash is returned.
+        write(this.file, "jello");
+        this.file.setLastModified(lastModified);
+        assertEquals(HELLO_HASH, this.cache.getHash(this.file));
+
+        // Changed modification time. The file is hashed again.
+        this.file.setLastModified(lastModified - 2000);
+        assertEquals(JELLO_HASH, this.cache.getHash(this.file));
+    }
+
+    /**
+     * Tests matching the hash of pushed content.
+     */
+    @Test
+    public void testMatches()
+    {
+        this.cache.put("/x", 5, 1000, HELLO_HASH);
+        assertTrue(this.cache.matches("/x", stat(5, 1000), HELLO_HASH));
+        assertFalse(this.cache.matches("/x", stat(5, 1000), JELLO_HASH));
+        assertFalse(this.cache.matches("/x", stat(6, 1000), HELLO_HASH));
+        assertFalse(this.cache.matches("/x", stat(5, 1001), HELLO_HASH));
+        assertFalse(this.cache.matches("/x", new RemoteFile(null, 0, 0, 0),
+            HELLO_HASH));
+        assertFalse(this.cache.matches("/y", stat(5, 1000), HELLO_HASH));
+    }
+
+    /**
+     * Tests that sizes of 4 GiB and more match the 32 bit size reported by
+     * STAT.
+     */
+    @Test
+    public void testMatchesLargeFile()
+    {
+        this.cache.put("/x", 0x100000005L, 1000, HELLO_HASH);
+        assertTrue(this.cache.matches("/x", stat(5, 1000), HELLO_HASH));
+    }
+
+    /**
+     * Tests that the local file is not hashed when the remote file doesn't
+     * match the last push.
+     * 
+     * @throws IOException
+     *             When file could not be hashed.
+     */
+    @Test
+    public void testMatchesFileSkipsHash() throws IOException
+    {
+        this.cache.put("/x", 5, 1000, HELLO_HASH);
+        this.cache.save();
+
+        // Saving only writes the cache file when a hash has been added
+        this.cacheFile.delete();
+        assertFalse(this.cache.matches("/x", stat(5, 999), this.file));
+        assertFalse(this.cache.matches("/x", new RemoteFile(null, 0, 0, 0),
+            this.file));
+        this.cache.save();
+        assertFalse(this.cacheFile.exists());
+
+        assertTrue(this.cache.matches("/x", stat(5, 1000), this.file));
+        this.cache.save();
+        assertTrue(this.cacheFile.exists());
+    }
+
+    /**
+     * Tests that saved entries are loaded again.
+     * 
+     * @throws IOException
+     *             When cache could not be saved.
+     */
+    @Test
+    public void testSaveAndLoad() throws IOException
+    {
+        this.cache.put("/x", 5, 1000, HELLO_HASH);
+        this.cache.save();
+        PushCache loaded = new PushCache(this.cacheFile);
+        assertTrue(loaded.matches("/x", stat(5, 1000), HELLO_HASH));
+    }
+}
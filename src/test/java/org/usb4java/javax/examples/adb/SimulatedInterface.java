@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.usb.UsbEndpoint;
+import javax.usb.UsbInterface;
+import javax.usb.UsbIrp;
+import javax.usb.UsbPipe;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Simulated USB interface of an ADB device which is built from dynamic
+ * proxies. The out pipe accepts all data and the in pipe answers every read
+ * with the bytes of a fixed sequence of response messages. Opening and
+ * closing a pipe can be made expensive to simulate the cost of a real USB
+ * stack.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+class SimulatedInterface
+{
+    /** The in endpoint address. */
+    static final byte IN_ENDPOINT = (byte) 0x81;
+
+    /** The out endpoint address. */
+    static final byte OUT_ENDPOINT = 0x01;
+
+    /** The response returned by the in pipe. */
+    private final ByteBuffer response;
+
+    /** The CPU work done when a pipe is opened or closed. */
+    private final long openCost;
+
+    /** The number of times a pipe has been opened. */
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    /**
+     * If transfers submitted to the out pipe are held back instead of being
+     * completed.
+     */
+    private volatile boolean outBlocked;
+
+    /** The IRPs held back by the blocked out pipe. */
+    private final List<UsbIrp> heldIrps = new ArrayList<UsbIrp>();
+
+    /** The simulated in pipe. */
+    private final UsbPipe inPipe;
+
+    /** The simulated out pipe. */
+    private final UsbPipe outPipe;
+
+    /** The simulated interface. */
+    private final UsbInterface iface;
+
+    /**
+     * Constructs a new simulated interface.
+     * 
+     * @param response
+     *            The message returned by every read from the in pipe.
+     * @param openCost
+     *            The CPU work done when a pipe is opened or closed. See
+     *            {@link Blackhole#consumeCPU(long)}.
+     */
+    SimulatedInterface(Message response, long openCost)
+    {
+        this(openCost, true, response);
+    }
+
+    /**
+     * Constructs a new simulated interface which answers reads from the in
+     * pipe with a sequence of messages.
+     * 
+     * @param openCost
+     *            The CPU work done when a pipe is opened or closed. See
+     *            {@link Blackhole#consumeCPU(long)}.
+     * @param withChecksum
+     *            True to send the messages with data checksums, false to send
+     *            them with a zero checksum like a peer which negotiated
+     *            {@link ConnectMessage#PROTOCOL_VERSION_SKIP_CHECKSUM}.
+     * @param responses
+     *            The messages returned by the reads from the in pipe. Starts
+     *            over with the first message after the last one has been
+     *            read.
+     */
+    SimulatedInterface(long openCost, boolean withChecksum,
+        Message... responses)
+    {
+        int size = 0;
+        for (Message response: responses)
+            size += MessageHeader.SIZE + response.getHeader().getDataLength();
+        this.response = ByteBuffer.allocate(size);
+        for (Message response: responses)
+            response.writeTo(this.response, withChecksum);
+        this.response.flip();
+        this.openCost = openCost;
+        this.inPipe = createPipe(true);
+        this.outPipe = createPipe(false);
+        this.iface = (UsbInterface) create(UsbInterface.class,
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    if (method.getName().equals("getUsbEndpoint"))
+                        return createEndpoint(((Byte) args[0]).byteValue()
+                            == IN_ENDPOINT ? SimulatedInterface.this.inPipe
+                            : SimulatedInterface.this.outPipe);
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Creates a dynamic proxy.
+     * 
+     * @param type
+     *            The implemented interface.
+     * @param handler
+     *            The invocation handler.
+     * @return The proxy.
+     */
+    private static Object create(Class<?> type, InvocationHandler handler)
+    {
+        return Proxy.newProxyInstance(SimulatedInterface.class
+            .getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * Creates a simulated endpoint.
+     * 
+     * @param pipe
+     *            The pipe of the endpoint.
+     * @return The endpoint.
+     */
+    private static UsbEndpoint createEndpoint(final UsbPipe pipe)
+    {
+        return (UsbEndpoint) create(UsbEndpoint.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getUsbPipe")) return pipe;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a simulated pipe.
+     * 
+     * @param in
+     *            True for the in pipe, false for the out pipe.
+     * @return The pipe.
+     */
+    private UsbPipe createPipe(final boolean in)
+    {
+        return (UsbPipe) create(UsbPipe.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String name = method.getName();
+                if (name.equals("open") || name.equals("close"))
+                {
+                    if (name.equals("open"))
+                        SimulatedInterface.this.openCount.incrementAndGet();
+                    Blackhole.consumeCPU(SimulatedInterface.this.openCost);
+                }
+                else if (name.equals("syncSubmit")
+                    || name.equals("asyncSubmit"))
+                {
+                    if (args[0] instanceof List)
+                    {
+                        for (Object irp: (List<?>) args[0])
+                            transfer((UsbIrp) irp, in);
+                    }
+                    else
+                    {
+                        transfer((UsbIrp) args[0], in);
+                    }
+                }
+                else if (name.equals("abortAllSubmissions"))
+                {
+                    // Like usb4java aborted IRPs are dropped, not completed
+                    if (!in) synchronized (SimulatedInterface.this.heldIrps)
+                    {
+                        SimulatedInterface.this.heldIrps.clear();
+                    }
+                }
+                else if (name.equals("isOpen") || name.equals("isActive"))
+                {
+                    return true;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Completes a submitted IRP. Reads from the in pipe are filled with the
+     * next bytes of the response which starts over when it has been read
+     * completely. Writes to the blocked out pipe are held back instead.
+     * 
+     * @param irp
+     *            The submitted IRP.
+     * @param in
+     *            True if submitted to the in pipe, false if submitted to the
+     *            out pipe.
+     */
+    private void transfer(UsbIrp irp, boolean in)
+    {
+        if (!in && this.outBlocked)
+        {
+            synchronized (this.heldIrps)
+            {
+                this.heldIrps.add(irp);
+            }
+            return;
+        }
+        int length = irp.getLength();
+        if (in)
+        {
+            synchronized (this.response)
+            {
+                if (!this.response.hasRemaining()) this.response.rewind();
+                length = Math.min(length, this.response.remaining());
+                this.response.get(irp.getData(), irp.getOffset(), length);
+            }
+        }
+        irp.setActualLength(length);
+        irp.complete();
+    }
+
+    /**
+     * Creates an ADB device for the simulated interface.
+     * 
+     * @return The ADB device.
+     */
+    AdbDevice createDevice()
+    {
+        return new AdbDevice(this.iface, IN_ENDPOINT, OUT_ENDPOINT);
+    }
+
+    /**
+     * Blocks or unblocks the out pipe. While blocked the submitted transfers
+     * are queued but never completed.
+     * 
+     * @param outBlocked
+     *            True to block the out pipe, false to unblock it.
+     */
+    void setOutBlocked(boolean outBlocked)
+    {
+        this.outBlocked = outBlocked;
+    }
+
+    /**
+     * Returns the number of transfers held back by the blocked out pipe.
+     * 
+     * @return The number of held transfers.
+     */
+    int getHeldCount()
+    {
+        synchronized (this.heldIrps)
+        {
+            return this.heldIrps.size();
+        }
+    }
+
+    /**
+     * Returns the number of times a pipe has been opened.
+     * 
+     * @return The number of opened pipes.
+     */
+    int getOpenCount()
+    {
+        return this.openCount.get();
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the framing of the {@link SyncClient} against an in-memory stream.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class SyncClientTest
+{
+    /** The UTF-8 charset. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The stream the client is connected to. */
+    private MemoryStream stream;
+
+    /** The tested sync client. */
+    private SyncClient client;
+
+    /**
+     * Creates the client. DATA frames carry at most 16 bytes.
+     */
+    @Before
+    public void setUp()
+    {
+        this.stream = new MemoryStream();
+        this.client = new SyncClient(this.stream, 24);
+    }
+
+    /**
+     * Builds a sync frame.
+     * 
+     * @param id
+     *            The frame ID.
+     * @param values
+     *            The integer values following the ID.
+     * @return The frame.
+     */
+    private static byte[] frame(String id, int... values)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + values.length * 4)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(id.getBytes(UTF8));
+        for (int value: values)
+            buffer.putInt(value);
+        return buffer.array();
+    }
+
+    /**
+     * Concatenates byte arrays.
+     * 
+     * @param parts
+     *            The arrays to concatenate.
+     * @return The concatenated array.
+     */
+    private static byte[] concat(byte[]... parts)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part: parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds a frame with a string payload like a request or a FAIL
+     * response.
+     * 
+     * @param id
+     *            The frame ID.
+     * @param text
+     *            The payload.
+     * @return The frame.
+     */
+    private static byte[] textFrame(String id, String text)
+    {
+        byte[] bytes = text.getBytes(UTF8);
+        return concat(frame(id, bytes.length), bytes);
+    }
+
+    /**
+     * Builds a directory entry frame.
+     * 
+     * @param name
+     *            The file name.
+     * @param mode
+     *            The file mode.
+     * @return The frame.
+     */
+    private static byte[] dent(String name, int mode)
+    {
+        byte[] bytes = name.getBytes(UTF8);
+        return concat(frame("DENT", mode, 42, 1000, bytes.length), bytes);
+    }
+
+    /**
+     * Tests a STAT request.
+     * 
+     * @throws IOException
+     *             When request failed.
+     */
+    @Test
+    public void testStat() throws IOException
+    {
+        this.stream.receive(frame("STAT", 0100644, 1234, 5678));
+        RemoteFile file = this.client.stat("/sdcard/a");
+        assertArrayEquals(textFrame("STAT", "/sdcard/a"),
+            this.stream.takeWritten());
+        assertTrue(file.isFile());
+        assertEquals(1234, file.getSize());
+        assertEquals(5678, file.getTime());
+    }
+
+    /**
+     * Tests a STAT request for a missing file.
+     * 
+     * @throws IOException
+     *             When request failed.
+     */
+    @Test
+    public void testStatMissingFile() throws IOException
+    {
+        this.stream.receive(frame("STAT", 0, 0, 0));
+        assertFalse(this.client.stat("/missing").exists());
+    }
+
+    /**
+     * Tests that a FAIL response to STAT is reported and the session stays
+     * usable.
+     * 
+     * @throws IOException
+     *             When request failed.
+     */
+    @Test
+    public void testStatFailure() throws IOException
+    {
+        this.stream.receive(textFrame("FAIL", "Permission denied"));
+        this.stream.receive(frame("STAT", 0100644, 1, 2));
+        try
+        {
+            this.client.stat("/secret");
+            fail("IOException expected");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().endsWith("Permission denied"));
+        }
+        assertEquals(1, this.client.stat("/public").getSize());
+    }
+
+    /**
+     * Tests a LIST request with the responses split into small chunks.
+     * 
+     * @throws IOException
+     *             When request failed.
+     */
+    @Test
+    public void testList() throws IOException
+    {
+        this.stream.receive(concat(dent(".", 040755), dent("..", 040755),
+            dent("file", 0100644), dent("dir", 040755),
+            frame("DONE", 0, 0, 0, 0)), 3);
+        List<RemoteFile> files = this.client.list("/sdcard");
+        assertArrayEquals(textFrame("LIST", "/sdcard"),
+            this.stream.takeWritten());
+        assertEquals(2, files.size());
+        assertEquals("file", files.get(0).getName());
+        assertTrue(files.get(0).isFile());
+        assertEquals(42, files.get(0).getSize());
+        assertEquals("dir", files.get(1).getName());
+        assertTrue(files.get(1).isDirectory());
+    }
+
+    /**
+     * Tests that a FAIL response to LIST is reported completely so the
+     * session stays in sync.
+     * 
+     * @throws IOException
+     *             When request failed.
+     */
+    @Test
+    public void testListFailure() throws IOException
+    {
+        this.stream.receive(textFrame("FAIL", "No such file"));
+        this.stream.receive(frame("DONE", 0, 0, 0, 0));
+        try
+        {
+            this.client.list("/missing");
+            fail("IOException expected");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().endsWith("No such file"));
+        }
+        assertTrue(this.client.list("/empty").isEmpty());
+    }
+
+    /**
+     * Tests that pushed data is split into DATA frames.
+     * 
+     * @throws IOException
+     *             When push failed.
+     */
+    @Test
+    public void testPush() throws IOException
+    {
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        this.stream.receive(frame("OKAY", 0));
+        assertEquals(40, this.client.push(Channels.newChannel(
+            new ByteArrayInputStream(data)), "/x", 0644, 1234));
+        byte[] expected = concat(textFrame("SEND", "/x,420"),
+            frame("DATA", 16), slice(data, 0, 16),
+            frame("DATA", 16), slice(data, 16, 16),
+            frame("DATA", 8), slice(data, 32, 8),
+            frame("DONE", 1234));
+        assertArrayEquals(expected, this.stream.takeWritten());
+    }
+
+    /**
+     * Tests that a rejected push is reported.
+     * 
+     * @throws IOException
+     *             When push failed.
+     */
+    @Test(expected = IOException.class)
+    public void testPushFailure() throws IOException
+    {
+        this.stream.receive(textFrame("FAIL", "Read-only file system"));
+        this.client.push(Channels.newChannel(new ByteArrayInputStream(
+            new byte[1])), "/x", 0644, 0);
+    }
+
+    /**
+     * Tests that a file is pushed when the remote file is missing and
+     * skipped when it matches the push cache.
+     * 
+     * @throws IOException
+     *             When push failed.
+     */
+    @Test
+    public void testPushIfChanged() throws IOException
+    {
+        File file = File.createTempFile("usb4java", ".tmp");
+        File cacheFile = File.createTempFile("usb4java", ".properties");
+        cacheFile.delete();
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write("hello".getBytes(UTF8));
+            }
+            finally
+            {
+                out.close();
+            }
+            PushCache cache = new PushCache(cacheFile);
+            int time = (int) (file.lastModified() / 1000);
+
+            // Missing remote file is pushed and hashed while pushing
+            this.stream.receive(concat(frame("STAT", 0, 0, 0),
+                frame("OKAY", 0)));
+            assertEquals(5, this.client.pushIfChanged(file, "/x", cache));
+            this.stream.takeWritten();
+            assertTrue(cache.matches("/x", new RemoteFile(null,
+                SyncClient.DEFAULT_MODE, 5, time),
+                "AAF4C61DDCC5E8A2DABEDE0F3B482CD9AEA9434D"));
+
+            // Unchanged remote file is skipped
+            this.stream.receive(frame("STAT", SyncClient.DEFAULT_MODE, 5,
+                time));
+            assertEquals(-1, this.client.pushIfChanged(file, "/x", cache));
+            assertArrayEquals(textFrame("STAT", "/x"),
+                this.stream.takeWritten());
+        }
+        finally
+        {
+            file.delete();
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Tests pulling a file which is received in multiple DATA frames.
+     * 
+     * @throws IOException
+     *             When pull failed.
+     */
+    @Test
+    public void testPull() throws IOException
+    {
+        this.stream.receive(concat(textFrame("DATA", "hello"),
+            textFrame("DATA", " world"), frame("DONE", 0)), 5);
+        File file = File.createTempFile("usb4java", ".tmp");
+        try
+        {
+            assertEquals(11, this.client.pull("/remote", file));
+            assertArrayEquals(textFrame("RECV", "/remote"),
+                this.stream.takeWritten());
+            byte[] content = new byte[(int) file.length()];
+            FileInputStream input = new FileInputStream(file);
+            try
+            {
+                assertEquals(content.length, input.read(content));
+            }
+            finally
+            {
+                input.close();
+            }
+            assertEquals("hello world", new String(content, UTF8));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that closing the client ends the session.
+     * 
+     * @throws IOException
+     *             When closing failed.
+     */
+    @Test
+    public void testClose() throws IOException
+    {
+        this.client.close();
+        assertArrayEquals(frame("QUIT", 0), this.stream.takeWritten());
+        assertFalse(this.stream.isOpen());
+    }
+
+    /**
+     * Returns a part of an array.
+     * 
+     * @param data
+     *            The array.
+     * @param offset
+     *            The offset of the part.
+     * @param length
+     *            The length of the part.
+     * @return The part.
+     */
+    private static byte[] slice(byte[] data, int offset, int length)
+    {
+        byte[] part = new byte[length];
+        System.arraycopy(data, offset, part, 0, length);
+        return part;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.adb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the {@link Vendors} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class VendorsTest
+{
+    /**
+     * Checks if the specified vendor ID is contained in the specified list.
+     * 
+     * @param vendorIds
+     *            The vendor IDs.
+     * @param vendorId
+     *            The vendor ID to search.
+     * @return True if contained, false if not.
+     */
+    private static boolean contains(short[] vendorIds, int vendorId)
+    {
+        for (short id: vendorIds)
+            if (id == (short) vendorId) return true;
+        return false;
+    }
+
+    /**
+     * Writes the specified text into the specified file.
+     * 
+     * @param file
+     *            The file to write.
+     * @param text
+     *            The text to write.
+     * @throws IOException
+     *             When writing failed.
+     */
+    private static void write(File file, String text) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(text.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Switches back to the default adb_usb.ini file.
+     */
+    @After
+    public void restoreIniFile()
+    {
+        Vendors.setIniFile(null);
+        Vendors.reload();
+    }
+
+    /**
+     * Tests the lookup of fixed vendor IDs, including IDs with the highest
+     * bit set.
+     */
+    @Test
+    public void testFixedVendors()
+    {
+        assertTrue(Vendors.isAdbVendor((short) 0x18d1));
+        assertTrue(Vendors.isAdbVendor((short) 0x8087));
+        assertTrue(Vendors.isAdbVendor((short) 0xe040));
+        assertFalse(Vendors.isAdbVendor((short) 0x0000));
+        assertFalse(Vendors.isAdbVendor((short) 0xffff));
+    }
+
+    /**
+     * Tests adding vendor IDs at runtime.
+     */
+    @Test
+    public void testAddVendorId()
+    {
+        short vendorId = (short) 0xfffe;
+        assertFalse(Vendors.isAdbVendor(vendorId));
+        assertTrue(Vendors.addVendorId(vendorId));
+        assertFalse(Vendors.addVendorId(vendorId));
+        assertTrue(Vendors.isAdbVendor(vendorId));
+        assertTrue(contains(Vendors.getVendorIds(), vendorId));
+    }
+
+    /**
+     * Tests that the vendor IDs are sorted by their unsigned value.
+     */
+    @Test
+    public void testVendorIdsSorted()
+    {
+        short[] vendorIds = Vendors.getVendorIds();
+        assertTrue(vendorIds.length > 0);
+        for (int i = 1; i < vendorIds.length; i++)
+            assertTrue((vendorIds[i - 1] & 0xffff) < (vendorIds[i] & 0xffff));
+        for (short vendorId: vendorIds)
+            assertTrue(Vendors.isAdbVendor(vendorId));
+    }
+
+    /**
+     * Tests reloading a changed adb_usb.ini file.
+     * 
+     * @throws IOException
+     *             When the adb_usb.ini file could not be written.
+     */
+    @Test
+    public void testReload() throws IOException
+    {
+        File file = File.createTempFile("adb_usb", ".ini");
+        try
+        {
+            write(file, "# Comment\n0xfffd\n");
+            Vendors.setIniFile(file);
+            assertArrayEquals(new short[] { (short) 0xfffd },
+                Vendors.reload());
+            assertTrue(Vendors.isAdbVendor((short) 0xfffd));
+
+            // Nothing changed so nothing is read
+            assertEquals(0, Vendors.reload().length);
+
+            // Vendor IDs added at runtime survive a reload, vendor IDs
+            // removed from the file are gone
+            assertTrue(Vendors.addVendorId((short) 0xfff0));
+            write(file, "0xfffc\n0xfffb\n");
+            assertArrayEquals(new short[] { (short) 0xfffb, (short) 0xfffc },
+                Vendors.reload());
+            assertFalse(Vendors.isAdbVendor((short) 0xfffd));
+            assertTrue(Vendors.isAdbVendor((short) 0xfffc));
+            assertTrue(Vendors.isAdbVendor((short) 0xfff0));
+            assertTrue(Vendors.isAdbVendor((short) 0x18d1));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
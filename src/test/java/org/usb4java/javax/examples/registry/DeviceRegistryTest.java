@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.usb.UsbConfiguration;
+import javax.usb.UsbConst;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+import javax.usb.UsbEndpoint;
+import javax.usb.UsbEndpointDescriptor;
+import javax.usb.UsbException;
+import javax.usb.UsbHub;
+import javax.usb.UsbInterface;
+import javax.usb.UsbInterfaceDescriptor;
+import javax.usb.UsbPort;
+import javax.usb.UsbServices;
+import javax.usb.event.UsbServicesEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.usb4java.javax.examples.adb.Vendors;
+
+/**
+ * Tests the {@link DeviceRegistry} class with a simulated device tree.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class DeviceRegistryTest
+{
+    /** A vendor ID which is not an ADB vendor. */
+    private static final short VENDOR_ID = 0x0001;
+
+    /** A vendor ID which is added as ADB vendor by a test. */
+    private static final short ADDED_VENDOR_ID = (short) 0xfff1;
+
+    /** The simulated USB services. */
+    private UsbServices services;
+
+    /** The simulated root hub. */
+    private UsbHub rootHub;
+
+    /** The tested registry. */
+    private DeviceRegistry registry;
+
+    /**
+     * Creates the simulated root hub and the registry.
+     */
+    @Before
+    public void setUp()
+    {
+        this.rootHub = createHub(null, 0);
+        final UsbHub root = this.rootHub;
+        this.services = (UsbServices) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { UsbServices.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    if (method.getName().equals("getRootUsbHub"))
+                        return root;
+                    return null;
+                }
+            });
+        this.registry = new DeviceRegistry(this.services);
+    }
+
+    /**
+     * Stops the registry.
+     */
+    @After
+    public void tearDown()
+    {
+        this.registry.stop();
+    }
+
+    /**
+     * Creates a simulated hub.
+     * 
+     * @param parent
+     *            The parent hub. Null for the root hub.
+     * @param port
+     *            The port of the parent hub the hub is connected to.
+     * @return The hub.
+     */
+    private static UsbHub createHub(UsbHub parent, int port)
+    {
+        return (UsbHub) create(UsbHub.class, parent, port, VENDOR_ID,
+            (short) 0, null);
+    }
+
+    /**
+     * Creates a simulated device which is not a hub.
+     * 
+     * @param parent
+     *            The parent hub.
+     * @param port
+     *            The port of the parent hub the device is connected to.
+     * @param productId
+     *            The product ID.
+     * @return The device.
+     */
+    private static UsbDevice createDevice(UsbHub parent, int port,
+        int productId)
+    {
+        return create(UsbDevice.class, parent, port, VENDOR_ID,
+            (short) productId, null);
+    }
+
+    /**
+     * Creates a simulated device with an ADB interface.
+     * 
+     * @param parent
+     *            The parent hub.
+     * @param port
+     *            The port of the parent hub the device is connected to.
+     * @param vendorId
+     *            The vendor ID.
+     * @return The device.
+     */
+    private static UsbDevice createAdbDevice(UsbHub parent, int port,
+        short vendorId)
+    {
+        UsbInterfaceDescriptor ifaceDescriptor =
+            (UsbInterfaceDescriptor) createStub(UsbInterfaceDescriptor.class,
+                "bInterfaceNumber", (byte) 0,
+                "bInterfaceClass", (byte) 0xff,
+                "bInterfaceSubClass", (byte) 0x42,
+                "bInterfaceProtocol", (byte) 1);
+        List<UsbEndpoint> endpoints = new ArrayList<UsbEndpoint>();
+        for (byte address: new byte[] { (byte) 0x81, 0x01 })
+        {
+            Object descriptor = createStub(UsbEndpointDescriptor.class,
+                "bEndpointAddress", address,
+                "bmAttributes", UsbConst.ENDPOINT_TYPE_BULK);
+            endpoints.add((UsbEndpoint) createStub(UsbEndpoint.class,
+                "getUsbEndpointDescriptor", descriptor));
+        }
+        Object iface = createStub(UsbInterface.class,
+            "getUsbInterfaceDescriptor", ifaceDescriptor,
+            "getUsbEndpoints", endpoints);
+        UsbConfiguration config = (UsbConfiguration) createStub(
+            UsbConfiguration.class, "getUsbInterfaces", Arrays.asList(iface));
+        return create(UsbDevice.class, parent, port, vendorId, (short) 1,
+            config);
+    }
+
+    /**
+     * Creates a proxy which answers the specified methods with fixed values
+     * and all other methods with null.
+     * 
+     * @param type
+     *            The implemented interface.
+     * @param answers
+     *            Pairs of method names and return values.
+     * @return The proxy.
+     */
+    private static Object createStub(Class<?> type, final Object... answers)
+    {
+        return Proxy.newProxyInstance(
+            DeviceRegistryTest.class.getClassLoader(),
+            new Class<?>[] { type }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    for (int i = 0; i < answers.length; i += 2)
+                        if (answers[i].equals(method.getName()))
+                            return answers[i + 1];
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Creates a simulated device and attaches it to its parent hub.
+     * 
+     * @param type
+     *            The device interface.
+     * @param parent
+     *            The parent hub. Null for the root hub.
+     * @param portNumber
+     *            The port of the parent hub the device is connected to.
+     * @param vendorId
+     *            The vendor ID.
+     * @param productId
+     *            The product ID.
+     * @param config
+     *            The active configuration. Null if not configured.
+     * @return The device.
+     */
+    private static UsbDevice create(final Class<? extends UsbDevice> type,
+        final UsbHub parent, int portNumber, final short vendorId,
+        final short productId, final UsbConfiguration config)
+    {
+        final List<UsbDevice> children = new ArrayList<UsbDevice>();
+        final UsbPort port = parent == null ? null : createPort(parent,
+            (byte) portNumber);
+        final UsbDeviceDescriptor descriptor = (UsbDeviceDescriptor) Proxy
+            .newProxyInstance(DeviceRegistryTest.class.getClassLoader(),
+                new Class<?>[] { UsbDeviceDescriptor.class },
+                new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                        Object[] args)
+                    {
+                        if (method.getName().equals("idVendor"))
+                            return vendorId;
+                        return productId;
+                    }
+                });
+        UsbDevice device = (UsbDevice) Proxy.newProxyInstance(
+            DeviceRegistryTest.class.getClassLoader(),
+            new Class<?>[] { type }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("isUsbHub"))
+                        return type == UsbHub.class;
+                    if (name.equals("getAttachedUsbDevices")) return children;
+                    if (name.equals("getParentUsbPort")) return port;
+                    if (name.equals("getUsbDeviceDescriptor"))
+                        return descriptor;
+                    if (name.equals("getActiveUsbConfiguration"))
+                        return config;
+                    if (name.equals("equals")) return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    if (name.equals("toString"))
+                        return type.getSimpleName() + "@" + port;
+                    return null;
+                }
+            });
+        if (parent != null) parent.getAttachedUsbDevices().add(device);
+        return device;
+    }
+
+    /**
+     * Creates a simulated port.
+     * 
+     * @param hub
+     *            The hub the port belongs to.
+     * @param number
+     *            The port number.
+     * @return The port.
+     */
+    private static UsbPort createPort(final UsbHub hub, final byte number)
+    {
+        return (UsbPort) Proxy.newProxyInstance(
+            DeviceRegistryTest.class.getClassLoader(),
+            new Class<?>[] { UsbPort.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    String name = method.getName();
+                    if (name.equals("getPortNumber")) return number;
+                    if (name.equals("getUsbHub")) return hub;
+                    if (name.equals("toString")) return "port " + number;
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Tests that devices are ordered by their numeric port paths.
+     * 
+     * @throws UsbException
+     *             When registry could not be started.
+     */
+    @Test
+    public void testTreeOrder() throws UsbException
+    {
+        UsbDevice d10 = createDevice(this.rootHub, 10, 1);
+        UsbHub hub = createHub(this.rootHub, 2);
+        UsbDevice d23 = createDevice(hub, 3, 2);
+        UsbDevice d21 = createDevice(hub, 1, 3);
+        UsbDevice d3 = createDevice(this.rootHub, 3, 4);
+        this.registry.start();
+        assertEquals(Arrays.asList("2", "2.1", "2.3", "3", "10"),
+            new ArrayList<String>(this.registry.getDevicesByPortPath()
+                .keySet()));
+        assertEquals(Arrays.asList(hub, d21, d23, d3, d10),
+            this.registry.getDevices());
+        assertSame(d23, this.registry.getDevice("2.3"));
+        assertEquals("2.3", this.registry.getPortPath(d23));
+    }
+
+    /**
+     * Tests that detaching a hub removes all devices below it but not the
+     * devices of neighbouring ports.
+     * 
+     * @throws UsbException
+     *             When registry could not be started.
+     */
+    @Test
+    public void testDetachHub() throws UsbException
+    {
+        UsbHub hub = createHub(this.rootHub, 2);
+        UsbDevice d21 = createDevice(hub, 1, 1);
+        UsbHub subHub = createHub(hub, 4);
+        createDevice(subHub, 1, 2);
+        UsbDevice d3 = createDevice(this.rootHub, 3, 3);
+        UsbDevice d20 = createDevice(this.rootHub, 20, 4);
+        this.registry.start();
+        assertEquals(6, this.registry.getDevices().size());
+
+        this.registry.usbDeviceDetached(new UsbServicesEvent(this.services,
+            hub));
+        assertEquals(Arrays.asList(d3, d20), this.registry.getDevices());
+        assertNull(this.registry.getPortPath(d21));
+        assertEquals(0, this.registry.getDevices(VENDOR_ID, (short) 1)
+            .size());
+        assertEquals(0, this.registry.getDevices(VENDOR_ID, (short) 2)
+            .size());
+        assertEquals(Arrays.asList(d3), this.registry.getDevices(VENDOR_ID,
+            (short) 3));
+    }
+
+    /**
+     * Tests that detaching a single device keeps its siblings.
+     * 
+     * @throws UsbException
+     *             When registry could not be started.
+     */
+    @Test
+    public void testDetachDevice() throws UsbException
+    {
+        UsbHub hub = createHub(this.rootHub, 1);
+        UsbDevice d11 = createDevice(hub, 1, 1);
+        UsbDevice d12 = createDevice(hub, 2, 1);
+        this.registry.start();
+        this.registry.usbDeviceDetached(new UsbServicesEvent(this.services,
+            d11));
+        assertEquals(Arrays.asList(hub, d12), this.registry.getDevices());
+        assertEquals(Arrays.asList(d12), this.registry.getDevices(VENDOR_ID,
+            (short) 1));
+    }
+
+    /**
+     * Tests that registered devices are reported as ADB devices when their
+     * vendor is added to the ADB vendors.
+     * 
+     * @throws UsbException
+     *             When registry could not be started.
+     */
+    @Test
+    public void testVendorAdded() throws UsbException
+    {
+        final List<AdbDeviceEvent> events = new ArrayList<AdbDeviceEvent>();
+        this.registry.addAdbDeviceListener(new AdbDeviceListener()
+        {
+            @Override
+            public void adbDeviceAttached(AdbDeviceEvent event)
+            {
+                events.add(event);
+            }
+
+            @Override
+            public void adbDeviceDetached(AdbDeviceEvent event)
+            {
+                events.add(event);
+            }
+        });
+        UsbDevice device = createAdbDevice(this.rootHub, 1, ADDED_VENDOR_ID);
+        this.registry.start();
+        assertTrue(events.isEmpty());
+
+        Vendors.addVendorId(ADDED_VENDOR_ID);
+        assertEquals(1, events.size());
+        AdbDeviceEvent event = events.get(0);
+        assertSame(device, event.getUsbDevice());
+        assertEquals("1", event.getPortPath());
+        assertEquals(1, event.getAdbDevices().size());
+        assertEquals((byte) 0x81, event.getAdbDevices().get(0)
+            .getInEndpoint());
+
+        // A second notification doesn't report the device again
+        this.registry.vendorsChanged();
+        assertEquals(1, events.size());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import javax.usb.UsbDevice;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link InventoryEngine} class.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class InventoryEngineTest
+{
+    /**
+     * Creates a simulated device which answers all methods with null.
+     * 
+     * @return The device.
+     */
+    private static UsbDevice createDevice()
+    {
+        return (UsbDevice) Proxy.newProxyInstance(
+            InventoryEngineTest.class.getClassLoader(),
+            new Class<?>[] { UsbDevice.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * Tests that a run finishes when the only thread is stuck in a task
+     * which ignores interrupts. The stuck device and the devices which never
+     * got a thread are reported as timed out.
+     */
+    @Test(timeout = 5000)
+    public void testStuckTaskDoesNotBlockRun()
+    {
+        final UsbDevice stuck = createDevice();
+        final CountDownLatch release = new CountDownLatch(1);
+        List<UsbDevice> devices = new ArrayList<UsbDevice>();
+        devices.add(stuck);
+        devices.add(createDevice());
+        devices.add(createDevice());
+        try
+        {
+            List<InventoryResult<String>> results = new InventoryEngine(1,
+                50).run(devices, new InventoryTask<String>()
+            {
+                @Override
+                public String run(UsbDevice device)
+                {
+                    if (device != stuck) return "ok";
+                    while (release.getCount() > 0)
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // Simulates a transfer which ignores interrupts
+                        }
+                    }
+                    return "late";
+                }
+            });
+            assertEquals(3, results.size());
+            for (int i = 0; i < 3; i++)
+            {
+                InventoryResult<String> result = results.get(i);
+                assertSame(devices.get(i), result.getDevice());
+                assertTrue(result.getError() instanceof TimeoutException);
+            }
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+}
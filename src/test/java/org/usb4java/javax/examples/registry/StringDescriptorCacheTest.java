@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2014 Klaus Reimer <k@ailis.de>
+ * See LICENSE.md for licensing information.
+ */
+
+package org.usb4java.javax.examples.registry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.usb.UsbControlIrp;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+import javax.usb.UsbException;
+import javax.usb.UsbServices;
+import javax.usb.util.DefaultUsbControlIrp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StringDescriptorCache} class with a simulated device.
+ * The device has the manufacturer string 1, the product string 2 and the
+ * serial number string 3. String 4 has an invalid descriptor length.
+ * 
+ * @author Klaus Reimer (k@ailis.de)
+ */
+public class StringDescriptorCacheTest
+{
+    /** The string indices submitted to the device in submission order. */
+    private final List<Integer> submitted = new ArrayList<Integer>();
+
+    /** The string indices which can't be read from the device. */
+    private final Set<Integer> failing = new HashSet<Integer>();
+
+    /** The simulated device. */
+    private UsbDevice device;
+
+    /** The tested cache. */
+    private StringDescriptorCache cache;
+
+    /**
+     * Creates the simulated device and the cache.
+     */
+    @Before
+    public void setUp()
+    {
+        final UsbDeviceDescriptor descriptor = (UsbDeviceDescriptor) Proxy
+            .newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { UsbDeviceDescriptor.class },
+                new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                        Object[] args)
+                    {
+                        String name = method.getName();
+                        if (name.equals("iManufacturer")) return (byte) 1;
+                        if (name.equals("iProduct")) return (byte) 2;
+                        if (name.equals("iSerialNumber")) return (byte) 3;
+                        return null;
+                    }
+                });
+        this.device = (UsbDevice) Proxy.newProxyInstance(getClass()
+            .getClassLoader(), new Class<?>[] { UsbDevice.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args) throws UsbException
+                {
+                    String name = method.getName();
+                    if (name.equals("getUsbDeviceDescriptor"))
+                        return descriptor;
+                    if (name.equals("createUsbControlIrp"))
+                        return new DefaultUsbControlIrp((Byte) args[0],
+                            (Byte) args[1], (Short) args[2], (Short) args[3]);
+                    if (name.equals("syncSubmit"))
+                    {
+                        // Submit a list one by one and stop on the first
+                        // failure
+                        if (args[0] instanceof List)
+                        {
+                            for (Object irp: (List<?>) args[0])
+                                submit((UsbControlIrp) irp);
+                        }
+                        else
+                        {
+                            submit((UsbControlIrp) args[0]);
+                        }
+                        return null;
+                    }
+                    if (name.equals("equals")) return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    return null;
+                }
+            });
+        UsbServices services = (UsbServices) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { UsbServices.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                    Object[] args)
+                {
+                    return null;
+                }
+            });
+        this.cache = new StringDescriptorCache(services);
+    }
+
+    /**
+     * Completes a control IRP reading a string descriptor.
+     * 
+     * @param irp
+     *            The control IRP.
+     * @throws UsbException
+     *             When the string is configured to fail.
+     */
+    private void submit(UsbControlIrp irp) throws UsbException
+    {
+        int index = irp.wValue() & 0xff;
+        this.submitted.add(index);
+        if (this.failing.contains(index))
+        {
+            UsbException e = new UsbException("Pipe error");
+            irp.setUsbException(e);
+            irp.complete();
+            throw e;
+        }
+        byte[] descriptor;
+        if (index == 0)
+            descriptor = new byte[] { 4, 3, 0x09, 0x04 };
+        else if (index == 4)
+            descriptor = new byte[] { 0, 3 };
+        else
+            descriptor = new byte[] { 4, 3, (byte) ('0' + index), 0 };
+        System.arraycopy(descriptor, 0, irp.getData(), irp.getOffset(),
+            descriptor.length);
+        irp.setActualLength(descriptor.length);
+        irp.complete();
+    }
+
+    /**
+     * Tests that the strings of the device descriptor are fetched in one
+     * batch.
+     * 
+     * @throws UsbException
+     *             When a string could not be read.
+     */
+    @Test
+    public void testBatch() throws UsbException
+    {
+        assertEquals("1", this.cache.getManufacturer(this.device));
+        assertEquals(Arrays.asList(0, 1, 2, 3), this.submitted);
+        assertEquals("2", this.cache.getProduct(this.device));
+        assertEquals("3", this.cache.getSerialNumber(this.device));
+        assertEquals(4, this.submitted.size());
+        assertEquals(4, this.cache.getFetchCount());
+    }
+
+    /**
+     * Tests that only the requested strings are fetched.
+     * 
+     * @throws UsbException
+     *             When a string could not be read.
+     */
+    @Test
+    public void testGetStrings() throws UsbException
+    {
+        assertArrayEquals(new String[] { "1", null, "2" },
+            this.cache.getStrings(this.device, (byte) 1, (byte) 0, (byte) 2));
+        assertEquals(Arrays.asList(0, 1, 2), this.submitted);
+    }
+
+    /**
+     * Tests that a failing string doesn't lose the other strings of the
+     * batch.
+     * 
+     * @throws UsbException
+     *             When a string could not be read.
+     */
+    @Test
+    public void testBatchFailure() throws UsbException
+    {
+        this.failing.add(2);
+        assertEquals("1", this.cache.getManufacturer(this.device));
+        assertEquals("3", this.cache.getSerialNumber(this.device));
+        assertEquals(Arrays.asList(0, 1, 2, 2, 3), this.submitted);
+        try
+        {
+            this.cache.getProduct(this.device);
+            fail("Exception expected");
+        }
+        catch (UsbException e)
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests that a string descriptor with a length below 2 is rejected.
+     * 
+     * @throws UsbException
+     *             When the language IDs could not be read.
+     */
+    @Test(expected = UsbException.class)
+    public void testInvalidLength() throws UsbException
+    {
+        this.cache.getString(this.device, (byte) 4);
+    }
+}